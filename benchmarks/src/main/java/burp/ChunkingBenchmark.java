@@ -0,0 +1,65 @@
+package burp;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pre-send CPU cost of one audit: content reduction, token counting and
+ * chunking of a request plus a JSON response of 10 KB to 50 MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class ChunkingBenchmark {
+
+    @Param({"10240", "1048576", "10485760", "52428800"})
+    public int responseBytes;
+
+    @Param({"openai/gpt-4o", "claude/claude-3-5-sonnet-latest"})
+    public String model;
+
+    private String content;
+    private String prompt;
+    private TokenCounter tokenCounter;
+    private ContentReducer reducer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        content = Fixtures.exchange(responseBytes);
+        prompt = "You are a security auditor. Report findings as JSON.\n".repeat(40);
+        tokenCounter = TokenCounter.forModel(model);
+        reducer = new ContentReducer();
+        RequestChunker.setMaxTokensPerChunk(100000);
+    }
+
+    @Benchmark
+    public List<String> chunkContent() {
+        return RequestChunker.chunkContent(content, prompt, tokenCounter);
+    }
+
+    @Benchmark
+    public int countTokens() {
+        return tokenCounter.count(content);
+    }
+
+    @Benchmark
+    public ContentReducer.Result reduceContent() {
+        return reducer.reduce(content);
+    }
+}
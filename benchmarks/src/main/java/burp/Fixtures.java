@@ -0,0 +1,211 @@
+package burp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+/**
+ * Benchmark corpora built from the recorded exchange in {@code /fixtures}, and
+ * Montoya stand-ins. The stubs are dynamic proxies that answer from a map and
+ * otherwise return an empty value (or another stub for interface types), so
+ * calls like {@code api.siteMap().add(issue)} are no-ops.
+ *
+ * Everything is deterministic: the same parameters always produce the same corpus.
+ */
+final class Fixtures {
+    static final String REQUEST = resource("request.http");
+    static final String RESPONSE_HEAD = resource("response-head.http");
+    static final String ORDER = resource("order.json").trim();
+    static final String FINDING = resource("finding.json").trim();
+    static final String CHAT_COMPLETION = resource("chat-completion.json").trim();
+
+    private Fixtures() {
+    }
+
+    private static String resource(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** The recorded response with its JSON body grown to about {@code bytes} by repeating the order record. */
+    static String response(int bytes) {
+        StringBuilder body = new StringBuilder(bytes + ORDER.length() + 64);
+        body.append("{\"page\":1,\"orders\":[");
+        for (int i = 0; body.length() < bytes - 2; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            // Vary ids so the content is not one repeated string
+            body.append(ORDER.replace("58213", String.valueOf(58213 + i)));
+        }
+        body.append("]}");
+        return RESPONSE_HEAD + body;
+    }
+
+    /** The request and response as the extension chunks them. */
+    static String exchange(int responseBytes) {
+        return REQUEST + "\n\n" + response(responseBytes);
+    }
+
+    /** Model output with {@code count} findings, optionally preceded by a reasoning block. */
+    static String findingsContent(int count, boolean withThinking) {
+        JSONObject template = new JSONObject(FINDING);
+        JSONArray findings = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            JSONObject finding = new JSONObject(template.toMap());
+            finding.put("vulnerability", template.getString("vulnerability") + " #" + i);
+            finding.put("location", template.getString("location") + " (variant " + i + ")");
+            findings.put(finding);
+        }
+        String json = new JSONObject().put("findings", findings).toString(2);
+        if (!withThinking) {
+            return json;
+        }
+        return "<think>\nThe request carries customerId in the body while the token subject is 1042.\n"
+                + "Check whether the server scopes the query to the token.\n".repeat(20)
+                + "</think>\n```json\n" + json + "\n```";
+    }
+
+    /** The recorded chat completion with its content replaced by {@code count} findings. */
+    static JSONObject chatCompletion(int count) {
+        JSONObject completion = new JSONObject(CHAT_COMPLETION);
+        completion.getJSONArray("choices").getJSONObject(0).getJSONObject("message")
+                .put("content", findingsContent(count, false));
+        return completion;
+    }
+
+    /** Markdown like the issue detail built from a finding, repeated to {@code paragraphs} paragraphs. */
+    static String markdownDetail(int paragraphs) {
+        JSONObject finding = new JSONObject(FINDING);
+        StringBuilder md = new StringBuilder("__Issue identified by AI Auditor__\n\n");
+        for (int i = 0; i < paragraphs; i++) {
+            md.append("**Location:** ").append(finding.getString("location")).append("\n\n")
+              .append("**Detailed Explanation:**\n").append(finding.getString("explanation")).append("\n\n");
+        }
+        md.append("**Confidence Level:** FIRM\n**Severity Level:** HIGH");
+        return md.toString();
+    }
+
+    static HttpRequestResponse requestResponse() {
+        return requestResponse(0);
+    }
+
+    /** The recorded exchange; each {@code variant} has a different customerId so no two are identical. */
+    static HttpRequestResponse requestResponse(int variant) {
+        HttpService service = stub(HttpService.class, Map.of("host", "shop.example.test", "port", 443, "secure", true));
+        HttpRequest request = stub(HttpRequest.class, Map.of(
+                "toString", variant == 0 ? REQUEST : REQUEST.replace("\"customerId\":1042", "\"customerId\":" + (1042 + variant)),
+                "url", "https://shop.example.test/api/v2/orders/search",
+                "method", "POST",
+                "httpService", service));
+        HttpResponse response = stub(HttpResponse.class, Map.of("toString", response(4096), "statusCode", (short) 200));
+        return stub(HttpRequestResponse.class, Map.of("request", request, "response", response, "httpService", service));
+    }
+
+    /**
+     * A Montoya settings store ({@code Preferences} or {@code PersistedObject}) backed
+     * by {@code values}: getX(key) reads, setX(key, value) writes, deleteX(key) removes.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T mapBacked(Class<T> type, Map<String, Object> values) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("get") && args != null && args.length == 1) {
+                return values.get((String) args[0]);
+            }
+            if (name.startsWith("set") && args != null && args.length == 2) {
+                values.put((String) args[0], args[1]);
+                return null;
+            }
+            if (name.startsWith("delete") && args != null && args.length == 1) {
+                values.remove((String) args[0]);
+                return null;
+            }
+            return "toString".equals(name) ? type.getSimpleName() + " stub" : emptyValue(method.getReturnType());
+        });
+    }
+
+    /** An AIAuditor wired to a stub API, without running initialize() (which builds the Swing UI). */
+    static AIAuditor auditor() {
+        AIAuditor auditor = new AIAuditor();
+        try {
+            Field api = AIAuditor.class.getDeclaredField("api");
+            api.setAccessible(true);
+            api.set(auditor, stub(MontoyaApi.class, Map.of()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        return auditor;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (answers.containsKey(name)) {
+                return answers.get(name);
+            }
+            switch (name) {
+                case "toString":
+                    return type.getSimpleName() + " stub";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return emptyValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Object emptyValue(Class<?> type) {
+        if (type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type.isPrimitive()) {
+            // byte, short, int, long, float, double
+            return type == long.class ? 0L : type == double.class ? 0d : type == float.class ? 0f
+                    : type == short.class ? (short) 0 : type == byte.class ? (byte) 0 : 0;
+        }
+        if (type == String.class) {
+            return "";
+        }
+        if (type == Optional.class) {
+            return Optional.empty();
+        }
+        if (type.isAssignableFrom(java.util.List.class)) {
+            return Collections.emptyList();
+        }
+        if (type.isInterface()) {
+            return stub(type, Map.of());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+package burp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Markdown-to-HTML conversion of issue details, from a typical finding to a very long one. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IssueFormattingBenchmark {
+
+    @Param({"1", "20", "500"})
+    public int paragraphs;
+
+    private String markdown;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        markdown = Fixtures.markdownDetail(paragraphs);
+    }
+
+    @Benchmark
+    public String mdToHtmlLite() {
+        return AIAuditIssue.mdToHtmlLite(markdown);
+    }
+
+    @Benchmark
+    public String formatDetail() {
+        return AIAuditIssue.formatDetail(markdown, "openai/gpt-4o (gpt-4o-2024-08-06)");
+    }
+}
@@ -0,0 +1,267 @@
+package burp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import javax.swing.SwingUtilities;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.logging.Logging;
+import burp.api.montoya.persistence.PersistedObject;
+import burp.api.montoya.persistence.Persistence;
+import burp.api.montoya.persistence.Preferences;
+
+/**
+ * Drives the whole audit pipeline (processAuditRequest, ThreadPoolManager,
+ * the retry loop in sendToAI, API key pools, streaming) against
+ * {@link MockProviderServer} at a fixed request rate, and reports throughput,
+ * latency percentiles and queue depth.
+ *
+ *   java -cp benchmarks.jar burp.LoadTest --provider gemini --rps 20 --duration 30 \
+ *        --latency lognormal:800:0.5 --rate-limit 0.05 --server-errors 0.02 --keys 3 --rejected-keys 1
+ *
+ * Options (defaults in brackets): --provider openai|claude|gemini|openrouter [openai],
+ * --rps [10], --duration seconds [30], --latency fixed:MS|lognormal:MEDIAN:SIGMA [lognormal:500:0.4],
+ * --rate-limit share of 429s [0], --server-errors share of 5xx [0], --stream, --findings per answer [2],
+ * --keys API keys [1], --rejected-keys keys the provider refuses [0], --key-rps per-key quota, requests/s [unlimited],
+ * --max-retries [3], --fallback provider whose model is the fallback (its key is never rejected),
+ * --hedge (send as interactive scans, hedging slow calls to the fallback), --model provider/model [Default],
+ * --routing (triage with a cheaper configured model), --finding-rate share of prompts with findings [1],
+ * --retry-delay ms [200], --profile (print per-stage timings), --verbose (print extension errors).
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, String> options = parse(args);
+        String provider = options.getOrDefault("provider", "openai");
+        int rps = Integer.parseInt(options.getOrDefault("rps", "10"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int keys = Integer.parseInt(options.getOrDefault("keys", "1"));
+        int rejectedKeys = Integer.parseInt(options.getOrDefault("rejected-keys", "0"));
+        boolean verbose = options.containsKey("verbose");
+        boolean hedge = options.containsKey("hedge");
+
+        MockProviderServer server = new MockProviderServer(0)
+                .latency(MockProviderServer.Latency.parse(options.getOrDefault("latency", "lognormal:500:0.4")))
+                .rateLimitRate(Double.parseDouble(options.getOrDefault("rate-limit", "0")), 1)
+                .serverErrorRate(Double.parseDouble(options.getOrDefault("server-errors", "0")))
+                .perKeyRateLimit(Integer.parseInt(options.getOrDefault("key-rps", "0")))
+                .findingsPerResponse(Integer.parseInt(options.getOrDefault("findings", "2")))
+                .findingRate(Double.parseDouble(options.getOrDefault("finding-rate", "1")));
+        server.install();
+
+        List<String> apiKeys = new ArrayList<>();
+        for (int i = 1; i <= keys; i++) {
+            apiKeys.add("mock-key-" + i);
+            if (i <= rejectedKeys) {
+                server.rejectKey("mock-key-" + i);
+            }
+        }
+
+        AtomicLong extensionErrors = new AtomicLong();
+        AIAuditor auditor = new AIAuditor();
+        auditor.initialize(api(settings(provider, apiKeys, options), extensionErrors, verbose));
+        // Settings are applied on the EDT after a short timer; wait for them before sending
+        Thread.sleep(1500);
+        SwingUtilities.invokeAndWait(() -> { });
+        ThreadPoolManager pool = field(auditor, "threadPoolManager");
+        StageProfiler profiler = field(auditor, "stageProfiler");
+        profiler.setEnabled(options.containsKey("profile"));
+
+        System.out.printf("Load test: %s at %d req/s for %d s against %s%n",
+                provider, rps, durationSeconds, server.baseUrl(provider));
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger submitted = new AtomicInteger();
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger outstanding = new AtomicInteger();
+        long[] queueSamples = new long[2]; // sum, count
+        AtomicLong maxQueue = new AtomicLong();
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        long start = System.nanoTime();
+        scheduler.scheduleAtFixedRate(() -> {
+            HttpRequestResponse reqRes = Fixtures.requestResponse(submitted.incrementAndGet());
+            long sent = System.nanoTime();
+            outstanding.incrementAndGet();
+            auditor.processAuditRequest(reqRes, null, false, Collections.singletonList(reqRes), hedge)
+                    .whenComplete((ok, e) -> {
+                        latencies.add(System.nanoTime() - sent);
+                        if (Boolean.TRUE.equals(ok)) {
+                            succeeded.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                        outstanding.decrementAndGet();
+                    });
+        }, 0, 1_000_000_000L / Math.max(1, rps), TimeUnit.NANOSECONDS);
+        scheduler.scheduleAtFixedRate(() -> {
+            long depth = pool.getQueueSize() + pool.getRateLimitedCount() + pool.getConcurrencyLimitedCount();
+            synchronized (queueSamples) {
+                queueSamples[0] += depth;
+                queueSamples[1]++;
+            }
+            maxQueue.accumulateAndGet(depth, Math::max);
+        }, 0, 250, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(durationSeconds * 1000L);
+        scheduler.shutdownNow();
+        long sendWindowNanos = System.nanoTime() - start;
+
+        // Let in-flight audits finish (retries included) before reporting
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        while (outstanding.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        Collections.sort(sorted);
+        System.out.printf("Submitted %d, succeeded %d, failed %d, unfinished %d%n",
+                submitted.get(), succeeded.get(), failed.get(), outstanding.get());
+        System.out.printf("Throughput: %.2f audits/s offered, %.2f audits/s completed%n",
+                submitted.get() / (sendWindowNanos / 1e9), succeeded.get() / elapsedSeconds);
+        System.out.printf("Latency ms: p50 %.0f, p90 %.0f, p99 %.0f, max %.0f%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 1.0));
+        System.out.printf("Queue depth: mean %.1f, max %d%n",
+                queueSamples[1] == 0 ? 0.0 : (double) queueSamples[0] / queueSamples[1], maxQueue.get());
+        System.out.printf("Provider calls: %d (streamed %d), status %s, per key %s, per model %s%n",
+                server.requestCount(), server.streamedCount(), new TreeMap<>(server.statusCounts()),
+                new TreeMap<>(server.keyCounts()), new TreeMap<>(server.modelCounts()));
+        System.out.printf("Extension errors logged: %d%n", extensionErrors.get());
+        AuditMetricsMXBean metrics = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName(AuditMetrics.OBJECT_NAME), AuditMetricsMXBean.class);
+        System.out.printf("Metrics (JMX): calls %d, 429 %d, errors %d, retries %d, hedges %d (won %d), failovers %d, tokens in/out %d/%d "
+                        + "(prompt cache read %d, write %d, %.0f%% of input), latency p50/p99 %.0f/%.0f ms, rate-limit wait p99 %.0f ms, queue wait p99 %.0f ms%n",
+                metrics.getRequestCount(), metrics.getRateLimitedCount(), metrics.getErrorCount(), metrics.getRetryCount(),
+                metrics.getHedgeCount(), metrics.getHedgeWinCount(), metrics.getFailoverCount(),
+                metrics.getTokensIn(), metrics.getTokensOut(), metrics.getPromptCacheReadTokens(),
+                metrics.getPromptCacheWriteTokens(), 100 * metrics.getPromptCacheHitRatio(), metrics.getLatencyP50Millis(), metrics.getLatencyP99Millis(),
+                metrics.getRateLimitWaitP99Millis(), metrics.getQueueWaitP99Millis());
+        pool.getConcurrencyLimiters().forEach((key, limiter) -> System.out.printf(
+                "Concurrency limit %s: %d, history %s%n", key, limiter.getLimit(), limiter.getHistoryTrail()));
+        ModelRouter router = field(auditor, "modelRouter");
+        System.out.printf("Model routing: %d triaged, %d escalated, %d direct, ~$%.4f saved at list price%n",
+                router.triagedCount(), router.escalatedCount(), router.directCount(), router.savedUsd());
+        pool.getKeyPools().forEach((name, keyPool) -> System.out.printf(
+                "Key pool %s: %s%n", name, String.join("; ", keyPool.describe())));
+        if (profiler.isEnabled()) {
+            System.out.print(profiler.summary());
+        }
+
+        server.close();
+        System.exit(0);
+    }
+
+    private static Map<String, Object> settings(String provider, List<String> apiKeys, Map<String, String> options) {
+        Map<String, Object> settings = new ConcurrentHashMap<>();
+        String prefix = "ai_auditor.";
+        // Only the provider under test has a key, so the "Default" model resolves to it
+        switch (provider) {
+            case "gemini":
+                settings.put(prefix + "gemini_keys", String.join("\n", apiKeys));
+                break;
+            case "claude":
+                settings.put(prefix + "claude_key", String.join(",", apiKeys));
+                break;
+            case "openrouter":
+                settings.put(prefix + "openrouter_key", String.join(",", apiKeys));
+                break;
+            default:
+                settings.put(prefix + "openai_key", String.join(",", apiKeys));
+                break;
+        }
+        String fallback = options.get("fallback");
+        if (fallback != null) {
+            settings.put(prefix + FALLBACK_KEY_PREFS.get(fallback), "mock-fallback-key");
+            settings.put(prefix + "fallback_models", FALLBACK_MODELS.get(fallback));
+        }
+        if (options.containsKey("model")) {
+            settings.put(prefix + "selected_model", options.get("model"));
+        }
+        settings.put(prefix + "hedge_requests", options.containsKey("hedge"));
+        settings.put(prefix + "model_routing", options.containsKey("routing"));
+        settings.put(prefix + "logging_level", "LIMITED");
+        settings.put(prefix + "result_cache_enabled", false);
+        settings.put(prefix + "stream_responses", options.containsKey("stream"));
+        settings.put(prefix + "max_retries", Integer.parseInt(options.getOrDefault("max-retries", "3")));
+        settings.put(prefix + "retry_delay_ms", Integer.parseInt(options.getOrDefault("retry-delay", "200")));
+        // Client-side limits high enough that the provider, not the limiter, shapes the load
+        settings.put(prefix + "rate_limit_count", 100000);
+        settings.put(prefix + "rate_limit_tokens", 1000000000);
+        settings.put(prefix + "rate_limit_window", 60);
+        return settings;
+    }
+
+    private static final Map<String, String> FALLBACK_KEY_PREFS = Map.of(
+            "openai", "openai_key", "claude", "claude_key", "gemini", "gemini_keys", "openrouter", "openrouter_key");
+    private static final Map<String, String> FALLBACK_MODELS = Map.of(
+            "openai", "openai/gpt-4o-mini", "claude", "claude/claude-3-5-haiku-latest",
+            "gemini", "gemini/gemini-2.0-flash-lite", "openrouter", "openrouter/mistralai/mistral-7b-instruct");
+
+    private static MontoyaApi api(Map<String, Object> settings, AtomicLong errors, boolean verbose) {
+        Logging logging = (Logging) Proxy.newProxyInstance(Logging.class.getClassLoader(), new Class<?>[]{Logging.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("logToError") || method.getName().equals("raiseErrorEvent")) {
+                        errors.incrementAndGet();
+                        if (verbose) {
+                            System.err.println("[extension] " + args[0]);
+                        }
+                    }
+                    return null;
+                });
+        Persistence persistence = Fixtures.stub(Persistence.class, Map.of(
+                "preferences", Fixtures.mapBacked(Preferences.class, settings),
+                "extensionData", Fixtures.mapBacked(PersistedObject.class, new HashMap<>())));
+        return Fixtures.stub(MontoyaApi.class, Map.of("logging", logging, "persistence", persistence));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T field(Object target, String name) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return (T) field.get(target);
+    }
+
+    private static double percentile(List<Long> sortedNanos, double p) {
+        if (sortedNanos.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sortedNanos.size()) - 1;
+        return sortedNanos.get(Math.max(0, Math.min(sortedNanos.size() - 1, index))) / 1e6;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean flag = i + 1 >= args.length || args[i + 1].startsWith("--");
+            options.put(name, flag ? "true" : args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,504 @@
+package burp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Local stand-in for the OpenAI, Claude and Gemini APIs, for load tests that
+ * must not spend real quota. Each provider lives under its own path prefix:
+ *
+ *   /openai/v1/chat/completions              (also used for openrouter)
+ *   /claude/v1/messages
+ *   /gemini/v1beta/models/{model}:generateContent?key=...
+ *   /gemini/v1beta/models/{model}:streamGenerateContent?alt=sse&key=...
+ *
+ * and answers in that provider's wire format, streamed as SSE when the
+ * request asks for it. Latency, 429/5xx injection, a per-key request quota,
+ * rejected keys and the number of canned findings per answer are configurable.
+ * A system prefix seen before for the same model is reported as read from the
+ * prompt cache, in each provider's usage fields.
+ *
+ * Run on its own to point a real Burp at it:
+ *   java -cp benchmarks.jar burp.MockProviderServer 8089
+ * then start Burp with -Dai_auditor.endpoint.openai=http://127.0.0.1:8089/openai/v1
+ * (likewise claude, gemini and openrouter; see {@link #baseUrl}).
+ */
+public class MockProviderServer implements AutoCloseable {
+
+    /** Response time model: a log-normal around the median, clamped to [min, max]. */
+    public static class Latency {
+        final long medianMs;
+        final double sigma;
+        final long minMs;
+        final long maxMs;
+
+        public Latency(long medianMs, double sigma, long minMs, long maxMs) {
+            this.medianMs = medianMs;
+            this.sigma = sigma;
+            this.minMs = minMs;
+            this.maxMs = maxMs;
+        }
+
+        public static Latency fixed(long ms) {
+            return new Latency(ms, 0, ms, ms);
+        }
+
+        /** Parses "fixed:MS" or "lognormal:MEDIAN_MS:SIGMA". */
+        public static Latency parse(String spec) {
+            String[] parts = spec.split(":");
+            switch (parts[0].toLowerCase(Locale.ROOT)) {
+                case "fixed":
+                    return fixed(Long.parseLong(parts[1]));
+                case "lognormal":
+                    long median = Long.parseLong(parts[1]);
+                    return new Latency(median, Double.parseDouble(parts[2]), 0, median * 20);
+                default:
+                    throw new IllegalArgumentException("Unknown latency model: " + spec);
+            }
+        }
+
+        long sample(Random random) {
+            double ms = medianMs * Math.exp(sigma * random.nextGaussian());
+            return Math.max(minMs, Math.min(maxMs, Math.round(ms)));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "MockProvider");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Latency latency = Latency.fixed(0);
+    private volatile double rateLimitRate = 0;
+    private volatile double serverErrorRate = 0;
+    private volatile int retryAfterSeconds = 1;
+    private volatile int findingsPerResponse = 2;
+    private volatile double findingRate = 1.0;
+    private volatile long streamChunkDelayMs = 5;
+    private final Set<String> rejectedKeys = ConcurrentHashMap.newKeySet();
+    private volatile int perKeyRequestsPerSecond = 0; // 0 = unlimited
+    // Per key: {current second, requests in it}
+    private final Map<String, long[]> keyWindows = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong streamed = new AtomicLong();
+    private final Map<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> keyCounts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> modelCounts = new ConcurrentHashMap<>();
+    // model + system prefix, for simulating prefix caching
+    private final Set<String> cachedPrefixes = ConcurrentHashMap.newKeySet();
+
+    public MockProviderServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        server.createContext("/openai/", exchange -> handle(exchange, "openai"));
+        server.createContext("/claude/", exchange -> handle(exchange, "claude"));
+        server.createContext("/gemini/", exchange -> handle(exchange, "gemini"));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** The base URL to set as ai_auditor.endpoint.{provider}. */
+    public String baseUrl(String provider) {
+        String root = "http://127.0.0.1:" + port();
+        switch (provider) {
+            case "claude":
+                return root + "/claude/v1";
+            case "gemini":
+                return root + "/gemini/v1beta";
+            default:
+                return root + "/openai/v1";
+        }
+    }
+
+    /** Points the extension's providers at this server. */
+    public void install() {
+        for (String provider : new String[]{"openai", "openrouter", "claude", "gemini"}) {
+            System.setProperty("ai_auditor.endpoint." + provider, baseUrl(provider));
+        }
+    }
+
+    public MockProviderServer latency(Latency latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /** Share of requests answered with 429 and a Retry-After header. */
+    public MockProviderServer rateLimitRate(double rate, int retryAfterSeconds) {
+        this.rateLimitRate = rate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /** Share of requests answered with 500, 502 or 503. */
+    public MockProviderServer serverErrorRate(double rate) {
+        this.serverErrorRate = rate;
+        return this;
+    }
+
+    public MockProviderServer findingsPerResponse(int findings) {
+        this.findingsPerResponse = findings;
+        return this;
+    }
+
+    /**
+     * Share of prompts that get findings; the rest get an empty list. Whether a
+     * prompt gets findings depends on its content only, so every model agrees.
+     */
+    public MockProviderServer findingRate(double rate) {
+        this.findingRate = rate;
+        return this;
+    }
+
+    public MockProviderServer streamChunkDelayMs(long ms) {
+        this.streamChunkDelayMs = ms;
+        return this;
+    }
+
+    /** Requests per second each key may make; beyond it calls get 429 with Retry-After, like a real quota. */
+    public MockProviderServer perKeyRateLimit(int requestsPerSecond) {
+        this.perKeyRequestsPerSecond = requestsPerSecond;
+        return this;
+    }
+
+    /**
+     * Keys the provider refuses, to exercise key pools: Gemini and OpenAI answer
+     * 429 with an exhausted-quota error, Claude 401 authentication_error.
+     */
+    public MockProviderServer rejectKey(String key) {
+        rejectedKeys.add(key);
+        return this;
+    }
+
+    public long requestCount() {
+        return requests.get();
+    }
+
+    public long streamedCount() {
+        return streamed.get();
+    }
+
+    public Map<Integer, AtomicLong> statusCounts() {
+        return statusCounts;
+    }
+
+    public Map<String, AtomicLong> keyCounts() {
+        return keyCounts;
+    }
+
+    /** Answered calls per model. */
+    public Map<String, AtomicLong> modelCounts() {
+        return modelCounts;
+    }
+
+    private void handle(HttpExchange exchange, String format) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getQuery() == null ? "" : exchange.getRequestURI().getQuery();
+            boolean stream = request.optBoolean("stream", false) || path.contains(":streamGenerateContent");
+            String key = apiKey(exchange, format, query);
+            keyCounts.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+
+            Random random = ThreadLocalRandom.current();
+            sleep(latency.sample(random));
+
+            if (rejectedKeys.contains(key)) {
+                switch (format) {
+                    case "gemini":
+                        sendError(exchange, 429, "{\"error\":{\"code\":429,\"message\":\"Resource has been exhausted (e.g. check quota).\",\"status\":\"RESOURCE_EXHAUSTED\"}}");
+                        break;
+                    case "claude":
+                        sendError(exchange, 401, "{\"type\":\"error\",\"error\":{\"type\":\"authentication_error\",\"message\":\"invalid x-api-key\"}}");
+                        break;
+                    default:
+                        sendError(exchange, 429, "{\"error\":{\"type\":\"insufficient_quota\",\"message\":\"You exceeded your current quota (mock)\"}}");
+                        break;
+                }
+                return;
+            }
+            if (overKeyQuota(key)) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.getResponseHeaders().add("x-ratelimit-remaining-requests", "0");
+                sendError(exchange, 429, "{\"error\":{\"type\":\"rate_limit_error\",\"message\":\"Per-key quota exceeded (mock)\"}}");
+                return;
+            }
+            double roll = random.nextDouble();
+            if (roll < rateLimitRate) {
+                exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+                sendError(exchange, 429, "{\"error\":{\"type\":\"rate_limit_error\",\"message\":\"Rate limit exceeded (mock)\"}}");
+                return;
+            }
+            if (roll < rateLimitRate + serverErrorRate) {
+                int[] codes = {500, 502, 503};
+                sendError(exchange, codes[random.nextInt(codes.length)], "{\"error\":{\"message\":\"Upstream error (mock)\"}}");
+                return;
+            }
+
+            String model = "gemini".equals(format) ? geminiModel(path) : request.optString("model", "mock-model");
+            modelCounts.computeIfAbsent(model, m -> new AtomicLong()).incrementAndGet();
+            String content = Fixtures.findingsContent(hasFindings(request) ? findingsPerResponse : 0, false);
+            JSONObject usage = usage(format, model, request, content);
+            if (stream) {
+                streamed.incrementAndGet();
+                JSONObject streamOptions = request.optJSONObject("stream_options");
+                sendStream(exchange, format, model, content, usage, streamOptions != null && streamOptions.optBoolean("include_usage"));
+            } else {
+                send(exchange, 200, "application/json", completion(format, model, content, usage).toString());
+            }
+        } catch (RuntimeException e) {
+            sendError(exchange, 400, new JSONObject().put("error", new JSONObject().put("message", String.valueOf(e))).toString());
+        }
+    }
+
+    private boolean hasFindings(JSONObject request) {
+        JSONObject prompt = new JSONObject(request.toString());
+        for (String field : new String[]{"model", "stream", "stream_options", "max_tokens"}) {
+            prompt.remove(field);
+        }
+        return Math.floorMod(prompt.toString().hashCode(), 10000) < findingRate * 10000;
+    }
+
+    /**
+     * Usage in the provider's field layout. Prompt tokens are the request size
+     * over 4; the system prefix counts as cached once the model has seen it
+     * (Claude: only when marked with cache_control, written on first use).
+     */
+    private JSONObject usage(String format, String model, JSONObject request, String content) {
+        long promptTokens = request.toString().length() / 4;
+        long outputTokens = content.length() / 4;
+        String prefix = "";
+        boolean cacheable = true;
+        switch (format) {
+            case "claude": {
+                JSONArray system = request.optJSONArray("system");
+                JSONObject block = system == null ? null : system.optJSONObject(0);
+                prefix = block == null ? request.optString("system", "") : block.optString("text");
+                cacheable = block != null && block.has("cache_control");
+                break;
+            }
+            case "gemini": {
+                JSONObject instruction = request.optJSONObject("systemInstruction");
+                JSONArray parts = instruction == null ? null : instruction.optJSONArray("parts");
+                prefix = parts == null || parts.isEmpty() ? "" : parts.getJSONObject(0).optString("text");
+                break;
+            }
+            default: {
+                JSONObject first = request.getJSONArray("messages").optJSONObject(0);
+                if (first != null && "system".equals(first.optString("role"))) {
+                    Object system = first.get("content");
+                    prefix = system instanceof JSONArray ? ((JSONArray) system).getJSONObject(0).optString("text") : String.valueOf(system);
+                }
+                break;
+            }
+        }
+        long prefixTokens = prefix.length() / 4;
+        boolean hit = !prefix.isEmpty() && cacheable && !cachedPrefixes.add(model + "\n" + prefix);
+        long cached = hit ? prefixTokens : 0;
+        switch (format) {
+            case "claude": {
+                long written = !hit && cacheable ? prefixTokens : 0;
+                return new JSONObject().put("input_tokens", promptTokens - cached - written)
+                        .put("cache_creation_input_tokens", written).put("cache_read_input_tokens", cached)
+                        .put("output_tokens", outputTokens);
+            }
+            case "gemini":
+                return new JSONObject().put("promptTokenCount", promptTokens).put("cachedContentTokenCount", cached)
+                        .put("candidatesTokenCount", outputTokens);
+            default:
+                return new JSONObject().put("prompt_tokens", promptTokens).put("completion_tokens", outputTokens)
+                        .put("prompt_tokens_details", new JSONObject().put("cached_tokens", cached));
+        }
+    }
+
+    private boolean overKeyQuota(String key) {
+        int limit = perKeyRequestsPerSecond;
+        if (limit <= 0) {
+            return false;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        long[] window = keyWindows.computeIfAbsent(key, k -> new long[2]);
+        synchronized (window) {
+            if (window[0] != second) {
+                window[0] = second;
+                window[1] = 0;
+            }
+            return ++window[1] > limit;
+        }
+    }
+
+    private static String apiKey(HttpExchange exchange, String format, String query) {
+        if ("gemini".equals(format)) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("key=")) {
+                    return param.substring(4);
+                }
+            }
+            return "";
+        }
+        String header = exchange.getRequestHeaders().getFirst("claude".equals(format) ? "x-api-key" : "Authorization");
+        return header == null ? "" : header.replaceFirst("^Bearer ", "");
+    }
+
+    private static String geminiModel(String path) {
+        String tail = path.substring(path.lastIndexOf('/') + 1);
+        int colon = tail.indexOf(':');
+        return colon >= 0 ? tail.substring(0, colon) : tail;
+    }
+
+    private static JSONObject completion(String format, String model, String content, JSONObject usage) {
+        switch (format) {
+            case "claude":
+                return new JSONObject()
+                        .put("id", "msg_mock").put("type", "message").put("role", "assistant").put("model", model)
+                        .put("content", new JSONArray().put(new JSONObject().put("type", "text").put("text", content)))
+                        .put("stop_reason", "end_turn")
+                        .put("usage", usage);
+            case "gemini":
+                return new JSONObject()
+                        .put("candidates", new JSONArray().put(new JSONObject()
+                                .put("content", new JSONObject().put("role", "model")
+                                        .put("parts", new JSONArray().put(new JSONObject().put("text", content))))
+                                .put("finishReason", "STOP")))
+                        .put("usageMetadata", usage)
+                        .put("modelVersion", model);
+            default:
+                return new JSONObject()
+                        .put("id", "chatcmpl-mock").put("object", "chat.completion").put("model", model)
+                        .put("choices", new JSONArray().put(new JSONObject().put("index", 0)
+                                .put("message", new JSONObject().put("role", "assistant").put("content", content))
+                                .put("finish_reason", "stop")))
+                        .put("usage", usage);
+        }
+    }
+
+    /** Streams {@code content} in the provider's SSE format, with usage where that provider reports it. */
+    private void sendStream(HttpExchange exchange, String format, String model, String content, JSONObject usage,
+                            boolean includeUsage) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        statusCounts.computeIfAbsent(200, k -> new AtomicLong()).incrementAndGet();
+        OutputStream out = exchange.getResponseBody();
+        if ("claude".equals(format)) {
+            event(out, "message_start", new JSONObject().put("type", "message_start")
+                    .put("message", new JSONObject().put("id", "msg_mock").put("model", model).put("role", "assistant")
+                            .put("usage", new JSONObject(usage.toString()).put("output_tokens", 1))));
+            event(out, "content_block_start", new JSONObject().put("type", "content_block_start").put("index", 0)
+                    .put("content_block", new JSONObject().put("type", "text").put("text", "")));
+        }
+        // Cut the answer into token-sized pieces, like a real stream
+        for (int start = 0; start < content.length(); start += 16) {
+            String piece = content.substring(start, Math.min(content.length(), start + 16));
+            switch (format) {
+                case "claude":
+                    event(out, "content_block_delta", new JSONObject().put("type", "content_block_delta").put("index", 0)
+                            .put("delta", new JSONObject().put("type", "text_delta").put("text", piece)));
+                    break;
+                case "gemini":
+                    event(out, null, new JSONObject().put("modelVersion", model)
+                            .put("candidates", new JSONArray().put(new JSONObject().put("content", new JSONObject()
+                                    .put("role", "model").put("parts", new JSONArray().put(new JSONObject().put("text", piece)))))));
+                    break;
+                default:
+                    event(out, null, new JSONObject().put("id", "chatcmpl-mock").put("object", "chat.completion.chunk").put("model", model)
+                            .put("choices", new JSONArray().put(new JSONObject().put("index", 0)
+                                    .put("delta", new JSONObject().put("content", piece)))));
+                    break;
+            }
+            sleep(streamChunkDelayMs);
+        }
+        if ("claude".equals(format)) {
+            event(out, "content_block_stop", new JSONObject().put("type", "content_block_stop").put("index", 0));
+            event(out, "message_delta", new JSONObject().put("type", "message_delta")
+                    .put("delta", new JSONObject().put("stop_reason", "end_turn"))
+                    .put("usage", new JSONObject().put("output_tokens", usage.getLong("output_tokens"))));
+            event(out, "message_stop", new JSONObject().put("type", "message_stop"));
+        } else if ("gemini".equals(format)) {
+            event(out, null, new JSONObject().put("modelVersion", model)
+                    .put("candidates", new JSONArray().put(new JSONObject().put("finishReason", "STOP")))
+                    .put("usageMetadata", usage));
+        } else {
+            event(out, null, new JSONObject().put("id", "chatcmpl-mock").put("object", "chat.completion.chunk").put("model", model)
+                    .put("choices", new JSONArray().put(new JSONObject().put("index", 0)
+                            .put("delta", new JSONObject()).put("finish_reason", "stop"))));
+            if (includeUsage) {
+                event(out, null, new JSONObject().put("id", "chatcmpl-mock").put("object", "chat.completion.chunk").put("model", model)
+                        .put("choices", new JSONArray())
+                        .put("usage", usage));
+            }
+            out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+    }
+
+    private static void event(OutputStream out, String name, JSONObject data) throws IOException {
+        String frame = (name != null ? "event: " + name + "\n" : "") + "data: " + data + "\n\n";
+        out.write(frame.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void sendError(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, "application/json", body);
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        statusCounts.computeIfAbsent(status, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        MockProviderServer server = new MockProviderServer(port);
+        if (args.length > 1) {
+            server.latency(Latency.parse(args[1]));
+        }
+        System.out.println("Mock provider listening; start Burp with:");
+        for (String provider : new String[]{"openai", "openrouter", "claude", "gemini"}) {
+            System.out.println("  -Dai_auditor.endpoint." + provider + "=" + server.baseUrl(provider));
+        }
+        Thread.currentThread().join();
+    }
+}
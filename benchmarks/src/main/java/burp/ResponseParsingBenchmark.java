@@ -0,0 +1,63 @@
+package burp;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import burp.api.montoya.http.message.HttpRequestResponse;
+
+/**
+ * Post-response CPU cost: cleaning the model output, parsing the findings
+ * array and building one issue per finding (added to a no-op site map).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParsingBenchmark {
+
+    @Param({"5", "100", "2000"})
+    public int findings;
+
+    private String rawContent;
+    private JSONObject completion;
+    private AIAuditor auditor;
+    private HttpRequestResponse requestResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rawContent = Fixtures.findingsContent(findings, true);
+        completion = Fixtures.chatCompletion(findings);
+        auditor = Fixtures.auditor();
+        requestResponse = Fixtures.requestResponse();
+    }
+
+    @Benchmark
+    public String cleanLLMResponse() {
+        return AIAuditor.cleanLLMResponse(rawContent, true);
+    }
+
+    @Benchmark
+    public Set<String> processAIFindings() {
+        // A fresh set per call so every finding is built, as on a first audit
+        Set<String> processed = ConcurrentHashMap.newKeySet();
+        auditor.processAIFindings(completion, requestResponse, processed, "openai/gpt-4o");
+        return processed;
+    }
+}
@@ -0,0 +1,55 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the local triage score for one selected item: signature and
+ * reflection search over a JSON response of 4 KB to 1 MB (the scan stops at
+ * 512 KB), with 10 request parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TriageBenchmark {
+
+    @Param({"4096", "65536", "1048576"})
+    public int responseBytes;
+
+    private TriageScanner scanner;
+    private TriageScanner.Exchange exchange;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scanner = new TriageScanner();
+        List<String[]> parameters = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            parameters.add(new String[]{"field" + i, "value-" + i + "-abcdef"});
+        }
+        exchange = new TriageScanner.Exchange("POST", "/api/v2/orders/search",
+                List.of("Host", "Authorization", "Content-Type"), parameters, 200, "JSON",
+                Fixtures.response(responseBytes), Fixtures.RESPONSE_HEAD.length());
+    }
+
+    @Benchmark
+    public TriageScanner.Score score() {
+        return scanner.score(exchange);
+    }
+}
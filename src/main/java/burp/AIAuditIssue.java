@@ -70,7 +70,7 @@
  
  
 	/** Converts a limited Markdown subset (bold, italic, newlines) to HTML. */
-	private static String mdToHtmlLite(String md) {
+	static String mdToHtmlLite(String md) {
 		// 0️⃣ Escape raw & and < so user text can’t break our tags
 		String html = AMP_LT.matcher(md)
 							.replaceAll(m -> m.group().equals("&") ? "&amp;" : "&lt;");
@@ -88,7 +88,7 @@
 		return html;
 	}
 
-	private String formatDetail(String markdownDetail, String modelUsed) {
+	static String formatDetail(String markdownDetail, String modelUsed) {
 		StringBuilder out = new StringBuilder(markdownDetail.length() + 256);
 
 		out.append("<div style='font-family: Arial, sans-serif;'>")
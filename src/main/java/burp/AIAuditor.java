@@ -45,8 +45,6 @@
 
 package burp;
 
-import java.net.Proxy;
-import java.net.InetSocketAddress;
 import javax.net.ssl.*;
 import java.util.Objects;
 
@@ -58,16 +56,25 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.io.BufferedReader;
-import java.io.InputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.time.Duration;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.*;
 import java.util.List;
 
@@ -106,15 +113,21 @@ public class AIAuditor implements BurpExtension, ContextMenuItemsProvider, ScanC
 	 private int maxRetries;
 	 private int retryDelayMs;
     private int maxChunkSize;
+    private int chunkOverlap;
     private int rateLimitCount;
     private int rateLimitWindow;
+    private int rateLimitTokens;
 	private int batchSize;
 
     private static final String PREF_PREFIX = "ai_auditor.";
      
      private MontoyaApi api;
+     private AsyncLogAppender logAppender;
      private PersistedObject persistedData;
      private ThreadPoolManager threadPoolManager;
+     private ProviderTransport providerTransport;
+     private AuditResultCache resultCache;
+     private SSLContext trustAllSslContext;
      private volatile boolean isShuttingDown = false;
      
      // UI Components
@@ -124,8 +137,6 @@ public class AIAuditor implements BurpExtension, ContextMenuItemsProvider, ScanC
     private JPasswordField claudeKeyField;
     private JPasswordField openrouterKeyField;
 
-    private List<String> geminiApiKeys = new ArrayList<>();
-    private AtomicInteger currentGeminiKeyIndex = new AtomicInteger(0);
     private JTextField localEndpointField;
     private JPasswordField localKeyField;
     private JComboBox<String> modelDropdown;
@@ -139,15 +150,73 @@ public class AIAuditor implements BurpExtension, ContextMenuItemsProvider, ScanC
 	 private JLabel activeTasksLabel;
 	 private JLabel queuedTasksLabel;
 	 private JLabel completedTasksLabel;
+	 private JLabel connectionsLabel;
+	 private JLabel cacheLabel;
 	 private AtomicInteger completedTasksCounter = new AtomicInteger(0);
 
 
 	 private JTextField retriesField;
 	 private JTextField retryDelayField;
 	 private JTextField maxChunkSizeField;
+	 private JTextField chunkOverlapField;
 	 private JTextField rateLimitCountField;
 	 private JTextField rateLimitWindowField;
+	 private JTextField rateLimitTokensField;
 	 private JTextField batchSizeField;
+	 private JCheckBox streamResponsesCheckbox;
+	 private volatile boolean streamResponses = false;
+	 private JTextField fallbackModelsField;
+	 private volatile List<String> fallbackModels = new ArrayList<>();
+	 private JCheckBox hedgeRequestsCheckbox;
+	 private volatile boolean hedgeRequests = false;
+	 private RequestRouter requestRouter;
+	 private JCheckBox modelRoutingCheckbox;
+	 private volatile boolean modelRouting = false;
+	 // Configured models that pass the model filter, for picking triage models
+	 private volatile List<String> routingCandidates = new ArrayList<>();
+	 private JLabel modelRoutingLabel;
+	 private JCheckBox resultCacheCheckbox;
+	 private volatile boolean resultCacheEnabled = true;
+	 private JCheckBox dedupCheckbox;
+	 private volatile boolean dedupEnabled = true;
+	 private JCheckBox localTriageCheckbox;
+	 private volatile boolean localTriageEnabled = true;
+	 private JTextField triageThresholdField;
+	 private volatile int triageThreshold = TriageScanner.DEFAULT_THRESHOLD;
+	 private JLabel localTriageLabel;
+	 private JCheckBox rememberShapesCheckbox;
+	 private volatile boolean rememberShapes = false;
+	 private final RequestDeduplicator deduplicator = new RequestDeduplicator();
+	 private final TriageScanner triageScanner = new TriageScanner();
+	 private static final String KNOWN_SHAPES_KEY = "known_request_shapes";
+	 private PassiveAuditQueue passiveQueue;
+	 private JCheckBox passiveScanCheckbox;
+	 private volatile boolean passiveScanEnabled = false;
+	 private JTextField passiveAuditsPerMinuteField;
+	 private JTextField passiveTokensPerHourField;
+	 private int passiveAuditsPerMinute = 10;
+	 private int passiveTokensPerHour = 200000;
+	 private JLabel passiveQueueLabel;
+	 private final ContentReducer contentReducer = new ContentReducer();
+	 private JCheckBox contentReductionCheckbox;
+	 private volatile boolean contentReductionEnabled = true;
+	 private JLabel contentReductionLabel;
+	 private JLabel tokenizerLabel;
+	 private final StageProfiler stageProfiler = new StageProfiler();
+	 private JCheckBox stageProfilingCheckbox;
+	 private JTextArea stageTimingsArea;
+	 private final AuditMetrics auditMetrics = new AuditMetrics();
+	 private final ModelRouter modelRouter = new ModelRouter(auditMetrics);
+	 private JCheckBox metricsEndpointCheckbox;
+	 private JTextField metricsPortField;
+	 private volatile boolean metricsEndpointEnabled = false;
+	 private int metricsPort = 9464;
+	 private JLabel metricsLabel;
+	 private JLabel concurrencyLabel;
+	 private JLabel keyPoolLabel;
+	 private JCheckBox virtualThreadsCheckbox;
+	 private JTextField maxInFlightField;
+	 private int maxInFlightPerProvider = 16;
 
 	private JRadioButton detailedLoggingRadio;
 	private JRadioButton detailedOnelinerLoggingRadio;
@@ -178,55 +247,148 @@ public class AIAuditor implements BurpExtension, ContextMenuItemsProvider, ScanC
 		DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss")
 						 .withZone(ZoneId.systemDefault());
 
+	private static final int ONELINER_LENGTH = 100;
+	// Cap on the jittered backoff between retries; Retry-After from the provider may ask for longer
+	private static final long MAX_RETRY_DELAY_MS = 60000;
+
 	private void log(String message) {
 		log(message, LogCategory.GENERAL);
 	}
 
 	private void log(String message, LogCategory category) {
+		if (!isLogged(category)) {
+			return;
+		}
 		String ts = LOG_TS_FMT.format(Instant.now());
-		String formattedMessage = String.format("[%s] %s", ts, message);
+		if (isTruncated(category)) {
+			// Truncate for oneliner
+			String truncatedMessage = message.length() > ONELINER_LENGTH ? message.substring(0, ONELINER_LENGTH) + "..." : message;
+			logOutput("[" + ts + "] " + truncatedMessage + " (oneliner)");
+		} else {
+			logOutput("[" + ts + "] " + message);
+		}
+	}
+
+	/** Builds the message only if {@code category} is logged at the current level. */
+	private void log(Supplier<String> message, LogCategory category) {
+		if (isLogged(category)) {
+			log(message.get(), category);
+		}
+	}
+
+	/**
+	 * Logs a possibly huge payload (a String, JSONObject or JSONArray) after
+	 * {@code label}. Nothing is built when the category is off, and in oneliner
+	 * mode only the shown prefix is copied or serialized.
+	 */
+	private void logPayload(String label, Object payload, LogCategory category) {
+		if (!isLogged(category)) {
+			return;
+		}
+		int limit = isTruncated(category) ? ONELINER_LENGTH + 1 : Integer.MAX_VALUE;
+		log(label + preview(payload, limit), category);
+	}
+
+	/** Renders at most {@code limit} chars of {@code payload}; JSON is serialized only up to the limit. */
+	private static String preview(Object payload, int limit) {
+		if (payload instanceof Supplier) {
+			payload = ((Supplier<?>) payload).get();
+		}
+		if (!(payload instanceof JSONObject) && !(payload instanceof JSONArray)) {
+			String text = String.valueOf(payload);
+			return text.length() > limit ? text.substring(0, limit) : text;
+		}
+		if (limit == Integer.MAX_VALUE) {
+			return payload instanceof JSONObject ? ((JSONObject) payload).toString(2) : ((JSONArray) payload).toString(2);
+		}
+		StringWriter out = new StringWriter(limit);
+		Writer bounded = new Writer() {
+			@Override
+			public void write(char[] buf, int off, int len) {
+				int room = limit - out.getBuffer().length();
+				out.write(buf, off, Math.min(len, room));
+				if (len >= room) {
+					throw new IllegalStateException("preview limit reached");
+				}
+			}
+			@Override
+			public void flush() {
+			}
+			@Override
+			public void close() {
+			}
+		};
+		try {
+			if (payload instanceof JSONObject) {
+				((JSONObject) payload).write(bounded, 2, 0);
+			} else {
+				((JSONArray) payload).write(bounded, 2, 0);
+			}
+		} catch (RuntimeException e) {
+			// Stopped at the limit; what was written so far is the preview
+		}
+		return out.toString();
+	}
 
+	private boolean isLogged(LogCategory category) {
 		switch (currentLoggingLevel) {
+			case LIMITED:
+				return category == LogCategory.EXTRACTED_JSON || category == LogCategory.GENERAL || category == LogCategory.TOKEN_INFO;
 			case DETAILED:
-				api.logging().logToOutput(formattedMessage);
-				break;
 			case DETAILED_ONELINER:
-				//if (category == LogCategory.EXTRACTED_JSON || category == LogCategory.TOKEN_INFO || category == LogCategory.GENERAL) {
-				if (category == LogCategory.TOKEN_INFO || category == LogCategory.GENERAL) {
-					api.logging().logToOutput(formattedMessage);
-				} else {
-					// Truncate for oneliner
-					String truncatedMessage = message.length() > 100 ? message.substring(0, 100) + "..." : message;
-					api.logging().logToOutput(String.format("[%s] %s (oneliner)", ts, truncatedMessage));
-				}
-				break;
-			case LIMITED:
-				if (category == LogCategory.EXTRACTED_JSON || category == LogCategory.GENERAL || category == LogCategory.TOKEN_INFO) {
-					api.logging().logToOutput(formattedMessage);
-				}
-				break;
+			default:
+				return true;
+		}
+	}
+
+	private boolean isTruncated(LogCategory category) {
+		//if (category == LogCategory.EXTRACTED_JSON || category == LogCategory.TOKEN_INFO || category == LogCategory.GENERAL) {
+		return currentLoggingLevel == LoggingLevel.DETAILED_ONELINER
+				&& category != LogCategory.TOKEN_INFO && category != LogCategory.GENERAL;
+	}
+
+	/** Burp's output stream is written by the appender thread, never by the caller. */
+	private void logOutput(String line) {
+		if (logAppender != null) {
+			logAppender.output(line);
+		} else {
+			api.logging().logToOutput(line);
+		}
+	}
+
+	private void logError(String line) {
+		if (logAppender != null) {
+			logAppender.error(line);
+		} else {
+			api.logging().logToError(line);
 		}
 	}
 
 
 		private void disableSslVerification() {
 			try {
-				// 1) Trust all certs
-				TrustManager[] trustAll = new TrustManager[]{ new X509TrustManager() {
+				// 1) Trust all certs. An extended trust manager, so the JDK does not wrap it in its own
+				// hostname check; the HttpClient transport then gets through Burp's CA without a JVM-wide switch.
+				TrustManager[] trustAll = new TrustManager[]{ new X509ExtendedTrustManager() {
 					public java.security.cert.X509Certificate[] getAcceptedIssuers() { return new java.security.cert.X509Certificate[0]; }
 					public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
 					public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+					public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType, java.net.Socket socket) {}
+					public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType, java.net.Socket socket) {}
+					public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType, SSLEngine engine) {}
+					public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType, SSLEngine engine) {}
 				}};
 
 				SSLContext sc = SSLContext.getInstance("TLS");
 				sc.init(null, trustAll, new java.security.SecureRandom());
 				HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
+				trustAllSslContext = sc; // reused by the pooled HttpClient transport
 
 				// 2) Skip hostname checks
 				HttpsURLConnection.setDefaultHostnameVerifier((hostname, session) -> true);
 			}
 			catch (Exception e) {
-				api.logging().logToError("Failed to disable SSL verification: " + e.getMessage());
+				logError("Failed to disable SSL verification: " + e.getMessage());
 			}
 		}
 		
@@ -318,7 +480,7 @@ public class AIAuditor implements BurpExtension, ContextMenuItemsProvider, ScanC
 						clipboard.setContents(stringSelection, null);
 						log("'" + ((JButton)e.getSource()).getText() + "' content copied to clipboard.", LogCategory.GENERAL);
 					} catch (Exception ex) {
-						api.logging().logToError("Could not copy template to clipboard: " + ex.getMessage());
+						logError("Could not copy template to clipboard: " + ex.getMessage());
 					}
 				});
 				templatePanel.add(button);
@@ -338,7 +500,24 @@ public class AIAuditor implements BurpExtension, ContextMenuItemsProvider, ScanC
 		disableSslVerification();
 
         this.api = api;
-        this.threadPoolManager = new ThreadPoolManager(api);    
+        this.logAppender = new AsyncLogAppender(api.logging());
+        try {
+            auditMetrics.registerMBean();
+        } catch (Exception | LinkageError e) {
+            logError("Metrics MBean not registered: " + e.getMessage());
+        }
+        this.threadPoolManager = new ThreadPoolManager(logAppender, auditMetrics);    
+        this.requestRouter = new RequestRouter(threadPoolManager.getScheduler(), auditMetrics, logAppender);
+        this.providerTransport = new HttpClientTransport(trustAllSslContext, stageProfiler);
+        this.resultCache = new AuditResultCache();
+        this.passiveQueue = new PassiveAuditQueue(
+                reqRes -> processAuditRequest(reqRes, null, false, Collections.singletonList(reqRes)),
+                reqRes -> {
+                    TokenCounter tokenCounter = TokenCounter.forModel(getSelectedModel());
+                    return tokenCounter.count(getPromptTemplate()) + tokenCounter.count(auditContent(reqRes));
+                });
+        // Known shapes belong to the Burp project, so they live in the project file
+        deduplicator.loadKnown(api.persistence().extensionData().getString(KNOWN_SHAPES_KEY));
         log("Extension initializing...", LogCategory.GENERAL);
 
         // Test preferences
@@ -348,7 +527,7 @@ public class AIAuditor implements BurpExtension, ContextMenuItemsProvider, ScanC
             String retrieved = api.persistence().preferences().getString(PREF_PREFIX + "test");
             log("Preferences test: " + (testKey.equals(retrieved) ? "PASSED" : "FAILED"), LogCategory.GENERAL);
         } catch (Exception e) {
-            api.logging().logToError("Preferences test error: " + e.getMessage());
+            logError("Preferences test error: " + e.getMessage());
         }
         
         // Register extension capabilities
@@ -366,6 +545,7 @@ public class AIAuditor implements BurpExtension, ContextMenuItemsProvider, ScanC
                 log("Loading saved settings...", LogCategory.GENERAL);
                 loadSavedSettings();
 				RequestChunker.setMaxTokensPerChunk(this.maxChunkSize);
+				RequestChunker.setOverlapTokens(this.chunkOverlap);
 
 
                 ((javax.swing.Timer)e.getSource()).stop();
@@ -381,12 +561,23 @@ public class AIAuditor implements BurpExtension, ContextMenuItemsProvider, ScanC
         if (threadPoolManager != null) {
             threadPoolManager.shutdown();
         }
+        if (providerTransport != null) {
+            providerTransport.shutdown();
+        }
+        if (passiveQueue != null) {
+            passiveQueue.shutdown();
+        }
         if (menuRegistration != null) {
             menuRegistration.deregister();
         }
         if (scanCheckRegistration != null) {
             scanCheckRegistration.deregister();
         }
+        auditMetrics.stopEndpoint();
+        auditMetrics.unregisterMBean();
+        if (logAppender != null) {
+            logAppender.close();
+        }
     }
 
 private void createMainTab() {
@@ -413,7 +604,7 @@ private void createMainTab() {
 
         // API Keys and Local Endpoint
         int leftRow = 0;
-        addApiKeyField(leftPanel, leftGbc, leftRow++, "OpenAI API Key:", openaiKeyField = new JPasswordField(40), "openai");
+        addApiKeyField(leftPanel, leftGbc, leftRow++, "OpenAI API Key(s):", openaiKeyField = new JPasswordField(40), "openai");
 
         // Changed to JTextArea for multiple keys
         leftGbc.gridx = 0; leftGbc.gridy = leftRow;
@@ -421,6 +612,7 @@ private void createMainTab() {
         geminiKeyField = new JTextArea(5, 40); // 5 rows for multiple keys
         geminiKeyField.setLineWrap(true);
         geminiKeyField.setWrapStyleWord(true);
+        geminiKeyField.setToolTipText("Calls are spread across all keys by remaining quota; rate-limited or rejected keys cool down");
         JScrollPane geminiKeyScrollPane = new JScrollPane(geminiKeyField);
         leftGbc.gridx = 1;
         leftPanel.add(geminiKeyScrollPane, leftGbc);
@@ -429,8 +621,8 @@ private void createMainTab() {
         leftGbc.gridx = 2;
         leftPanel.add(validateGeminiButton, leftGbc);
         leftRow++;
-        addApiKeyField(leftPanel, leftGbc, leftRow++, "Anthropic API Key:", claudeKeyField = new JPasswordField(40), "claude");
-        addApiKeyField(leftPanel, leftGbc, leftRow++, "OpenRouter API Key:", openrouterKeyField = new JPasswordField(40), "openrouter");
+        addApiKeyField(leftPanel, leftGbc, leftRow++, "Anthropic API Key(s):", claudeKeyField = new JPasswordField(40), "claude");
+        addApiKeyField(leftPanel, leftGbc, leftRow++, "OpenRouter API Key(s):", openrouterKeyField = new JPasswordField(40), "openrouter");
 
         // Local model endpoint and key
         leftGbc.gridx = 0; leftGbc.gridy = leftRow;
@@ -511,6 +703,7 @@ private void createMainTab() {
    rightPanel.add(new JLabel("Max Retries:"), rightGbc);
    retriesField = new JTextField(20);
    retriesField.setText("3"); // default
+   retriesField.setToolTipText("Total attempts per call; only timeouts, 429s and 5xx/overload errors are retried");
    rightGbc.gridx = 1;
    rightPanel.add(retriesField, rightGbc);
 
@@ -518,6 +711,7 @@ private void createMainTab() {
    rightPanel.add(new JLabel("Retry Delay (ms):"), rightGbc);
    retryDelayField = new JTextField(20);
    retryDelayField.setText("1000");
+   retryDelayField.setToolTipText("Base of the exponential backoff with full jitter; a provider's Retry-After takes precedence");
    rightGbc.gridx = 1;
    rightPanel.add(retryDelayField, rightGbc);
 
@@ -545,6 +739,14 @@ private void createMainTab() {
    rightPanel.add(tokenButtonsPanel, rightGbc);
    rightRow++;
 
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Chunk Overlap (tokens):"), rightGbc);
+   chunkOverlapField = new JTextField(20);
+   chunkOverlapField.setText("64");
+   chunkOverlapField.setToolTipText("Content repeated from the end of the previous chunk when a message is split");
+   rightGbc.gridx = 1;
+   rightPanel.add(chunkOverlapField, rightGbc);
+
    rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
    rightPanel.add(new JLabel("Rate Limit (requests):"), rightGbc);
    rateLimitCountField = new JTextField(20);
@@ -552,6 +754,14 @@ private void createMainTab() {
    rightGbc.gridx = 1;
    rightPanel.add(rateLimitCountField, rightGbc);
 
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Rate Limit (tokens):"), rightGbc);
+   rateLimitTokensField = new JTextField(20);
+   rateLimitTokensField.setText("200000");
+   rateLimitTokensField.setToolTipText("Token budget per window for each provider API key; provider rate-limit headers override it when present");
+   rightGbc.gridx = 1;
+   rightPanel.add(rateLimitTokensField, rightGbc);
+
    rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
    rightPanel.add(new JLabel("Rate Window (sec):"), rightGbc);
    rateLimitWindowField = new JTextField(20);
@@ -563,9 +773,174 @@ private void createMainTab() {
    rightPanel.add(new JLabel("Batch Size:"), rightGbc);
    batchSizeField = new JTextField(20);
    batchSizeField.setText("5");
+   batchSizeField.setToolTipText("Starting number of concurrent calls per provider and key; adapts at runtime to 429s and latency");
    rightGbc.gridx = 1;
    rightPanel.add(batchSizeField, rightGbc);
 
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Virtual Threads:"), rightGbc);
+   virtualThreadsCheckbox = new JCheckBox("Run provider calls on virtual threads (Java 21+)");
+   virtualThreadsCheckbox.setEnabled(threadPoolManager.isVirtualThreadSupported());
+   if (!threadPoolManager.isVirtualThreadSupported()) {
+       virtualThreadsCheckbox.setToolTipText("Burp is running on Java " + Runtime.version().feature() + "; virtual threads need Java 21 or later");
+   }
+   rightGbc.gridx = 1;
+   rightPanel.add(virtualThreadsCheckbox, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Max In-Flight / Provider:"), rightGbc);
+   maxInFlightField = new JTextField(20);
+   maxInFlightField.setText("16");
+   maxInFlightField.setToolTipText("Upper bound for the adaptive number of concurrent calls per provider and key");
+   rightGbc.gridx = 1;
+   rightPanel.add(maxInFlightField, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Streaming:"), rightGbc);
+   streamResponsesCheckbox = new JCheckBox("Stream responses (SSE) and report findings as they arrive");
+   streamResponsesCheckbox.addActionListener(e -> streamResponses = streamResponsesCheckbox.isSelected());
+   rightGbc.gridx = 1;
+   rightPanel.add(streamResponsesCheckbox, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Fallback Models:"), rightGbc);
+   fallbackModelsField = new JTextField(20);
+   fallbackModelsField.setToolTipText("Comma-separated provider/model list, tried in order when the selected model fails; models without a configured key are skipped");
+   rightGbc.gridx = 1;
+   rightPanel.add(fallbackModelsField, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Hedging:"), rightGbc);
+   hedgeRequestsCheckbox = new JCheckBox("Hedge slow calls to the first fallback model (single-request scans)");
+   hedgeRequestsCheckbox.setToolTipText("Once a Scan Selected Portion or full scan call runs past the model's p95 latency, it is also sent to the first fallback; the first answer wins and the other call is cancelled");
+   hedgeRequestsCheckbox.addActionListener(e -> hedgeRequests = hedgeRequestsCheckbox.isSelected());
+   rightGbc.gridx = 1;
+   rightPanel.add(hedgeRequestsCheckbox, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Model Routing:"), rightGbc);
+   modelRoutingCheckbox = new JCheckBox("Triage bulk scans with a cheaper model; send flagged chunks to the selected model");
+   modelRoutingCheckbox.setToolTipText("Each chunk of a multi-request or passive scan goes to the cheapest configured model first (list price, observed output and latency); "
+           + "only chunks with a MEDIUM or HIGH finding are audited again by the selected model");
+   modelRoutingCheckbox.addActionListener(e -> modelRouting = modelRoutingCheckbox.isSelected());
+   rightGbc.gridx = 1;
+   rightPanel.add(modelRoutingCheckbox, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Result Cache:"), rightGbc);
+   JPanel cachePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+   resultCacheCheckbox = new JCheckBox("Reuse AI results for identical content", true);
+   resultCacheCheckbox.addActionListener(e -> resultCacheEnabled = resultCacheCheckbox.isSelected());
+   JButton clearCacheButton = new JButton("Clear Cache");
+   clearCacheButton.addActionListener(e -> {
+       resultCache.clear();
+       log("Result cache cleared.", LogCategory.GENERAL);
+   });
+   cachePanel.add(resultCacheCheckbox);
+   cachePanel.add(clearCacheButton);
+   rightGbc.gridx = 1;
+   rightPanel.add(cachePanel, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Deduplication:"), rightGbc);
+   JPanel dedupPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+   dedupCheckbox = new JCheckBox("Audit one request per near-duplicate cluster", true);
+   dedupCheckbox.addActionListener(e -> dedupEnabled = dedupCheckbox.isSelected());
+   rememberShapesCheckbox = new JCheckBox("Skip shapes audited in earlier scans");
+   rememberShapesCheckbox.addActionListener(e -> rememberShapes = rememberShapesCheckbox.isSelected());
+   JButton clearShapesButton = new JButton("Forget Shapes");
+   clearShapesButton.addActionListener(e -> {
+       deduplicator.clearKnown();
+       api.persistence().extensionData().deleteString(KNOWN_SHAPES_KEY);
+       log("Known request shapes cleared.", LogCategory.GENERAL);
+   });
+   dedupPanel.add(dedupCheckbox);
+   dedupPanel.add(rememberShapesCheckbox);
+   dedupPanel.add(clearShapesButton);
+   rightGbc.gridx = 1;
+   rightPanel.add(dedupPanel, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Local Triage:"), rightGbc);
+   JPanel triagePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+   localTriageCheckbox = new JCheckBox("Skip multi-request items scoring below", true);
+   localTriageCheckbox.setToolTipText("Scores each selected item locally before any AI call: reflected parameters, auth headers, state-changing methods, "
+           + "JSON/HTML/XML responses, error signatures and secret-like strings add points; static assets, 304s and health checks subtract them");
+   localTriageCheckbox.addActionListener(e -> localTriageEnabled = localTriageCheckbox.isSelected());
+   triageThresholdField = new JTextField(String.valueOf(TriageScanner.DEFAULT_THRESHOLD), 4);
+   triageThresholdField.setToolTipText("Minimum triage score for an item to be audited; 1 skips only items with no signal at all");
+   triagePanel.add(localTriageCheckbox);
+   triagePanel.add(triageThresholdField);
+   rightGbc.gridx = 1;
+   rightPanel.add(triagePanel, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Content Reduction:"), rightGbc);
+   contentReductionCheckbox = new JCheckBox("Strip binary bodies, encoded blobs and known libraries before auditing", true);
+   contentReductionCheckbox.addActionListener(e -> contentReductionEnabled = contentReductionCheckbox.isSelected());
+   rightGbc.gridx = 1;
+   rightPanel.add(contentReductionCheckbox, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Stage Profiling:"), rightGbc);
+   JPanel profilingPanel = new JPanel(new BorderLayout());
+   JPanel profilingControls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+   stageProfilingCheckbox = new JCheckBox("Record per-stage timings (diagnostics)");
+   stageProfilingCheckbox.addActionListener(e -> stageProfiler.setEnabled(stageProfilingCheckbox.isSelected()));
+   JButton resetTimingsButton = new JButton("Reset");
+   resetTimingsButton.addActionListener(e -> stageProfiler.reset());
+   JButton exportTimingsButton = new JButton("Export CSV...");
+   exportTimingsButton.addActionListener(e -> exportStageTimings());
+   profilingControls.add(stageProfilingCheckbox);
+   profilingControls.add(resetTimingsButton);
+   profilingControls.add(exportTimingsButton);
+   stageTimingsArea = new JTextArea(StageProfiler.Stage.values().length + 1, 60);
+   stageTimingsArea.setEditable(false);
+   stageTimingsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+   stageTimingsArea.setText(stageProfiler.summary());
+   profilingPanel.add(profilingControls, BorderLayout.NORTH);
+   profilingPanel.add(stageTimingsArea, BorderLayout.CENTER);
+   rightGbc.gridx = 1;
+   rightPanel.add(profilingPanel, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Metrics Endpoint:"), rightGbc);
+   JPanel metricsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+   metricsEndpointCheckbox = new JCheckBox("Serve Prometheus metrics at http://127.0.0.1:");
+   metricsPortField = new JTextField(String.valueOf(metricsPort), 6);
+   metricsPanel.add(metricsEndpointCheckbox);
+   metricsPanel.add(metricsPortField);
+   metricsPanel.add(new JLabel("/metrics (also exported over JMX as " + AuditMetrics.OBJECT_NAME + ")"));
+   rightGbc.gridx = 1;
+   rightPanel.add(metricsPanel, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Passive Scanning:"), rightGbc);
+   passiveScanCheckbox = new JCheckBox("Audit in-scope proxy traffic in the background");
+   passiveScanCheckbox.addActionListener(e -> {
+       passiveScanEnabled = passiveScanCheckbox.isSelected();
+       if (!passiveScanEnabled) {
+           passiveQueue.clear();
+       }
+   });
+   rightGbc.gridx = 1;
+   rightPanel.add(passiveScanCheckbox, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Passive Audits / min:"), rightGbc);
+   passiveAuditsPerMinuteField = new JTextField(20);
+   passiveAuditsPerMinuteField.setText("10");
+   rightGbc.gridx = 1;
+   rightPanel.add(passiveAuditsPerMinuteField, rightGbc);
+
+   rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
+   rightPanel.add(new JLabel("Passive Tokens / hour:"), rightGbc);
+   passiveTokensPerHourField = new JTextField(20);
+   passiveTokensPerHourField.setText("200000");
+   passiveTokensPerHourField.setToolTipText("Cost budget for background audits; queued traffic waits for the next hour once it is spent");
+   rightGbc.gridx = 1;
+   rightPanel.add(passiveTokensPerHourField, rightGbc);
+
         // Logging Options
         rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
         rightGbc.gridwidth = 2; // Span two columns for the title
@@ -617,14 +992,34 @@ private void createMainTab() {
         rightPanel.add(proxyField, rightGbc);
         rightRow++;
 		 
-        JPanel statusPanel = new JPanel(new GridLayout(4, 1));
+        JPanel statusPanel = new JPanel(new GridLayout(0, 1));
         statusPanel.setBorder(BorderFactory.createTitledBorder("Status")); // Add border
         activeTasksLabel = new JLabel("Active Tasks: 0");
         queuedTasksLabel = new JLabel("Queued Tasks: 0");
         completedTasksLabel = new JLabel("Completed Tasks: 0");
+        connectionsLabel = new JLabel("Provider Requests: 0 (reused connections, estimated: 0, HTTP/2: 0)");
         statusPanel.add(activeTasksLabel);
         statusPanel.add(queuedTasksLabel);
         statusPanel.add(completedTasksLabel);
+        cacheLabel = new JLabel("Result Cache: 0 hits / 0 misses");
+        statusPanel.add(connectionsLabel);
+        statusPanel.add(cacheLabel);
+        passiveQueueLabel = new JLabel("Passive Queue: 0");
+        statusPanel.add(passiveQueueLabel);
+        contentReductionLabel = new JLabel("Content Reduction: 0.0 MB / 0 tokens saved");
+        statusPanel.add(contentReductionLabel);
+        tokenizerLabel = new JLabel("Token Counting: -");
+        statusPanel.add(tokenizerLabel);
+        localTriageLabel = new JLabel("Local Triage: 0 scanned");
+        statusPanel.add(localTriageLabel);
+        modelRoutingLabel = new JLabel("Model Routing: 0 triaged");
+        statusPanel.add(modelRoutingLabel);
+        metricsLabel = new JLabel("Provider Calls: 0");
+        statusPanel.add(metricsLabel);
+        concurrencyLabel = new JLabel("Concurrency Limits: none yet");
+        statusPanel.add(concurrencyLabel);
+        keyPoolLabel = new JLabel("API Keys: none configured");
+        statusPanel.add(keyPoolLabel);
 
         // Add status panel to the right panel
         rightGbc.gridx = 0; rightGbc.gridy = ++rightRow;
@@ -632,15 +1027,6 @@ private void createMainTab() {
         rightPanel.add(statusPanel, rightGbc);
         rightGbc.gridwidth = 1;
 
-        // Add a button to test Gemini key cycling
-        JButton testGeminiCyclingButton = new JButton("Test Gemini Key Cycling");
-        testGeminiCyclingButton.addActionListener(e -> testGeminiKeyCycling());
-        rightGbc.gridx = 0;
-        rightGbc.gridy = ++rightRow;
-        rightGbc.gridwidth = 2;
-        rightPanel.add(testGeminiCyclingButton, rightGbc);
-        rightGbc.gridwidth = 1;
-
 
 		new javax.swing.Timer(1000, e -> updateStatusPanel()).start();
 
@@ -678,9 +1064,131 @@ private void createMainTab() {
 	private void updateStatusPanel() {
 		if (threadPoolManager != null) {
 			activeTasksLabel.setText("Active Tasks: " + threadPoolManager.getActiveCount());
-			queuedTasksLabel.setText("Queued Tasks: " + threadPoolManager.getQueueSize());
+			queuedTasksLabel.setText("Queued Tasks: " + threadPoolManager.getQueueSize()
+				+ " (waiting for rate limit: " + threadPoolManager.getRateLimitedCount()
+				+ ", for a concurrency slot: " + threadPoolManager.getConcurrencyLimitedCount() + ")");
 			completedTasksLabel.setText("Completed Tasks: " + completedTasksCounter.get());
 		}
+		if (providerTransport != null) {
+			connectionsLabel.setText(String.format("Provider Requests: %d (reused connections, estimated: %d, HTTP/2: %d)",
+				providerTransport.requestCount(),
+				providerTransport.reusedConnectionCount(),
+				providerTransport.http2ResponseCount()));
+		}
+		if (resultCache != null) {
+			cacheLabel.setText(String.format("Result Cache: %d hits / %d misses (%d entries, %.1f MB)",
+				resultCache.hitCount(), resultCache.missCount(),
+				resultCache.entryCount(), resultCache.totalBytes() / (1024.0 * 1024.0)));
+		}
+		if (passiveQueue != null) {
+			passiveQueueLabel.setText(String.format("Passive Queue: %d (audited: %d, dropped: %d, tokens this hour: %d)",
+				passiveQueue.size(), passiveQueue.auditedCount(), passiveQueue.droppedCount(),
+				passiveQueue.tokensUsedThisHour()));
+		}
+		if (contentReductionLabel != null) {
+			contentReductionLabel.setText(String.format("Content Reduction: %.1f MB / ~%d tokens saved",
+				contentReducer.savedChars() / (1024.0 * 1024.0), contentReducer.savedTokens()));
+		}
+		if (tokenizerLabel != null && modelDropdown != null && modelDropdown.getSelectedItem() != null) {
+			String model = getSelectedModel();
+			String reason = TokenCounters.fallbackReason(model);
+			tokenizerLabel.setText("Token Counting: " + TokenCounter.forModel(model).name() + (reason == null ? "" : " (" + reason + ")"));
+		}
+		if (localTriageLabel != null) {
+			localTriageLabel.setText(String.format("Local Triage: %d scanned, %d passed, %d skipped %s",
+				triageScanner.scannedCount(), triageScanner.passedCount(), triageScanner.skippedCount(),
+				triageScanner.skippedByReason()));
+		}
+		if (modelRoutingLabel != null) {
+			long triaged = modelRouter.triagedCount();
+			modelRoutingLabel.setText(String.format("Model Routing: %d triaged, %d escalated (%.0f%%), %d direct, ~$%.2f saved at list price",
+				triaged, modelRouter.escalatedCount(), triaged == 0 ? 0.0 : 100.0 * modelRouter.escalatedCount() / triaged,
+				modelRouter.directCount(), modelRouter.savedUsd()));
+		}
+		if (metricsLabel != null) {
+			metricsLabel.setText(String.format("Provider Calls: %d (429: %d, errors: %d, retries: %d, hedges: %d/%d won, failovers: %d), "
+				+ "latency p50/p99: %.0f/%.0f ms, rate-limit wait p99: %.0f ms, queue wait p99: %.0f ms, tokens in/out: %d/%d (%.0f%% of input from prompt cache)",
+				auditMetrics.getRequestCount(), auditMetrics.getRateLimitedCount(), auditMetrics.getErrorCount(),
+				auditMetrics.getRetryCount(), auditMetrics.getHedgeCount(), auditMetrics.getHedgeWinCount(),
+				auditMetrics.getFailoverCount(), auditMetrics.getLatencyP50Millis(), auditMetrics.getLatencyP99Millis(),
+				auditMetrics.getRateLimitWaitP99Millis(), auditMetrics.getQueueWaitP99Millis(),
+				auditMetrics.getTokensIn(), auditMetrics.getTokensOut(), 100 * auditMetrics.getPromptCacheHitRatio()));
+		}
+		if (concurrencyLabel != null && threadPoolManager != null) {
+			StringBuilder limits = new StringBuilder();
+			threadPoolManager.getConcurrencyLimiters().forEach((key, limiter) -> {
+				if (limits.length() > 0) {
+					limits.append("  |  ");
+				}
+				limits.append(String.format("%s: %d (in flight %d, waiting %d) history %s", key, limiter.getLimit(),
+					limiter.getInFlight(), limiter.getWaitingCount(), limiter.getHistoryTrail()));
+			});
+			concurrencyLabel.setText("Concurrency Limits: " + (limits.length() == 0 ? "none yet" : limits));
+			if (limits.length() > 0) {
+				StringBuilder tooltip = new StringBuilder("<html>");
+				threadPoolManager.getConcurrencyLimiters().forEach((key, limiter) ->
+					tooltip.append("<b>").append(key).append("</b><br>").append(String.join("<br>", limiter.getHistory())).append("<br>"));
+				concurrencyLabel.setToolTipText(tooltip.append("</html>").toString());
+			}
+		}
+		if (keyPoolLabel != null && threadPoolManager != null) {
+			Map<String, ApiKeyPool> pools = threadPoolManager.getKeyPools();
+			StringBuilder summary = new StringBuilder();
+			StringBuilder tooltip = new StringBuilder("<html>");
+			pools.forEach((provider, pool) -> {
+				if (summary.length() > 0) {
+					summary.append("  |  ");
+				}
+				summary.append(String.format("%s: %d (%d cooling down)", provider, pool.size(), pool.coolingDownCount()));
+				tooltip.append("<b>").append(provider).append("</b><br>").append(String.join("<br>", pool.describe())).append("<br>");
+			});
+			keyPoolLabel.setText("API Keys: " + (summary.length() == 0 ? "none configured" : summary));
+			keyPoolLabel.setToolTipText(summary.length() == 0 ? null : tooltip.append("</html>").toString());
+		}
+		if (stageTimingsArea != null && stageProfiler.isEnabled()) {
+			stageTimingsArea.setText(stageProfiler.summary());
+		}
+	}
+
+	/** Whether {@code field} holds an integer of at least 1; shows an error naming {@code label} if not. */
+	private boolean isPositiveInteger(JTextField field, String label) {
+		try {
+			if (Integer.parseInt(field.getText().trim()) >= 1) {
+				return true;
+			}
+			showError(label + " must be at least 1.", new Exception());
+		} catch (NumberFormatException ex) {
+			showError("Invalid " + label.toLowerCase(Locale.ROOT) + ".", ex);
+		}
+		return false;
+	}
+
+	/** Starts, moves or stops the Prometheus endpoint to match the settings. */
+	private void applyMetricsEndpoint() {
+		if (!metricsEndpointEnabled) {
+			auditMetrics.stopEndpoint();
+			return;
+		}
+		try {
+			auditMetrics.startEndpoint(metricsPort);
+			log("Metrics endpoint listening on http://127.0.0.1:" + metricsPort + "/metrics", LogCategory.GENERAL);
+		} catch (IOException | IllegalArgumentException e) {
+			showError("Could not start the metrics endpoint on port " + metricsPort, e);
+		}
+	}
+
+	private void exportStageTimings() {
+		JFileChooser chooser = new JFileChooser();
+		chooser.setSelectedFile(new File("ai-auditor-stage-timings.csv"));
+		if (chooser.showSaveDialog(mainPanel) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		try {
+			Files.writeString(chooser.getSelectedFile().toPath(), stageProfiler.toCsv());
+			log("Stage timings exported to " + chooser.getSelectedFile(), LogCategory.GENERAL);
+		} catch (IOException e) {
+			showError("Failed to export stage timings", e);
+		}
 	}
 
     private void addApiKeyField(JPanel panel, GridBagConstraints gbc, int row, String label, 
@@ -688,6 +1196,9 @@ private void createMainTab() {
         gbc.gridx = 0; gbc.gridy = row;
         panel.add(new JLabel(label), gbc);
         gbc.gridx = 1;
+        if (!"local".equals(provider)) {
+            field.setToolTipText("Separate several keys with commas; calls are spread across them by remaining quota");
+        }
         panel.add(field, gbc);
         JButton validateButton = new JButton("Validate");
         validateButton.addActionListener(e -> validateApiKey(provider));
@@ -719,6 +1230,28 @@ private void createMainTab() {
 				showError("Invalid batch size.", ex);
 				return;
 			}
+			try {
+				Integer.parseInt(triageThresholdField.getText().trim());
+			} catch (NumberFormatException ex) {
+				showError("Invalid triage threshold.", ex);
+				return;
+			}
+			// Checked before anything is saved, so a bad value cannot fail every later save
+			if (!isPositiveInteger(maxInFlightField, "Max in-flight / provider")
+					|| !isPositiveInteger(passiveAuditsPerMinuteField, "Passive audits / min")
+					|| !isPositiveInteger(passiveTokensPerHourField, "Passive tokens / hour")) {
+				return;
+			}
+			try {
+				int metricsPortValue = Integer.parseInt(metricsPortField.getText().trim());
+				if (metricsPortValue < 1 || metricsPortValue > 65535) {
+					showError("Metrics port must be between 1 and 65535.", new Exception());
+					return;
+				}
+			} catch (NumberFormatException ex) {
+				showError("Invalid metrics port.", ex);
+				return;
+			}
 
             // Check if at least one valid key is provided
             if (openaiKey.isEmpty() && geminiKeys.isEmpty() && claudeKey.isEmpty() && openrouterKey.isEmpty() && localEndpoint.isEmpty()) {
@@ -734,7 +1267,7 @@ private void createMainTab() {
             // Save using Montoya preferences
             api.persistence().preferences().setString(PREF_PREFIX + "openai_key", openaiKey);
             api.persistence().preferences().setString(PREF_PREFIX + "gemini_keys", geminiKeys); // Changed to gemini_keys
-            refreshGeminiApiKeys(); // Refresh the keys in memory
+            refreshApiKeyPools(); // Refresh the key pools in memory
             api.persistence().preferences().setString(PREF_PREFIX + "claude_key", claudeKey);
             api.persistence().preferences().setString(PREF_PREFIX + "openrouter_key", openrouterKey);
             api.persistence().preferences().setString(PREF_PREFIX + "local_key", localKey);
@@ -749,29 +1282,79 @@ private void createMainTab() {
 
 
 			 int maxChunkSize     = Integer.parseInt(maxChunkSizeField.getText());
+			 int chunkOverlap     = Integer.parseInt(chunkOverlapField.getText());
 			 int rateLimitCount   = Integer.parseInt(rateLimitCountField.getText());
 			 int rateLimitWindow  = Integer.parseInt(rateLimitWindowField.getText());
+			 int rateLimitTokens  = Integer.parseInt(rateLimitTokensField.getText());
 			 int batchSize        = Integer.parseInt(batchSizeField.getText());
+			 int maxInFlight      = Integer.parseInt(maxInFlightField.getText().trim());
+			 int triageThreshold  = Integer.parseInt(triageThresholdField.getText().trim());
+			 int passiveAudits    = Integer.parseInt(passiveAuditsPerMinuteField.getText().trim());
+			 int passiveTokens    = Integer.parseInt(passiveTokensPerHourField.getText().trim());
+			 int metricsPort      = Integer.parseInt(metricsPortField.getText().trim());
 
 			 api.persistence().preferences().setInteger(PREF_PREFIX + "max_retries",      maxRetries);
 			 api.persistence().preferences().setInteger(PREF_PREFIX + "retry_delay_ms",   retryDelayMs);
 			 api.persistence().preferences().setInteger(PREF_PREFIX + "max_chunk_size",   maxChunkSize);
+			 api.persistence().preferences().setInteger(PREF_PREFIX + "chunk_overlap",    chunkOverlap);
 			 api.persistence().preferences().setInteger(PREF_PREFIX + "rate_limit_count", rateLimitCount);
 			 api.persistence().preferences().setInteger(PREF_PREFIX + "rate_limit_window",rateLimitWindow);
+			 api.persistence().preferences().setInteger(PREF_PREFIX + "rate_limit_tokens", rateLimitTokens);
 			 api.persistence().preferences().setInteger(PREF_PREFIX + "batch_size", batchSize);
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "stream_responses", streamResponsesCheckbox.isSelected());
+			 api.persistence().preferences().setString(PREF_PREFIX + "fallback_models", fallbackModelsField.getText().trim());
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "hedge_requests", hedgeRequestsCheckbox.isSelected());
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "model_routing", modelRoutingCheckbox.isSelected());
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "result_cache_enabled", resultCacheCheckbox.isSelected());
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "dedup_enabled", dedupCheckbox.isSelected());
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "local_triage", localTriageCheckbox.isSelected());
+			 api.persistence().preferences().setInteger(PREF_PREFIX + "triage_threshold", triageThreshold);
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "content_reduction", contentReductionCheckbox.isSelected());
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "passive_scan", passiveScanCheckbox.isSelected());
+			 api.persistence().preferences().setInteger(PREF_PREFIX + "passive_audits_per_minute", passiveAudits);
+			 api.persistence().preferences().setInteger(PREF_PREFIX + "passive_tokens_per_hour", passiveTokens);
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "remember_shapes", rememberShapesCheckbox.isSelected());
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "virtual_threads", virtualThreadsCheckbox.isSelected());
+			 api.persistence().preferences().setInteger(PREF_PREFIX + "max_in_flight", maxInFlight);
+			 api.persistence().preferences().setBoolean(PREF_PREFIX + "metrics_endpoint", metricsEndpointCheckbox.isSelected());
+			 api.persistence().preferences().setInteger(PREF_PREFIX + "metrics_port", metricsPort);
 
 
 			// 1) Update your in-memory fields:
 			this.maxRetries      = maxRetries;
 			this.retryDelayMs    = retryDelayMs;
 			this.maxChunkSize    = maxChunkSize;
+			this.chunkOverlap    = chunkOverlap;
 			this.rateLimitCount  = rateLimitCount;
 			this.rateLimitWindow = rateLimitWindow;
+			this.rateLimitTokens = rateLimitTokens;
 			this.batchSize = batchSize;
+			this.streamResponses = streamResponsesCheckbox.isSelected();
+			this.fallbackModels = parseModelList(fallbackModelsField.getText());
+			this.hedgeRequests = hedgeRequestsCheckbox.isSelected();
+			this.modelRouting = modelRoutingCheckbox.isSelected();
+			this.resultCacheEnabled = resultCacheCheckbox.isSelected();
+			this.dedupEnabled = dedupCheckbox.isSelected();
+			this.localTriageEnabled = localTriageCheckbox.isSelected();
+			this.triageThreshold = triageThreshold;
+			this.contentReductionEnabled = contentReductionCheckbox.isSelected();
+			this.passiveScanEnabled = passiveScanCheckbox.isSelected();
+			this.passiveAuditsPerMinute = passiveAudits;
+			this.passiveTokensPerHour = passiveTokens;
+			this.rememberShapes = rememberShapesCheckbox.isSelected();
+			this.maxInFlightPerProvider = maxInFlight;
+			this.metricsEndpointEnabled = metricsEndpointCheckbox.isSelected();
+			this.metricsPort = metricsPort;
 
 			// 2) Apply them immediately:
 			RequestChunker.setMaxTokensPerChunk(this.maxChunkSize);
-			threadPoolManager.updateRateLimiters(this.rateLimitCount, this.rateLimitWindow);
+			RequestChunker.setOverlapTokens(this.chunkOverlap);
+			threadPoolManager.setMaxInFlightPerProvider(this.maxInFlightPerProvider);
+			threadPoolManager.setInitialConcurrency(this.batchSize);
+			threadPoolManager.setVirtualThreadMode(virtualThreadsCheckbox.isSelected());
+			passiveQueue.setBudgets(this.passiveAuditsPerMinute, this.passiveTokensPerHour);
+			threadPoolManager.updateRateLimiters(this.rateLimitCount, this.rateLimitTokens, this.rateLimitWindow);
+			applyMetricsEndpoint();
             
 			
             // Save selected model
@@ -802,10 +1385,10 @@ private void createMainTab() {
             }
     
             log(String.format(
-                "Runtime updated: maxRetries=%d, retryDelayMs=%d, chunkSize=%d, rateLimit=%d/%ds",
+                "Runtime updated: maxRetries=%d, retryDelayMs=%d, chunkSize=%d, rateLimit=%d requests/%d tokens per %ds",
                 this.maxRetries, this.retryDelayMs,
                 this.maxChunkSize,
-                this.rateLimitCount, this.rateLimitWindow
+                this.rateLimitCount, this.rateLimitTokens, this.rateLimitWindow
             ), LogCategory.GENERAL);
     
         } catch (Exception e) {
@@ -855,7 +1438,7 @@ private void createMainTab() {
         }
         
         if (!allValid) {
-            api.logging().logToError("Settings verification failed:\n" + errors.toString());
+            logError("Settings verification failed:\n" + errors.toString());
         }
         		
         return allValid;
@@ -865,7 +1448,7 @@ private void createMainTab() {
         log("Starting loadSavedSettings()...", LogCategory.GENERAL);
         
         if (openaiKeyField == null || geminiKeyField == null || claudeKeyField == null || openrouterKeyField == null || localEndpointField == null || localKeyField == null) {
-            api.logging().logToError("Cannot load settings - UI components not initialized");
+            logError("Cannot load settings - UI components not initialized");
             return;
         }
         
@@ -893,27 +1476,106 @@ private void createMainTab() {
 			Integer mc = api.persistence().preferences().getInteger(PREF_PREFIX + "max_chunk_size");
 			this.maxChunkSize = (mc != null && mc > 0) ? mc : 16384;
 
+			Integer co = api.persistence().preferences().getInteger(PREF_PREFIX + "chunk_overlap");
+			this.chunkOverlap = (co != null && co >= 0) ? co : 64;
+
 			Integer rc = api.persistence().preferences().getInteger(PREF_PREFIX + "rate_limit_count");
 			this.rateLimitCount = (rc != null && rc > 0) ? rc : 50;
 
 			Integer rw = api.persistence().preferences().getInteger(PREF_PREFIX + "rate_limit_window");
 			this.rateLimitWindow = (rw != null && rw > 0) ? rw : 60;
 
+			Integer rt = api.persistence().preferences().getInteger(PREF_PREFIX + "rate_limit_tokens");
+			this.rateLimitTokens = (rt != null && rt > 0) ? rt : 200000;
+
 			Integer bs = api.persistence().preferences().getInteger(PREF_PREFIX + "batch_size");
 			this.batchSize = (bs != null && bs > 0) ? bs : 5;
 
+			Boolean sr = api.persistence().preferences().getBoolean(PREF_PREFIX + "stream_responses");
+			this.streamResponses = sr != null && sr;
+
+			String fm = api.persistence().preferences().getString(PREF_PREFIX + "fallback_models");
+			this.fallbackModels = parseModelList(fm);
+
+			Boolean hr = api.persistence().preferences().getBoolean(PREF_PREFIX + "hedge_requests");
+			this.hedgeRequests = hr != null && hr;
+
+			Boolean mro = api.persistence().preferences().getBoolean(PREF_PREFIX + "model_routing");
+			this.modelRouting = mro != null && mro;
+
+			Boolean rce = api.persistence().preferences().getBoolean(PREF_PREFIX + "result_cache_enabled");
+			this.resultCacheEnabled = rce == null || rce;
+
+			Boolean de = api.persistence().preferences().getBoolean(PREF_PREFIX + "dedup_enabled");
+			this.dedupEnabled = de == null || de;
+
+			Boolean lt = api.persistence().preferences().getBoolean(PREF_PREFIX + "local_triage");
+			this.localTriageEnabled = lt == null || lt;
+
+			Integer tt = api.persistence().preferences().getInteger(PREF_PREFIX + "triage_threshold");
+			this.triageThreshold = tt != null ? tt : TriageScanner.DEFAULT_THRESHOLD;
+
+			Boolean cr = api.persistence().preferences().getBoolean(PREF_PREFIX + "content_reduction");
+			this.contentReductionEnabled = cr == null || cr;
+
+			Boolean ps = api.persistence().preferences().getBoolean(PREF_PREFIX + "passive_scan");
+			this.passiveScanEnabled = ps != null && ps;
+
+			Integer pa = api.persistence().preferences().getInteger(PREF_PREFIX + "passive_audits_per_minute");
+			this.passiveAuditsPerMinute = (pa != null && pa > 0) ? pa : 10;
+
+			Integer pt = api.persistence().preferences().getInteger(PREF_PREFIX + "passive_tokens_per_hour");
+			this.passiveTokensPerHour = (pt != null && pt > 0) ? pt : 200000;
+			passiveQueue.setBudgets(this.passiveAuditsPerMinute, this.passiveTokensPerHour);
+
+			Boolean rs = api.persistence().preferences().getBoolean(PREF_PREFIX + "remember_shapes");
+			this.rememberShapes = rs != null && rs;
+
+			Integer mif = api.persistence().preferences().getInteger(PREF_PREFIX + "max_in_flight");
+			this.maxInFlightPerProvider = (mif != null && mif > 0) ? mif : 16;
+
+			Boolean vt = api.persistence().preferences().getBoolean(PREF_PREFIX + "virtual_threads");
+			threadPoolManager.setMaxInFlightPerProvider(this.maxInFlightPerProvider);
+			threadPoolManager.setInitialConcurrency(this.batchSize);
+			boolean virtualThreads = threadPoolManager.setVirtualThreadMode(vt != null && vt);
+
+			Boolean me = api.persistence().preferences().getBoolean(PREF_PREFIX + "metrics_endpoint");
+			this.metricsEndpointEnabled = me != null && me;
+			Integer mp = api.persistence().preferences().getInteger(PREF_PREFIX + "metrics_port");
+			this.metricsPort = (mp != null && mp > 0 && mp < 65536) ? mp : 9464;
+			applyMetricsEndpoint();
+
 			SwingUtilities.invokeLater(() -> {
 				retriesField.setText(String.valueOf(this.maxRetries));
 				retryDelayField.setText(String.valueOf(this.retryDelayMs));
 				maxChunkSizeField.setText(String.valueOf(this.maxChunkSize));
+				chunkOverlapField.setText(String.valueOf(this.chunkOverlap));
 				rateLimitCountField.setText(String.valueOf(this.rateLimitCount));
 				rateLimitWindowField.setText(String.valueOf(this.rateLimitWindow));
+				rateLimitTokensField.setText(String.valueOf(this.rateLimitTokens));
 				batchSizeField.setText(String.valueOf(this.batchSize));
+				streamResponsesCheckbox.setSelected(this.streamResponses);
+				fallbackModelsField.setText(fm != null ? fm : "");
+				hedgeRequestsCheckbox.setSelected(this.hedgeRequests);
+				modelRoutingCheckbox.setSelected(this.modelRouting);
+				resultCacheCheckbox.setSelected(this.resultCacheEnabled);
+				dedupCheckbox.setSelected(this.dedupEnabled);
+				localTriageCheckbox.setSelected(this.localTriageEnabled);
+				triageThresholdField.setText(String.valueOf(this.triageThreshold));
+				contentReductionCheckbox.setSelected(this.contentReductionEnabled);
+				passiveScanCheckbox.setSelected(this.passiveScanEnabled);
+				passiveAuditsPerMinuteField.setText(String.valueOf(this.passiveAuditsPerMinute));
+				passiveTokensPerHourField.setText(String.valueOf(this.passiveTokensPerHour));
+				rememberShapesCheckbox.setSelected(this.rememberShapes);
+				virtualThreadsCheckbox.setSelected(virtualThreads);
+				maxInFlightField.setText(String.valueOf(this.maxInFlightPerProvider));
+				metricsEndpointCheckbox.setSelected(this.metricsEndpointEnabled);
+				metricsPortField.setText(String.valueOf(this.metricsPort));
 			});
 
 			 
 			 
-			 threadPoolManager.updateRateLimiters(rateLimitCount, rateLimitWindow);
+			 threadPoolManager.updateRateLimiters(rateLimitCount, rateLimitTokens, rateLimitWindow);
 
 
 
@@ -931,7 +1593,7 @@ private void createMainTab() {
                 try {
                     currentLoggingLevel = LoggingLevel.valueOf(savedLoggingLevel);
                 } catch (IllegalArgumentException e) {
-                    api.logging().logToError("Invalid saved logging level: " + savedLoggingLevel + ". Defaulting to DETAILED_ONELINER.");
+                    logError("Invalid saved logging level: " + savedLoggingLevel + ". Defaulting to DETAILED_ONELINER.");
                     currentLoggingLevel = LoggingLevel.DETAILED_ONELINER;
                 }
             }
@@ -947,10 +1609,10 @@ private void createMainTab() {
             log("- Logging Level: " + currentLoggingLevel.name(), LogCategory.GENERAL);
 
 			log(String.format(
-				"Runtime updated: maxRetries=%d, retryDelayMs=%d, chunkSize=%d, rateLimit=%d/%ds",
+				"Runtime updated: maxRetries=%d, retryDelayMs=%d, chunkSize=%d, rateLimit=%d requests/%d tokens per %ds",
 				this.maxRetries, this.retryDelayMs,
 				this.maxChunkSize,
-				this.rateLimitCount, this.rateLimitWindow
+				this.rateLimitCount, this.rateLimitTokens, this.rateLimitWindow
 			));
 
 
@@ -961,11 +1623,11 @@ private void createMainTab() {
                 // Set API keys
                 openaiKeyField.setText(openaiKey != null ? openaiKey : "");
                 geminiKeyField.setText(geminiKeysString != null ? geminiKeysString : "");
-                refreshGeminiApiKeys();
                 claudeKeyField.setText(claudeKey != null ? claudeKey : "");
                 openrouterKeyField.setText(openrouterKey != null ? openrouterKey : "");
                 localEndpointField.setText(localEndpoint != null ? localEndpoint : "http://127.0.0.1:1234/v1");
                 localKeyField.setText(localKey != null ? localKey : "");
+                refreshApiKeyPools();
                 proxyField.setText(proxy != null ? proxy : "");
                 filterModelsField.setText(filterModels != null ? filterModels : "embed,image,vision,free");
 
@@ -1003,7 +1665,7 @@ private void createMainTab() {
             });
             
         } catch (Exception e) {
-            api.logging().logToError("Error loading settings: " + e.getMessage());
+            logError("Error loading settings: " + e.getMessage());
         }
     }
     
@@ -1073,15 +1735,21 @@ private void createMainTab() {
         return "Explain this from a security perspective, focusing on potential vulnerabilities and risks. Keep the explanation concise and to the point.";
     }
 
-    private synchronized void refreshGeminiApiKeys() {
-        String geminiKeysString = geminiKeyField.getText().trim();
-        if (geminiKeysString.isEmpty()) {
-            geminiApiKeys.clear();
-        } else {
-            geminiApiKeys = new ArrayList<>(Arrays.asList(geminiKeysString.split("\\s*\\n\\s*")));
-        }
-        currentGeminiKeyIndex.set(0); // Reset the index when keys are refreshed
-        log("Gemini API keys refreshed. Found " + geminiApiKeys.size() + " keys.", LogCategory.GENERAL);
+    /** Hands the keys from the settings fields to the per-provider key pools. */
+    private synchronized void refreshApiKeyPools() {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("openai", new String(openaiKeyField.getPassword()));
+        fields.put("gemini", geminiKeyField.getText());
+        fields.put("claude", new String(claudeKeyField.getPassword()));
+        fields.put("openrouter", new String(openrouterKeyField.getPassword()));
+        fields.put("local", new String(localKeyField.getPassword()));
+        fields.forEach((provider, value) -> {
+            List<String> keys = ApiKeyPool.parse(value);
+            threadPoolManager.setApiKeys(provider, keys);
+            if (keys.size() > 1) {
+                log(provider + " API keys refreshed. Found " + keys.size() + " keys.", LogCategory.GENERAL);
+            }
+        });
     }
     
     private boolean validateApiKeyWithEndpoint(String apiKey, String endpoint, String jsonBody, String provider) {
@@ -1122,12 +1790,12 @@ private void createMainTab() {
                     while ((line = reader.readLine()) != null) {
                         errorResponse.append(line);
                     }
-                    api.logging().logToError("Validation failed: " + errorResponse);
+                    logError("Validation failed: " + errorResponse);
                 }
                 return false;
             }
         } catch (Exception e) {
-            api.logging().logToError("Error validating API key: " + e.getMessage());
+            logError("Error validating API key: " + e.getMessage());
             return false;
         }
     }
@@ -1142,13 +1810,12 @@ private void createMainTab() {
         try {
             switch (provider) {
                 case "openai":
-                    apiKey = openaiKeyField.getText();
+                    apiKey = firstApiKey(new String(openaiKeyField.getPassword()));
                     endpoint = "https://api.openai.com/v1/models";
                     break;
     
                 case "gemini":
-					refreshGeminiApiKeys();
-                    apiKey = geminiKeyField.getText().split("\n")[0].trim(); // For validation, use the first key
+                    apiKey = firstApiKey(geminiKeyField.getText()); // For validation, use the first key
                     endpoint = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:generateContent?key=" + apiKey;
                     jsonBody = "{"
                              + "  \"contents\": ["
@@ -1159,7 +1826,7 @@ private void createMainTab() {
                 
     
                 case "claude":
-                    apiKey = claudeKeyField.getText();
+                    apiKey = firstApiKey(new String(claudeKeyField.getPassword()));
                     endpoint = "https://api.anthropic.com/v1/messages";
                     jsonBody = "{"
                              + "  \"model\": \"claude-3-5-sonnet-latest\","
@@ -1171,12 +1838,12 @@ private void createMainTab() {
                     break;
 
                 case "openrouter":
-                    apiKey = openrouterKeyField.getText();
+                    apiKey = firstApiKey(new String(openrouterKeyField.getPassword()));
                     endpoint = "https://openrouter.ai/api/v1/models";
                     break;
 
                 case "local":
-                    apiKey = localKeyField.getText();
+                    apiKey = firstApiKey(new String(localKeyField.getPassword()));
                     endpoint = localEndpointField.getText() + "/models";
                     break;
                 
@@ -1335,16 +2002,16 @@ private void createMainTab() {
                 String finalInputForAI = inputForAI; // Capture for use in lambda
                 HttpRequestResponse finalReqRes = editor.requestResponse(); // Capture for use in lambda
 
-                CompletableFuture.supplyAsync(() -> {
-                    try {
-                        String selectedModel = getSelectedModel();
-                        JSONObject aiResponse = sendToAI(selectedModel, getApiKeyForModel(selectedModel), finalPrompt + "\n\nContent to explain:\n" + finalSelectedText);
-                        return extractContentFromResponse(aiResponse, selectedModel);
-                    } catch (Exception e) {
-                        api.logging().logToError("Error explaining content: " + e.getMessage());
-                        return "Error: " + e.getMessage();
-                    }
-                }, threadPoolManager.getExecutor()).thenAccept(aiExplanation -> {
+                String selectedModel = getSelectedModel();
+                String explainProvider = selectedModel.contains("/") ? selectedModel.split("/", 2)[0] : MODEL_MAPPING.get(selectedModel);
+                sendToAIWithRetry(explainProvider, getApiKeyForModel(selectedModel), 0, selectedModel,
+                        finalPrompt + "\n\nContent to explain:\n" + finalSelectedText, null)
+                        .thenApply(aiResponse -> extractContentFromResponse(aiResponse, selectedModel))
+                        .exceptionally(e -> {
+                            Throwable cause = RetryPolicy.unwrap(e);
+                            logError("Error explaining content: " + cause.getMessage());
+                            return "Error: " + cause.getMessage();
+                        }).thenAccept(aiExplanation -> {
                     // Create a Burp finding
 					String issueName = "AI Explanation: Generated by 'AI Auditor - Explain me this' feature";
                     StringBuilder issueDetail = new StringBuilder();
@@ -1368,7 +2035,7 @@ private void createMainTab() {
                 throw new IndexOutOfBoundsException("Range [" + start + ", " + end + "] out of bounds for length " + editorContent.length());
             }
         } catch (Exception e) {
-            api.logging().logToError("Error handling 'Explain me this': " + e.getMessage());
+            logError("Error handling 'Explain me this': " + e.getMessage());
             showError("Error handling 'Explain me this'", e);
         }
     }
@@ -1396,7 +2063,7 @@ private void createMainTab() {
             throw new IndexOutOfBoundsException("Range [" + start + ", " + end + "] out of bounds for length " + editorContent.length());
         }
     } catch (Exception e) {
-        api.logging().logToError("Error processing selected content: " + e.getMessage());
+        logError("Error processing selected content: " + e.getMessage());
         showError("Error processing selected content", e);
     }
 }
@@ -1411,32 +2078,225 @@ private void createMainTab() {
         processAuditRequest(reqRes, null, false);
     }
 
+    /**
+     * Scans the selected items in the background: reduction, triage, deduplication and
+     * batching take seconds for large selections and must not block the Swing thread.
+     */
     private void handleMultipleScan(List<HttpRequestResponse> requests) {
         if (requests == null || requests.isEmpty()) {
             return;
         }
+        CompletableFuture.runAsync(() -> scanMultiple(requests), threadPoolManager.getCoordinatorExecutor())
+                .exceptionally(e -> {
+                    showError("Error preparing the scan of " + requests.size() + " items", e);
+                    return null;
+                });
+    }
 
-        // Create a thread pool with a fixed size equal to the batch size
-        ExecutorService batchExecutor = Executors.newFixedThreadPool(batchSize);
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-
+    private void scanMultiple(List<HttpRequestResponse> requests) {
+        List<HttpRequestResponse> items = new ArrayList<>();
         for (HttpRequestResponse reqRes : requests) {
             if (reqRes != null && reqRes.request() != null) {
-                futures.add(CompletableFuture.runAsync(() -> {
-                    processAuditRequest(reqRes, null, false);
-                }, batchExecutor));
+                items.add(reqRes);
+            }
+        }
+
+        // Static assets, 304s, health checks and items with no signal at all are not worth an AI call
+        if (localTriageEnabled) {
+            int selected = items.size();
+            items = triageScanner.filter(items, triageThreshold);
+            log(String.format("Local triage kept %d of %d items (threshold %d)", items.size(), selected, triageThreshold),
+                    LogCategory.TOKEN_INFO);
+            if (items.isEmpty()) {
+                return;
+            }
+        }
+
+        // Near-duplicates (same endpoint, different ids or tokens) are audited once per cluster
+        Map<HttpRequestResponse, List<HttpRequestResponse>> members = new IdentityHashMap<>();
+        Map<HttpRequestResponse, RequestDeduplicator.Shape> shapes = new IdentityHashMap<>();
+        if (dedupEnabled) {
+            int candidates = items.size();
+            RequestDeduplicator.Result<HttpRequestResponse> dedup =
+                    deduplicator.cluster(items, RequestDeduplicator::shapeOf, rememberShapes);
+            items = new ArrayList<>();
+            for (RequestDeduplicator.Cluster<HttpRequestResponse> cluster : dedup.clusters) {
+                items.add(cluster.representative);
+                members.put(cluster.representative, cluster.members);
+                shapes.put(cluster.representative, cluster.shape);
+            }
+            log(String.format("Deduplicated %d items into %d clusters (%d skipped as already audited shapes)",
+                    candidates, dedup.clusters.size(), dedup.skippedKnown), LogCategory.TOKEN_INFO);
+        }
+        Function<HttpRequestResponse, List<HttpRequestResponse>> membersOf =
+                rep -> rep == null ? Collections.emptyList() : members.getOrDefault(rep, Collections.singletonList(rep));
+
+        // Small items share one prompt; large ones go through the chunker on their own
+        String selectedModel = getSelectedModel();
+        TokenCounter tokenCounter = TokenCounter.forModel(selectedModel);
+        int capacity = RequestChunker.getMaxTokensPerChunk() - tokenCounter.count(getPromptTemplate());
+        // Reduced once here so the savings are counted once and oversized items are not reduced again
+        Map<HttpRequestResponse, String> contents = new IdentityHashMap<>();
+        for (HttpRequestResponse reqRes : items) {
+            contents.put(reqRes, auditContent(reqRes, true));
+        }
+        List<HttpRequestResponse> oversized = new ArrayList<>();
+        List<RequestBatcher.Batch<HttpRequestResponse>> batches =
+                RequestBatcher.pack(items, contents::get, tokenCounter, capacity, oversized);
+        log(String.format("Batching %d items into %d calls (%d too large to batch)",
+                items.size(), batches.size() + oversized.size(), oversized.size()), LogCategory.TOKEN_INFO);
+
+        // processAuditRequest hands its work to the shared executors, so no per-scan pool is needed
+        for (RequestBatcher.Batch<HttpRequestResponse> batch : batches) {
+            HttpRequestResponse first = batch.sources().get(0);
+            CompletableFuture<Boolean> done = batch.size() == 1
+                    ? processAuditRequest(first, contents.get(first), false, membersOf.apply(first))
+                    : processAuditBatch(batch, membersOf);
+            rememberShapesWhenDone(done, batch.sources(), shapes);
+        }
+        for (HttpRequestResponse reqRes : oversized) {
+            rememberShapesWhenDone(processAuditRequest(reqRes, contents.get(reqRes), false, membersOf.apply(reqRes)),
+                    Collections.singletonList(reqRes), shapes);
+        }
+    }
+
+    /** Once an audit succeeded, records the audited shapes so later scans can skip them. */
+    private void rememberShapesWhenDone(CompletableFuture<Boolean> done, List<HttpRequestResponse> audited,
+                                        Map<HttpRequestResponse, RequestDeduplicator.Shape> shapes) {
+        if (!rememberShapes) {
+            return;
+        }
+        done.thenAccept(ok -> {
+            if (!ok) {
+                return;
+            }
+            for (HttpRequestResponse reqRes : audited) {
+                RequestDeduplicator.Shape shape = shapes.get(reqRes);
+                if (shape != null) {
+                    deduplicator.remember(shape);
+                }
+            }
+            api.persistence().extensionData().setString(KNOWN_SHAPES_KEY, deduplicator.serializeKnown());
+        });
+    }
+
+    private String auditContent(HttpRequestResponse reqRes) {
+        return auditContent(reqRes, false);
+    }
+
+    /** The request and response as sent to the model; with {@code record}, savings count towards the status panel. */
+    private String auditContent(HttpRequestResponse reqRes, boolean record) {
+        String request = reqRes.request().toString();
+        String response = reqRes.response() != null ? reqRes.response().toString() : "";
+        return reduceMessage(request, record) + "\n\n" + reduceMessage(response, record);
+    }
+
+    private String reduceMessage(String message, boolean record) {
+        if (!contentReductionEnabled) {
+            return message;
+        }
+        ContentReducer.Result reduced = contentReducer.reduce(message);
+        if (record && reduced.elisions > 0) {
+            // The fast estimate is enough for a running total and avoids BPE over megabytes of binary
+            int tokensSaved = TokenCounters.DEFAULT.count(message) - TokenCounters.DEFAULT.count(reduced.content);
+            contentReducer.record(reduced, tokensSaved);
+            log(String.format("Content reduction: %d elisions, %d -> %d chars, ~%d tokens saved",
+                    reduced.elisions, reduced.originalChars, reduced.content.length(), tokensSaved), LogCategory.TOKEN_INFO);
+        }
+        return reduced.content;
+    }
+
+    private String getPromptTemplate() {
+        String prompt = promptTemplateArea.getText();
+        return (prompt == null || prompt.isEmpty()) ? getDefaultPromptTemplate() : prompt;
+    }
+
+    /**
+     * Audits several small request/response pairs in one call and routes each finding
+     * back by its item_id, to every member of that item's near-duplicate cluster.
+     */
+    private CompletableFuture<Boolean> processAuditBatch(RequestBatcher.Batch<HttpRequestResponse> batch,
+                                                         Function<HttpRequestResponse, List<HttpRequestResponse>> membersOf) {
+        return processAuditBatch(batch, membersOf, ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * As above, sharing {@code processedVulnerabilities} with the batch this one was split from.
+     * An answer cut off at the output limit is not used; the batch is split in half and retried.
+     */
+    private CompletableFuture<Boolean> processAuditBatch(RequestBatcher.Batch<HttpRequestResponse> batch,
+                                                         Function<HttpRequestResponse, List<HttpRequestResponse>> membersOf,
+                                                         Set<String> processedVulnerabilities) {
+        String selectedModel = getSelectedModel();
+        String provider = selectedModel.contains("/") ? selectedModel.split("/", 2)[0] : selectedModel;
+        String apiKey = getApiKeyForModel(selectedModel);
+
+        if ("local".equals(provider)) {
+            if (localEndpointField.getText().trim().isEmpty()) {
+                api.logging().raiseErrorEvent("Local endpoint not configured");
+                return CompletableFuture.completedFuture(false);
             }
+        } else if (apiKey == null || apiKey.isEmpty()) {
+            api.logging().raiseErrorEvent("API key not configured for " + selectedModel);
+            return CompletableFuture.completedFuture(false);
         }
 
-        // Wait for all futures to complete
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-        batchExecutor.shutdown();
+        String content = batch.render();
+        TokenCounter tokenCounter = TokenCounter.forModel(selectedModel);
+        int batchTokens = tokenCounter.count(getPromptTemplate()) + tokenCounter.count(content);
+        log(String.format("Batch of %d items, Estimated Total-Tokens=%d", batch.size(), batchTokens), LogCategory.TOKEN_INFO);
+
+        Function<JSONObject, List<HttpRequestResponse>> targetsFor = finding -> membersOf.apply(batch.sourceFor(finding));
+        return auditChunk(selectedModel, false, batchTokens, content, "BATCH", (finding, modelName) -> {
+                    // Unknown ids are logged when the full response is processed
+                    for (HttpRequestResponse target : targetsFor.apply(finding)) {
+                        addFindingIssue(finding, target, processedVulnerabilities, modelName);
+                    }
+                })
+            .thenCompose(routed -> {
+                if (batch.size() > 1 && hitOutputLimit(routed.value())) {
+                    // The items at the end of the batch may have no findings at all; findings already
+                    // streamed are kept and not reported twice by the halves
+                    log(String.format("Answer for a batch of %d items was cut off at the output limit (Model:%s); splitting it",
+                            batch.size(), routed.model()), LogCategory.GENERAL);
+                    List<CompletableFuture<Boolean>> halves = new ArrayList<>();
+                    for (RequestBatcher.Batch<HttpRequestResponse> half : batch.split()) {
+                        halves.add(processAuditBatch(half, membersOf, processedVulnerabilities));
+                    }
+                    return CompletableFuture.allOf(halves.toArray(new CompletableFuture[0]))
+                            .thenApply(ignored -> halves.stream().allMatch(CompletableFuture::join));
+                }
+                processAIFindings(routed.value(), targetsFor, processedVulnerabilities, routed.model());
+                completedTasksCounter.addAndGet(batch.size());
+                return CompletableFuture.completedFuture(true);
+            })
+            .exceptionally(e -> {
+                showError("Error processing AI responses for batch (Model:" + selectedModel + ")", e);
+                return false;
+            });
     }
 
+    /** Interactive scan of one message; with hedging on, a slow call is also sent to the first fallback model. */
     private void processAuditRequest(HttpRequestResponse reqRes, String selectedContent, boolean isSelectedPortion) {
-		// TEMP: prints full stack trace to Extender > Errors
-        // Thread.dumpStack();   
+        processAuditRequest(reqRes, selectedContent, isSelectedPortion, Collections.singletonList(reqRes), true);
+    }
+
+    /**
+     * Audits one request/response pair and adds every finding to each of
+     * {@code targets} (the pair itself plus any near-duplicates it stands for).
+     * The returned future completes with true once all chunks were processed.
+     */
+    CompletableFuture<Boolean> processAuditRequest(HttpRequestResponse reqRes, String selectedContent,
+                                                   boolean isSelectedPortion, List<HttpRequestResponse> targets) {
+        return processAuditRequest(reqRes, selectedContent, isSelectedPortion, targets, false);
+    }
 
+    /**
+     * As above. An {@code interactive} scan always uses the selected model and is
+     * hedged if enabled; other scans may be triaged by a cheaper model first.
+     */
+    CompletableFuture<Boolean> processAuditRequest(HttpRequestResponse reqRes, String selectedContent,
+                                                   boolean isSelectedPortion, List<HttpRequestResponse> targets, boolean interactive) {
 		String selectedModel = getSelectedModel();
         String[] modelParts = selectedModel.split("/",2);
         String provider;
@@ -1465,7 +2325,7 @@ private void createMainTab() {
                 modelNameForApi = selectedModel;
             } else {
                 api.logging().raiseErrorEvent("Could nott determine provider for model: " + selectedModel + ", modelParts.length: " + modelParts.length + ", Provider(0): " + modelParts[0] + ", Model Name for API(1): " + modelParts[1]);
-                return;
+                return CompletableFuture.completedFuture(false);
             }
         }
         log("processAuditRequest: Selected Model: " + selectedModel + ", Determined Provider: " + provider + ", Model Name for API: " + modelNameForApi, LogCategory.GENERAL);
@@ -1474,14 +2334,14 @@ private void createMainTab() {
         if ("local".equals(provider)) {
             if (localEndpointField.getText().trim().isEmpty()) {
                 api.logging().raiseErrorEvent("Local endpoint not configured");
-                return;
+                return CompletableFuture.completedFuture(false);
             }
         } else if (apiKey == null || apiKey.isEmpty()) {
             api.logging().raiseErrorEvent("API key not configured for " + selectedModel);
-            return;
+            return CompletableFuture.completedFuture(false);
         }
     
-        CompletableFuture.runAsync(() -> {
+        return CompletableFuture.supplyAsync(() -> {
             try {
                 String prompt = promptTemplateArea.getText();
                 if (prompt == null || prompt.isEmpty()) {
@@ -1493,12 +2353,13 @@ private void createMainTab() {
                 String request = "";
                 String response = "";
 
-                if (isSelectedPortion && selectedContent != null) {
+                if (selectedContent != null) {
+                    // A selected portion, or content the caller already reduced
                     contentToChunk = selectedContent;
                 } else {
                     request = reqRes.request().toString();
                     response = reqRes.response() != null ? reqRes.response().toString() : "";
-                    contentToChunk = request + "\n\n" + response;
+                    contentToChunk = reduceMessage(request, true) + "\n\n" + reduceMessage(response, true);
                 }
 
                 log(String.format("processAuditRequest - Request length: %d, Response length: %d, Combined contentToChunk length: %d",
@@ -1506,69 +2367,79 @@ private void createMainTab() {
 
             if (contentToChunk.isEmpty()) {
                 api.logging().raiseInfoEvent("Skipping audit for empty request/response content.");
-                return;
+                return CompletableFuture.completedFuture(false);
             }
 
-            chunks = RequestChunker.chunkContent(contentToChunk, prompt);
+            TokenCounter tokenCounter = TokenCounter.forModel(selectedModel);
+            chunks = RequestChunker.chunkContent(contentToChunk, prompt, tokenCounter);
 
     
                 // Log token and request info
-                int promptTokens = RequestChunker.estimateTokens(prompt);
-                int contentTokens = RequestChunker.estimateTokens(contentToChunk);
+                int promptTokens = tokenCounter.count(prompt);
+                int contentTokens = tokenCounter.count(contentToChunk);
                 int totalTokens = promptTokens + contentTokens;
-				log(String.format("Estimated PromptTokens=%d, ContentTokens=%d, Total-Tokens=%d, Total-Requests=%d", promptTokens, contentTokens, totalTokens,chunks.size()), LogCategory.TOKEN_INFO);
+				log(String.format("Estimated PromptTokens=%d, ContentTokens=%d, Total-Tokens=%d, Total-Requests=%d, Tokenizer=%s", promptTokens, contentTokens, totalTokens,chunks.size(), tokenCounter.name()), LogCategory.TOKEN_INFO);
 				
                 // Create Set to track processed vulns
-                Set<String> processedVulnerabilities = new HashSet<>();
+                Set<String> processedVulnerabilities = ConcurrentHashMap.newKeySet();
+                String contentClass = ModelRouter.contentClass(reqRes);
     
-                // Use a semaphore to limit concurrency to batchSize
-                Semaphore semaphore = new Semaphore(batchSize);
+                // Concurrency is bounded per provider/key by the adaptive limiter in ThreadPoolManager
                 List<CompletableFuture<Void>> futures = new ArrayList<>();
                 for (String chunk : chunks) {
-                    try {
-                        semaphore.acquire();
-                        futures.add(threadPoolManager.submitTask(provider, () -> {
-                            try {
-                                return sendToAI(selectedModel, apiKey, chunk);
-                            } finally {
-                                semaphore.release();
+                    // Each chunk is charged against the key's token budget by its estimated size
+                    int chunkTokens = promptTokens + tokenCounter.count(chunk);
+                    // In streaming mode findings are added to the site map as soon as each one is complete
+                    futures.add(auditChunk(selectedModel, interactive, chunkTokens, chunk, contentClass, (finding, modelName) -> {
+                                for (HttpRequestResponse target : targets) {
+                                    addFindingIssue(finding, target, processedVulnerabilities, modelName);
+                                }
                             }
-                        }).thenAccept(result -> {
-                            processAIFindings(result, reqRes, processedVulnerabilities, selectedModel);
-                        }));
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        showError("Request processing was interrupted", e);
-                        break; 
-                    }
+                    ).thenAccept(routed -> {
+                        processAIFindings(routed.value(), finding -> targets, processedVulnerabilities, routed.model());
+                    }));
                 }
 
                 // Process all chunkie cheeses and combine results
-                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                    .thenRun(() -> {
+                return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .handle((ignored, e) -> {
+                        if (e != null) {
+                            //logError("Error processing AI responses (Model:" + selectedModel + ") " + e.getMessage());
+                            showError("Error processing AI responses (Model:" + selectedModel + ")" , e);
+                            return false;
+                        }
                         completedTasksCounter.incrementAndGet();
                         log("All chunks processed for the request.", LogCategory.GENERAL);
-                    })
-                    .exceptionally(e -> {
-                        //api.logging().logToError("Error processing AI responses (Model:" + selectedModel + ") " + e.getMessage());
-                        showError("Error processing AI responses (Model:" + selectedModel + ")" , e);
-                        return null;
+                        return true;
                     });
             } catch (Exception e) {
-                api.logging().logToError("Error in request processing (Model:" + selectedModel + ")= " + e.getMessage());
+                logError("Error in request processing (Model:" + selectedModel + ")= " + e.getMessage());
                 showError("Error processing request (Model:" + selectedModel + ")= " , e);
+                return CompletableFuture.completedFuture(false);
             }
 
-        }).exceptionally(e -> {
-            api.logging().logToError("Critical error in request processing: " + e.getMessage());
+        }, threadPoolManager.getCoordinatorExecutor()).thenCompose(done -> done).exceptionally(e -> {
+            logError("Critical error in request processing: " + e.getMessage());
             showError("Critical error", e);
-            return null;
+            return false;
         });
 
     }
     
 
     private JSONObject sendToAI(String model, String apiKey, String content) throws Exception {
+        return sendToAI(model, apiKey, content, null);
+    }
+
+    /**
+     * Sends content to the model. When streaming is enabled and a finding sink is
+     * given, the provider's SSE API is used and each finding is passed to the sink
+     * as soon as its JSON object is complete; the returned response is the full
+     * stream rebuilt in the provider's non-streaming shape.
+     */
+    private JSONObject sendToAI(String model, String apiKey, String content,
+                                BiConsumer<JSONObject, String> findingSink) throws Exception {
+        long buildStart = stageProfiler.start();
         //String[] modelParts = model.split("/");
 		String[] modelParts = model.split("/", 2);
 
@@ -1602,66 +2473,47 @@ private void createMainTab() {
         }
         log("sendToAI: Selected Model: " + model + ", Determined Provider: " + provider + ", Model Name for API: " + modelNameForApi, LogCategory.GENERAL);
 
+        boolean streaming = streamResponses && findingSink != null;
+
         URL url = null; // Initialize url to null
         JSONObject jsonBody = new JSONObject();
-        String finalPrompt = "";
-
-		if (content.toLowerCase().contains("content to analyze") || content.toLowerCase().contains("content to explain"))
-		{
-			finalPrompt = content;
-		} else {
-			String prompt = promptTemplateArea.getText();
-
-			if (prompt == null || prompt.isEmpty()) {
-				prompt = getDefaultPromptTemplate();
-			}
-
-			// Automate Prompt Augmentation for Reporting (Task 6)
-			if (!prompt.toLowerCase().contains("format") &&
-				!prompt.toLowerCase().contains("json") &&
-				!prompt.toLowerCase().contains("structure") &&
-				!prompt.toLowerCase().contains("vulnerability") &&
-				!prompt.toLowerCase().contains("content to explain") &&
-				!prompt.toLowerCase().contains("severity"))
-			{
-				prompt += "\n\nIMPORTANT:\nOnly return JSON with findings, no other content!\n\nFormat findings as JSON with the following structure:\n" +
-						  "{\n" +
-						  "  \"findings\": [{\n" +
-						  "    \"vulnerability\": \"Clear, specific, concise title of issue\",\n" +
-						  "    \"location\": \"Exact location in request/response (parameter, header, or path)\",\n" +
-						  "    \"explanation\": \"Detailed technical explanation with evidence from the request/response\",\n" +
-						  "    \"exploitation\": \"Specific steps to reproduce/exploit\",\n" +
-						  "    \"validation_steps\": \"Steps to validate the finding\",\n" +
-						  "    \"severity\": \"HIGH|MEDIUM|LOW|INFORMATION\",\n" +
-						  "    \"confidence\": \"CERTAIN|FIRM|TENTATIVE\"\n" +
-						  "  }]\n" +
-						  "}\n";
-			}
-			finalPrompt = prompt + "\n\nContent to analyze:\n" + content;
-		}
+        // Prompt text without the content: sent as the system block so every call shares a cacheable prefix,
+        // and part of the result cache key
+        String instructions = promptInstructions(content);
+        String finalPrompt = instructions.isEmpty() ? content : "Content to analyze:\n" + content;
 		
         // Configure endpoint and payload
         // log("DEBUG - - - provider=" + provider);
 		switch (provider) {
             case "openai":
-                url = new URL("https://api.openai.com/v1/chat/completions");
+                url = new URL(providerBaseUrl("openai", "https://api.openai.com/v1") + "/chat/completions");
+                // Prompts of 1024+ tokens are prefix-cached automatically
                 jsonBody.put("model", modelNameForApi)
-                        .put("messages", new JSONArray()
-                                .put(new JSONObject()
-                                        .put("role", "user")
-                                        .put("content", finalPrompt)));
+                        .put("messages", chatMessages(modelNameForApi, instructions, finalPrompt, false));
+                if (streaming) {
+                    jsonBody.put("stream", true);
+                    // Ask for a final usage chunk so streamed calls report tokens like regular ones
+                    jsonBody.put("stream_options", new JSONObject().put("include_usage", true));
+                }
                 break;
             case "openrouter":
-                url = new URL("https://openrouter.ai/api/v1/chat/completions");
+                url = new URL(providerBaseUrl("openrouter", "https://openrouter.ai/api/v1") + "/chat/completions");
+                // Anthropic models behind OpenRouter only cache blocks marked with cache_control
                 jsonBody.put("model", modelNameForApi)
-                        .put("messages", new JSONArray()
-                                .put(new JSONObject()
-                                        .put("role", "user")
-                                        .put("content", finalPrompt)));
+                        .put("messages", chatMessages(modelNameForApi, instructions, finalPrompt,
+                                modelNameForApi.startsWith("anthropic/")));
+                if (streaming) {
+                    jsonBody.put("stream", true);
+                }
                 break;
 
             case "gemini":
                 // URL will be constructed inside the retry loop with the current API key
+                // Gemini 2.5 models cache a repeated prefix implicitly; the system instruction leads every request
+                if (!instructions.isEmpty()) {
+                    jsonBody.put("systemInstruction", new JSONObject()
+                            .put("parts", new JSONArray().put(new JSONObject().put("text", instructions))));
+                }
                 jsonBody.put("contents", new JSONArray()
                         .put(new JSONObject()
                                 .put("parts", new JSONArray()
@@ -1670,122 +2522,303 @@ private void createMainTab() {
                 break;
 
             case "claude":
-                url = new URL("https://api.anthropic.com/v1/messages");
+                url = new URL(providerBaseUrl("claude", "https://api.anthropic.com/v1") + "/messages");
+                // A batch answers for every item it holds, so its limit grows with the item count
                 jsonBody.put("model", modelNameForApi)
-                        .put("max_tokens", 1024)
-                        .put("messages", new JSONArray()
-                                .put(new JSONObject()
-                                        .put("role", "user")
-                                        .put("content", finalPrompt)));
+                        .put("max_tokens", RequestBatcher.outputTokens(RequestBatcher.itemCount(content)));
+                if (!instructions.isEmpty()) {
+                    // Cached for 5 minutes after each use; prompts under the model's minimum (1024-2048 tokens) are not cached
+                    jsonBody.put("system", new JSONArray().put(new JSONObject()
+                            .put("type", "text")
+                            .put("text", instructions)
+                            .put("cache_control", new JSONObject().put("type", "ephemeral"))));
+                }
+                jsonBody.put("messages", new JSONArray()
+                        .put(new JSONObject()
+                                .put("role", "user")
+                                .put("content", finalPrompt)));
+                if (streaming) {
+                    jsonBody.put("stream", true);
+                }
                 break;
 
             case "local":
 				url = new URL(localEndpointField.getText() + "/chat/completions");
 			    jsonBody.put("model", modelNameForApi)
 			            .put("temperature", 0.7)
-
-
-                        .put("messages", new JSONArray()
-                                .put(new JSONObject()
-                                        .put("role", "user")
-                                        .put("content", finalPrompt)));
+                        .put("messages", chatMessages(modelNameForApi, instructions, finalPrompt, false));
+                if (streaming) {
+                    jsonBody.put("stream", true);
+                }
                 break;
 
             default:
                 throw new IllegalArgumentException("Unsupported provider: " + provider);
         }
 
-        // Retry logic
-        Exception lastException = null;
-        String currentApiKey = apiKey; // Use the initial API key
+        stageProfiler.record(StageProfiler.Stage.BUILD_PROMPT, buildStart);
 
-        for (int attempt = 0; attempt < maxRetries; attempt++) {
-            try {
-                if ("gemini".equals(provider)) {
-                    // For Gemini, get the current key and pass it to sendRequest
-                    currentApiKey = getNextGeminiApiKey(false); // Don't cycle yet, just get current
-                    if (currentApiKey == null || currentApiKey.isEmpty()) {
-                        throw new Exception("No Gemini API keys configured.");
-                    }
-                    url = new URL("https://generativelanguage.googleapis.com/v1beta/models/" + modelNameForApi + ":generateContent?key=" + currentApiKey);
-                    log("Using Gemini API Key: ..." + currentApiKey.substring(currentApiKey.length() - 4), LogCategory.GENERAL);
-                }
-                return sendRequest(url, jsonBody, currentApiKey, model);
-            } catch (Exception e) {
-                lastException = e;
-                api.logging().logToError("Attempt " + (attempt + 1) + " failed: " + e.getMessage());
-                log("sendToAI: Attempt " + (attempt + 1) + " failed for model " + model + ": " + e.getMessage(), LogCategory.GENERAL);
-
-                // If Gemini and it's a quota/rate limit error, try next key
-                if ("gemini".equals(provider) && (e.getMessage().contains("429") || e.getMessage().contains("quota") || e.getMessage().contains("rate limit") || e.getMessage().contains("API key not valid"))) {
-                    String failedKey = currentApiKey;
-                    currentApiKey = getNextGeminiApiKey(true); // Cycle to the next key
-                    if (currentApiKey == null || currentApiKey.isEmpty()) {
-                        api.logging().logToError("All Gemini API keys exhausted or no keys configured.");
-                        throw new Exception("All Gemini API keys exhausted or no keys configured.", lastException);
-                    }
-                    log("Gemini API Key ..." + failedKey.substring(failedKey.length() - 4) + " exceeded quota (or API error). Switching to key: ..." + currentApiKey.substring(currentApiKey.length() - 4), LogCategory.GENERAL);
-                }
+        // Looked up before the call was queued (see cachedResponse); stored here once answered
+        String cacheKey = resultCacheEnabled ? AuditResultCache.key(model, instructions, content) : null;
 
-                Thread.sleep(retryDelayMs * (attempt + 1));
+        if ("gemini".equals(provider)) {
+            // Gemini takes the key in the URL
+            if (apiKey == null || apiKey.isEmpty()) {
+                throw new Exception("No Gemini API keys configured.");
             }
+            url = new URL(providerBaseUrl("gemini", "https://generativelanguage.googleapis.com/v1beta") + "/models/" + modelNameForApi
+                    + (streaming ? ":streamGenerateContent?alt=sse&key=" : ":generateContent?key=") + apiKey);
+            log("Using Gemini API Key: " + ApiKeyPool.label(apiKey), LogCategory.GENERAL);
+        }
+        if (streaming) {
+            // Fresh decoder/parser per attempt; findings re-emitted by a retry are de-duplicated by the sink
+            SseResponseDecoder[] decoder = new SseResponseDecoder[1];
+            FindingsStreamParser findingsParser = new FindingsStreamParser(
+                    finding -> findingSink.accept(finding, decoder[0].model()),
+                    message -> log(message, LogCategory.GENERAL));
+            decoder[0] = new SseResponseDecoder(provider, findingsParser::feed);
+            return cacheResult(cacheKey, model, sendRequest(url, jsonBody, apiKey, model, decoder[0]));
         }
-        throw new Exception("Failed after " + maxRetries + " attempts", lastException);
+        return cacheResult(cacheKey, model, sendRequest(url, jsonBody, apiKey, model));
 		
     }
+
+    /**
+     * The scan instructions sent ahead of {@code content}: the prompt template,
+     * with the findings format appended if the template does not ask for one.
+     * Empty if {@code content} already carries its own instructions.
+     */
+    private String promptInstructions(String content) {
+		if (content.toLowerCase().contains("content to analyze") || content.toLowerCase().contains("content to explain")) {
+			return "";
+		}
+		String prompt = promptTemplateArea.getText();
+
+		if (prompt == null || prompt.isEmpty()) {
+			prompt = getDefaultPromptTemplate();
+		}
+
+		// Automate Prompt Augmentation for Reporting (Task 6)
+		if (!prompt.toLowerCase().contains("format") &&
+			!prompt.toLowerCase().contains("json") &&
+			!prompt.toLowerCase().contains("structure") &&
+			!prompt.toLowerCase().contains("vulnerability") &&
+			!prompt.toLowerCase().contains("content to explain") &&
+			!prompt.toLowerCase().contains("severity"))
+		{
+			prompt += "\n\nIMPORTANT:\nOnly return JSON with findings, no other content!\n\nFormat findings as JSON with the following structure:\n" +
+					  "{\n" +
+					  "  \"findings\": [{\n" +
+					  "    \"vulnerability\": \"Clear, specific, concise title of issue\",\n" +
+					  "    \"location\": \"Exact location in request/response (parameter, header, or path)\",\n" +
+					  "    \"explanation\": \"Detailed technical explanation with evidence from the request/response\",\n" +
+					  "    \"exploitation\": \"Specific steps to reproduce/exploit\",\n" +
+					  "    \"validation_steps\": \"Steps to validate the finding\",\n" +
+					  "    \"severity\": \"HIGH|MEDIUM|LOW|INFORMATION\",\n" +
+					  "    \"confidence\": \"CERTAIN|FIRM|TENTATIVE\"\n" +
+					  "  }]\n" +
+					  "}\n";
+		}
+		return prompt;
+    }
+
+    /**
+     * Chat-completions messages with the instructions as a leading system message,
+     * identical across calls so the provider can serve it from its prefix cache.
+     * o1-mini and o1-preview reject system messages and get one user message
+     * starting with the instructions instead, which keeps the same prefix.
+     */
+    private static JSONArray chatMessages(String modelNameForApi, String instructions, String userPrompt, boolean cacheControl) {
+        JSONArray messages = new JSONArray();
+        String name = modelNameForApi.substring(modelNameForApi.lastIndexOf('/') + 1);
+        if (instructions.isEmpty()) {
+            return messages.put(new JSONObject().put("role", "user").put("content", userPrompt));
+        }
+        if (name.startsWith("o1-mini") || name.startsWith("o1-preview")) {
+            return messages.put(new JSONObject().put("role", "user").put("content", instructions + "\n\n" + userPrompt));
+        }
+        Object system = instructions;
+        if (cacheControl) {
+            system = new JSONArray().put(new JSONObject()
+                    .put("type", "text")
+                    .put("text", instructions)
+                    .put("cache_control", new JSONObject().put("type", "ephemeral")));
+        }
+        return messages.put(new JSONObject().put("role", "system").put("content", system))
+                .put(new JSONObject().put("role", "user").put("content", userPrompt));
+    }
+
+    /**
+     * Runs {@link #sendToAI} as a pool task, retrying failures the retry policy
+     * classifies as retryable. Each attempt takes the provider's healthiest key
+     * from its key pool ({@code apiKey} if none are pooled). Each retry waits on
+     * the scheduler (Retry-After or jittered backoff) and then queues for a
+     * rate-limit permit and concurrency slot again, so no worker is held while waiting.
+     */
+    private CompletableFuture<JSONObject> sendToAIWithRetry(String provider, String apiKey, int estimatedTokens, String model,
+                                                            String content, BiConsumer<JSONObject, String> findingSink) {
+        RetryPolicy retryPolicy = new RetryPolicy(maxRetries, retryDelayMs, MAX_RETRY_DELAY_MS);
+        String[] lastKey = new String[1];
+        // Whether the last attempt's outcome was recorded on its key: by the retry hook or by the call itself, once
+        AtomicBoolean[] lastRecorded = new AtomicBoolean[1];
+        return retryPolicy.execute(attempt -> {
+            if (attempt > 0) {
+                auditMetrics.recordRetry(model);
+            }
+            String key = threadPoolManager.selectApiKey(provider, apiKey);
+            AtomicBoolean recorded = new AtomicBoolean();
+            lastKey[0] = key;
+            lastRecorded[0] = recorded;
+            CompletableFuture<JSONObject> call = threadPoolManager.submitTask(provider, key, estimatedTokens,
+                    () -> sendToAI(model, key, content, findingSink));
+            call.whenComplete((result, error) -> {
+                if (!call.isCancelled() && recorded.compareAndSet(false, true)) {
+                    threadPoolManager.recordKeyOutcome(provider, key, error == null ? null : retryPolicy.classify(error, attempt));
+                }
+            });
+            // The task itself, not a dependent stage, so cancelling it reaches the running call
+            return call;
+        }, threadPoolManager.getScheduler(), (attempt, failure) -> {
+            String reason = failure.outcome() + (failure.statusCode() > 0 ? " (" + failure.statusCode() + ")" : "");
+            log("sendToAI: Attempt " + attempt + " failed for model " + model + ": " + reason + ", " + failure.cause().getMessage(), LogCategory.GENERAL);
+            // This hook can run before the call's own handler; the key must be cooling down before the retry selects one
+            if (lastRecorded[0].compareAndSet(false, true)) {
+                threadPoolManager.recordKeyOutcome(provider, lastKey[0], failure);
+            }
+
+            // Quota and key errors belong to the key: another key of the pool can be tried right away
+            if ((failure.outcome() == RetryPolicy.Outcome.RATE_LIMITED || failure.outcome() == RetryPolicy.Outcome.KEY_REJECTED)
+                    && threadPoolManager.hasOtherApiKey(provider, lastKey[0])) {
+                log(provider + " API key " + ApiKeyPool.label(lastKey[0]) + " is cooling down; retrying on another key", LogCategory.GENERAL);
+                return 0;
+            }
+            if (!failure.outcome().isRetryable()) {
+                return -1;
+            }
+            log(String.format("Retrying in %d ms (%s)", failure.delayMillis(),
+                    failure.isServerDelay() ? "as requested by the provider" : "jittered backoff"), LogCategory.GENERAL);
+            return failure.delayMillis();
+        });
+    }
     
     
     
 
+    /**
+     * The provider's API base URL. A system property such as
+     * -Dai_auditor.endpoint.openai=http://127.0.0.1:8089/openai/v1 points it
+     * elsewhere, e.g. at the mock provider used for load tests.
+     */
+    private static String providerBaseUrl(String provider, String defaultBaseUrl) {
+        return System.getProperty(PREF_PREFIX + "endpoint." + provider, defaultBaseUrl);
+    }
+
+    /**
+     * The cached response for {@code content} sent to {@code model}, or null.
+     * Checked before a call is queued, so a hit uses no rate-limit permit,
+     * token budget or concurrency slot.
+     */
+    private JSONObject cachedResponse(String model, String content) {
+        if (!resultCacheEnabled) {
+            return null;
+        }
+        String cached = resultCache.get(AuditResultCache.key(model, promptInstructions(content), content));
+        auditMetrics.recordCacheLookup(cached != null);
+        if (cached == null) {
+            return null;
+        }
+        log("Result cache hit for model " + model, LogCategory.GENERAL);
+        return new JSONObject(cached);
+    }
+
+    /** Stores complete answers only, so a truncated or unparseable one is not replayed on every rescan. */
+    private JSONObject cacheResult(String cacheKey, String model, JSONObject response) {
+        if (cacheKey != null && response != null && isCacheable(response, model)) {
+            resultCache.put(cacheKey, response.toString());
+        }
+        return response;
+    }
+
+    /** The model stopped on its own (not at max_tokens or mid-stream) and its findings array parsed in full. */
+    private boolean isCacheable(JSONObject response, String model) {
+        if (!stoppedNormally(response)) {
+            return false;
+        }
+        String content = extractContentFromResponse(response, model);
+        if (content == null || content.isEmpty()) {
+            return false;
+        }
+        FindingsStreamParser parser = new FindingsStreamParser(finding -> { }, null);
+        parser.feed(content);
+        return parser.isComplete();
+    }
+
+    /** Whether the provider reports a natural end of the answer: Claude end_turn, OpenAI-style stop, Gemini STOP. */
+    static boolean stoppedNormally(JSONObject response) {
+        String reason = stopReason(response);
+        return "end_turn".equals(reason) || "stop_sequence".equals(reason) || "stop".equals(reason) || "STOP".equals(reason);
+    }
+
+    /** Whether the answer was cut off by the output token limit: Claude max_tokens, OpenAI-style length, Gemini MAX_TOKENS. */
+    static boolean hitOutputLimit(JSONObject response) {
+        String reason = stopReason(response);
+        return "max_tokens".equals(reason) || "length".equals(reason) || "MAX_TOKENS".equals(reason);
+    }
+
+    /** The stop reason in any provider's response layout, or null if it has none. */
+    static String stopReason(JSONObject response) {
+        if (response.has("stop_reason")) {
+            return response.optString("stop_reason", null);
+        }
+        JSONArray list = response.optJSONArray(response.has("candidates") ? "candidates" : "choices");
+        JSONObject first = list == null ? null : list.optJSONObject(0);
+        if (first == null) {
+            return null;
+        }
+        return first.has("finishReason") ? first.optString("finishReason", null) : first.optString("finish_reason", null);
+    }
+
     private JSONObject sendRequest(URL url, JSONObject jsonBody, String apiKey, String model) throws Exception {
-    HttpURLConnection conn = null;
-    BufferedReader reader = null;
+        return sendRequest(url, jsonBody, apiKey, model, null);
+    }
+
+    private JSONObject sendRequest(URL url, JSONObject jsonBody, String apiKey, String model, SseResponseDecoder streamDecoder) throws Exception {
+    long callStart = System.nanoTime();
+    int status = 0; // stays 0 if no response arrives
+    boolean aborted = false;
+    String[] modelParts = model.split("/",2);
+    String provider;
+
+    if (modelParts.length == 2) {
+        provider = modelParts[0];
+    } else {
+        provider = MODEL_MAPPING.get(model);
+    }
     try {
         String proxyString = proxyField.getText().trim();
-        String[] modelParts = model.split("/",2);
-        String provider;
-
-        if (modelParts.length == 2) {
-            provider = modelParts[0];
-        } else {
-            provider = MODEL_MAPPING.get(model);
-        }
 
         if (!proxyString.isEmpty()) {
             try {
-                String[] proxyParts = proxyString.split(":");
-                if (proxyParts.length != 2) {
-                    throw new Exception("Invalid proxy format. Use IP:Port.");
-                }
-                String host = proxyParts[0];
-                int port = Integer.parseInt(proxyParts[1]);
-                Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(host, port));
-                conn = (HttpURLConnection) url.openConnection(proxy);
-            } catch (Exception e) {
+                HttpClientTransport.parseProxy(proxyString);
+            } catch (IllegalArgumentException e) {
                 showError("Invalid proxy setting: " + proxyString, e);
                 // Fallback to no proxy
-                conn = (HttpURLConnection) url.openConnection();
+                proxyString = "";
             }
-        } else {
-            conn = (HttpURLConnection) url.openConnection();
         }
-		Thread.dumpStack();
         log("Final URL for connection: " + url.toString(), LogCategory.GENERAL);
 
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setConnectTimeout(15000); //reduced from 30000
-        conn.setReadTimeout(360000); //incresed from 60000 for local LLM
-        //log("DEBUG -S2- conn.setReadTimeout", LogCategory.GENERAL);
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json");
 
         switch (provider) {
             case "claude":
-                conn.setRequestProperty("x-api-key", apiKey);
-                conn.setRequestProperty("anthropic-version", "2023-06-01");
+                headers.put("x-api-key", apiKey);
+                headers.put("anthropic-version", "2023-06-01");
                 break;
             case "openai":
             case "openrouter":
-                conn.setRequestProperty("Authorization", "Bearer " + apiKey);
+                headers.put("Authorization", "Bearer " + apiKey);
                 break;
             case "gemini":
                 // API key is already included in the URL
@@ -1793,71 +2826,100 @@ private void createMainTab() {
             case "local":
 
 				if (apiKey != null && !apiKey.isEmpty()) {
-                    conn.setRequestProperty("Authorization", "Bearer " + apiKey);
+                    headers.put("Authorization", "Bearer " + apiKey);
                 }
                 break;
         }
 
-		log(" -Sending " + conn.getRequestMethod() + " to " + url, LogCategory.GENERAL);
-        
-		// Send the request body
-        if (jsonBody != null) {
-            conn.setDoOutput(true);
-
-			log("  --Body: " + jsonBody.toString(), LogCategory.REQUEST_BODY);
-            try (OutputStream os = conn.getOutputStream()) {
-                os.write(jsonBody.toString().getBytes(StandardCharsets.UTF_8));
-                os.flush();
+		log(" -Sending POST to " + url, LogCategory.GENERAL);
+
+		// Send the request body over the shared, keep-alive transport
+        String body = jsonBody != null ? jsonBody.toString() : "";
+		logPayload("  --Body: ", body, LogCategory.REQUEST_BODY);
+
+        if (streamDecoder != null) {
+            headers.put("Accept", "text/event-stream");
+            ProviderResponse response = providerTransport.postStreaming(url.toURI(), headers, body, proxyString, streamDecoder);
+            status = response.statusCode();
+            threadPoolManager.updateFromResponseHeaders(provider, apiKey, response.headers());
+            if (response.statusCode() != 200) {
+                throw new ProviderApiException(response);
             }
+            logPayload("API Response (streamed): ", (Supplier<String>) streamDecoder::text, LogCategory.API_RESPONSE);
+            JSONObject streamed = streamDecoder.toResponse();
+            auditMetrics.recordUsage(model, provider, streamed);
+            return streamed;
         }
 
-        // Read the response
-        int responseCode = conn.getResponseCode();
-        InputStream inputStream = (responseCode == 200) ? conn.getInputStream() : conn.getErrorStream();
-        reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-        StringBuilder responseBuilder = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            responseBuilder.append(line);
-        }
+        ProviderResponse response = providerTransport.post(url.toURI(), headers, body, proxyString);
+        threadPoolManager.updateFromResponseHeaders(provider, apiKey, response.headers());
 
-        String responseContent = responseBuilder.toString();
+        int responseCode = response.statusCode();
+        status = responseCode;
+        String responseContent = response.body();
 
         // Log the response for debugging
-        log("API Response: " + responseContent, LogCategory.API_RESPONSE);
+        logPayload("API Response: ", responseContent, LogCategory.API_RESPONSE);
 
         if (responseCode == 200) {
-            return new JSONObject(responseContent);
+            JSONObject result = new JSONObject(responseContent);
+            auditMetrics.recordUsage(model, provider, result);
+            return result;
         } else {
-            throw new Exception("API error " + responseCode + ": " + responseContent);
+            throw new ProviderApiException(response);
         }
 
 
     }catch (Exception e) {
+        if (isAborted(e)) {
+            // Cancelled by the caller (e.g. a hedge the other model won): not a provider failure
+            aborted = true;
+            log("Call to " + model + " cancelled", LogCategory.GENERAL);
+            throw e;
+        }
         // ---------- unified error handling ----------
         String prefix = "Error  - Model: " + model + " - ";
-        api.logging().logToError(prefix + e.getMessage());
+        logError(prefix + e.getMessage());
         logDebug(prefix, e);                     // keeps stack-trace
         throw e;                                  // re-throw so callers can still handle it
     } finally {
-        SafeUtils.closeQuietly(reader);
-        SafeUtils.disconnectQuietly(conn);
+        long elapsed = System.nanoTime() - callStart;
+        // An aborted call says nothing about the provider's latency or health
+        if (!aborted) {
+            auditMetrics.recordCall(model, status, elapsed);
+            if (provider != null) {
+                threadPoolManager.recordCallResult(provider, apiKey, status, elapsed);
+            }
+        }
+    }
+}
+
+/** Whether a call failed because its thread was interrupted, i.e. the caller cancelled it. */
+private static boolean isAborted(Throwable error) {
+    if (Thread.currentThread().isInterrupted()) {
+        return true;
     }
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+        if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+            return true;
+        }
+    }
+    return false;
+}
+
+void processAIFindings(JSONObject aiResponse, HttpRequestResponse requestResponse, Set<String> processedVulnerabilities, String model) {
+    processAIFindings(aiResponse, finding -> Collections.singletonList(requestResponse), processedVulnerabilities, model);
 }
 
-private void processAIFindings(JSONObject aiResponse, HttpRequestResponse requestResponse, Set<String> processedVulnerabilities, String model) {
+/** Adds each finding to every request/response chosen by {@code targetsFor}; findings it maps to none are skipped. */
+private void processAIFindings(JSONObject aiResponse, Function<JSONObject, List<HttpRequestResponse>> targetsFor,
+                               Set<String> processedVulnerabilities, String model) {
+    long parseStart = stageProfiler.start();
     try {
-        log("AI Response: " + aiResponse.toString(2), LogCategory.AI_RESPONSE_FULL);
+        logPayload("AI Response: ", aiResponse, LogCategory.AI_RESPONSE_FULL);
 
         // Determine the actual model used from the response JSON
-		String actualModel = aiResponse.optString("model");
-		String finalModelName;
-
-		if (actualModel != null && !actualModel.isEmpty() && !actualModel.equals(model)) {
-			finalModelName = model + " (" + actualModel + ")"; // e.g., "gpt-4o (gpt-4o-2024-05-13)"
-		} else {
-			finalModelName = model;
-		}
+		String finalModelName = resolveModelName(model, aiResponse.optString("model"));
 
 
 
@@ -1868,94 +2930,90 @@ private void processAIFindings(JSONObject aiResponse, HttpRequestResponse reques
         }
 
         // Log raw content
-        log("Raw content: " + content, LogCategory.RAW_CONTENT);
-
-        // Unwrap ```json ... ```
-        if (content.startsWith("```json")) {
-            content = content.substring(content.indexOf("{"), content.lastIndexOf("}") + 1);
-        }
-
-        log("Extracted JSON: " + content, LogCategory.EXTRACTED_JSON);
-
-        // Parse findings JSON
-        JSONObject findingsJson = new JSONObject(content);
+        logPayload("Raw content: ", content, LogCategory.RAW_CONTENT);
+
+        // Findings are parsed one at a time; fences, <think> blocks and prose around the JSON are skipped
+        FindingsStreamParser parser = new FindingsStreamParser(finding -> {
+            List<HttpRequestResponse> targets = targetsFor.apply(finding);
+            if (targets.isEmpty()) {
+                log("Skipping finding '" + finding.optString("vulnerability", "unknown")
+                        + "' with unknown item_id '" + finding.optString(RequestBatcher.ITEM_ID_FIELD, "") + "'", LogCategory.GENERAL);
+                return;
+            }
+            for (HttpRequestResponse target : targets) {
+                addFindingIssue(finding, target, processedVulnerabilities, finalModelName);
+            }
+        }, message -> log(message, LogCategory.EXTRACTED_JSON));
+        parser.feed(content);
+        parser.finish();
 
         // Ensure findings key exists
-        if (!findingsJson.has("findings")) {
-            throw new JSONException("Key 'findings' not found in extracted JSON.");
+        if (!parser.foundFindings()) {
+            throw new JSONException("Key 'findings' not found in AI response content.");
         }
+        log("Extracted " + parser.emittedCount() + " findings (" + parser.recoveredCount()
+                + " recovered from truncated output)", LogCategory.EXTRACTED_JSON);
+    } catch (Exception e) {
+        logError("Error processing AI findings: " + e.getMessage());
+    } finally {
+        stageProfiler.record(StageProfiler.Stage.PARSE, parseStart);
+    }
+}
 
-        // Parse findings array
-        JSONArray findings = findingsJson.getJSONArray("findings");
-
-        for (int i = 0; i < findings.length(); i++) {
-            JSONObject finding = findings.getJSONObject(i);
-
-			// --- SAFETY GUARD -------------------------------------------------
-			if (requestResponse == null
-					|| requestResponse.request() == null
-					|| requestResponse.httpService() == null) {
-				log("Skipping finding '" + finding.optString("vulnerability", "unknown")
-					+ "' because request/response is missing.", LogCategory.GENERAL);
-				continue;                 // <-- do NOT attempt to build an issue
-			}
-			// ------------------------------------------------------------------
-			
-			
-            // Skip duplicate vulns
-
-			if (requestResponse == null) {
-			    log("Skipping finding because requestResponse is null.",
-			        LogCategory.GENERAL);
-			    continue;
-			}
-			
-            String hash = generateVulnerabilityHash(finding, requestResponse);
-            if (processedVulnerabilities.contains(hash)) {
-                continue;
-            }
-            processedVulnerabilities.add(hash);
-
-            // Parse severity and confidence
-            AuditIssueSeverity severity = parseSeverity(finding.getString("severity"));
-            AuditIssueConfidence confidence = parseConfidence(finding.getString("confidence"));
+/** e.g. "gpt-4o (gpt-4o-2024-05-13)" when the provider reports a more specific model than was requested. */
+private String resolveModelName(String model, String actualModel) {
+    if (actualModel != null && !actualModel.isEmpty() && !actualModel.equals(model)) {
+        return model + " (" + actualModel + ")";
+    }
+    return model;
+}
 
-			// Build AIAuditIssue
-			if (requestResponse == null) {
-				log("Skipping finding '" + finding.optString("vulnerability", "Unknown")
-					+ "' because requestResponse is null.", LogCategory.GENERAL);
-				continue;
-			}
+/** Builds an AIAuditIssue for one finding and adds it to the site map, skipping duplicates. */
+private void addFindingIssue(JSONObject finding, HttpRequestResponse requestResponse, Set<String> processedVulnerabilities, String finalModelName) {
+	// --- SAFETY GUARD -------------------------------------------------
+	if (requestResponse == null
+			|| requestResponse.request() == null
+			|| requestResponse.httpService() == null) {
+		log("Skipping finding '" + finding.optString("vulnerability", "unknown")
+			+ "' because request/response is missing.", LogCategory.GENERAL);
+		return;                   // <-- do NOT attempt to build an issue
+	}
+	// ------------------------------------------------------------------
 
-            // Build issue details
-            StringBuilder issueDetail = new StringBuilder();
-            issueDetail.append("__Issue identified by AI Auditor__\n\n");
-            issueDetail.append("**Location:** ").append(finding.optString("location", "Unknown")).append("\n\n");
-            issueDetail.append("**Detailed Explanation:**\n").append(finding.optString("explanation", "No explanation provided")).append("\n\n");
-            issueDetail.append("**Confidence Level:** ").append(confidence.name()).append("\n");
-            issueDetail.append("**Severity Level:** ").append(severity.name());
-
-
-            // Build AIAuditIssue
-			AIAuditIssue issue = new AIAuditIssue.Builder()
-					.name("AI Audit: " + finding.optString("vulnerability", "Unknown Vulnerability"))
-					.detail(issueDetail.toString())
-					.endpoint(requestResponse.request().url().toString())
-					.severity(severity)
-					.confidence(confidence)
-					.requestResponses(Collections.singletonList(requestResponse))
-					.modelUsed(finalModelName != null ? finalModelName : "unknown model")
-					.build();
-
-			// Debug: Log constructed AIAuditIssue for troubleshooting
-			//log("Constructed AIAuditIssue: " + issue.toString(), LogCategory.GENERAL);
-            
-			// Add issue to sitemap
-            api.siteMap().add(issue);
-        }
-    } catch (Exception e) {
-        api.logging().logToError("Error processing AI findings: " + e.getMessage());
+    // Skip duplicate vulns (the set is shared by concurrent chunks and streamed findings)
+    String hash = generateVulnerabilityHash(finding, requestResponse);
+    if (!processedVulnerabilities.add(hash)) {
+        return;
     }
+
+    // Parse severity and confidence
+    AuditIssueSeverity severity = parseSeverity(finding.optString("severity", "INFORMATION"));
+    AuditIssueConfidence confidence = parseConfidence(finding.optString("confidence", "TENTATIVE"));
+
+    // Build issue details
+    StringBuilder issueDetail = new StringBuilder();
+    issueDetail.append("__Issue identified by AI Auditor__\n\n");
+    issueDetail.append("**Location:** ").append(finding.optString("location", "Unknown")).append("\n\n");
+    issueDetail.append("**Detailed Explanation:**\n").append(finding.optString("explanation", "No explanation provided")).append("\n\n");
+    issueDetail.append("**Confidence Level:** ").append(confidence.name()).append("\n");
+    issueDetail.append("**Severity Level:** ").append(severity.name());
+
+
+    // Build AIAuditIssue
+	AIAuditIssue issue = new AIAuditIssue.Builder()
+			.name("AI Audit: " + finding.optString("vulnerability", "Unknown Vulnerability"))
+			.detail(issueDetail.toString())
+			.endpoint(requestResponse.request().url().toString())
+			.severity(severity)
+			.confidence(confidence)
+			.requestResponses(Collections.singletonList(requestResponse))
+			.modelUsed(finalModelName != null ? finalModelName : "unknown model")
+			.build();
+
+	// Add issue to sitemap
+    long addStart = stageProfiler.start();
+    api.siteMap().add(issue);
+    stageProfiler.record(StageProfiler.Stage.SITE_MAP_ADD, addStart);
 }
 
 
@@ -1987,7 +3045,7 @@ private String extractContentFromResponse(JSONObject response, String model) {
 
 
         // Log raw response for debugging
-        log("Raw response: " + response.toString(), LogCategory.API_RESPONSE);
+        logPayload("Raw response: ", response, LogCategory.API_RESPONSE);
 
         switch (provider) {
             case "claude":
@@ -2040,7 +3098,7 @@ private String extractContentFromResponse(JSONObject response, String model) {
                 throw new IllegalArgumentException("Unsupported provider: " + provider);
         }
     } catch (Exception e) {
-        api.logging().logToError("Error extracting content from response: " + e.getMessage());
+        logError("Error extracting content from response: " + e.getMessage());
     }
     return "";
 }
@@ -2158,7 +3216,7 @@ private String getSelectedModel() {
     if ("Default".equals(model)) {
         // Return a default model in provider/model_name format based on available keys
         if (!new String(openaiKeyField.getPassword()).isEmpty()) return "openai/gpt-4o-mini";
-        if (!geminiApiKeys.isEmpty()) return "gemini/gemini-2.0-flash-lite";
+        if (!geminiKeyField.getText().trim().isEmpty()) return "gemini/gemini-2.0-flash-lite";
         if (!new String(claudeKeyField.getPassword()).isEmpty()) return "claude/claude-3-5-haiku-latest";
         if (!new String(openrouterKeyField.getPassword()).isEmpty()) return "openrouter/mistralai/mistral-7b-instruct";
         return "Default"; // Fallback if no keys are configured
@@ -2168,6 +3226,132 @@ private String getSelectedModel() {
 
 
 
+/** Models from a comma- or line-separated settings value, in order, without duplicates. */
+private static List<String> parseModelList(String value) {
+    List<String> models = new ArrayList<>();
+    if (value != null) {
+        for (String model : value.split("[,\\n]+")) {
+            String trimmed = model.trim();
+            if (!trimmed.isEmpty() && !models.contains(trimmed)) {
+                models.add(trimmed);
+            }
+        }
+    }
+    return models;
+}
+
+private static String providerOf(String model) {
+    return model.contains("/") ? model.split("/", 2)[0] : MODEL_MAPPING.get(model);
+}
+
+/** Whether calls to {@code model} can be sent: a key for its provider, or a local endpoint. */
+private boolean isModelConfigured(String model) {
+    if ("local".equals(providerOf(model))) {
+        return !localEndpointField.getText().trim().isEmpty();
+    }
+    String apiKey = getApiKeyForModel(model);
+    return apiKey != null && !apiKey.isEmpty();
+}
+
+/**
+ * The selected model followed by the configured fallbacks that can be used.
+ * Models whose keys are all cooling down go last, so calls skip a provider
+ * known to be exhausted instead of failing over from it every time.
+ */
+private List<String> modelChain(String selectedModel) {
+    List<String> chain = new ArrayList<>();
+    chain.add(selectedModel);
+    for (String fallback : fallbackModels) {
+        if (!chain.contains(fallback) && providerOf(fallback) != null && isModelConfigured(fallback)) {
+            chain.add(fallback);
+        }
+    }
+    List<String> ordered = new ArrayList<>();
+    List<String> exhausted = new ArrayList<>();
+    for (String model : chain) {
+        (threadPoolManager.isProviderCoolingDown(providerOf(model)) ? exhausted : ordered).add(model);
+    }
+    ordered.addAll(exhausted);
+    return ordered;
+}
+
+/**
+ * Sends one audit call along the model chain (see {@link RequestRouter}),
+ * each model with its own provider, key pool and retries.
+ */
+private CompletableFuture<RequestRouter.Routed<JSONObject>> routeToAI(String selectedModel, boolean hedge, int estimatedTokens,
+                                                                       String content, BiConsumer<JSONObject, String> findingSink) {
+    // Identical (model, prompt, chunk) was answered before: replay it with no network cost
+    JSONObject cached = cachedResponse(selectedModel, content);
+    if (cached != null) {
+        return CompletableFuture.completedFuture(new RequestRouter.Routed<>(selectedModel, cached));
+    }
+    // Only calls that are not racing another one stream: a hedge's findings are reported once it wins,
+    // so a chunk does not get the findings of both models
+    return requestRouter.route(modelChain(selectedModel), hedge, (model, isHedge) ->
+            sendToAIWithRetry(providerOf(model), getApiKeyForModel(model), estimatedTokens, model, content, findingSink == null || isHedge ? null
+                    : (finding, actualModel) -> findingSink.accept(finding, resolveModelName(model, actualModel))));
+}
+
+/**
+ * Audits one chunk. Interactive scans go to the selected model (hedged if
+ * enabled). With model routing on, bulk scans are triaged by a cheaper model
+ * first (see {@link ModelRouter}); triage answers are held back and only
+ * reported if the chunk is not escalated, or if the deep call fails.
+ */
+private CompletableFuture<RequestRouter.Routed<JSONObject>> auditChunk(String selectedModel, boolean interactive, int estimatedTokens,
+                                                                        String content, String contentClass,
+                                                                        BiConsumer<JSONObject, String> findingSink) {
+    if (interactive || !modelRouting) {
+        return routeToAI(selectedModel, interactive && hedgeRequests, estimatedTokens, content, findingSink);
+    }
+    List<String> candidates = new ArrayList<>();
+    for (String model : routingCandidates) {
+        if (providerOf(model) != null && isModelConfigured(model)) {
+            candidates.add(model);
+        }
+    }
+    ModelRouter.Decision decision = modelRouter.decide(selectedModel, candidates, estimatedTokens, contentClass);
+    if (decision.triageModel() == null) {
+        return routeToAI(selectedModel, false, estimatedTokens, content, findingSink);
+    }
+    CompletableFuture<RequestRouter.Routed<JSONObject>> triaged = routeToAI(decision.triageModel(), false, estimatedTokens, content, null);
+    return triaged.thenCompose(triage -> {
+                boolean escalate = ModelRouter.needsDeepAnalysis(parseFindings(triage.value(), triage.model()));
+                modelRouter.recordTriage(decision, escalate);
+                if (!escalate) {
+                    return CompletableFuture.completedFuture(triage);
+                }
+                log("Triage by " + triage.model() + " flagged the chunk; auditing with " + selectedModel, LogCategory.GENERAL);
+                return routeToAI(selectedModel, false, estimatedTokens, content, findingSink)
+                        .exceptionally(e -> {
+                            logError("Deep audit with " + selectedModel + " failed, keeping the triage findings: "
+                                    + RetryPolicy.unwrap(e).getMessage());
+                            return triage;
+                        });
+            })
+            .exceptionallyCompose(e -> {
+                if (!triaged.isCompletedExceptionally()) {
+                    return CompletableFuture.failedFuture(e);
+                }
+                log("Triage with " + decision.triageModel() + " failed (" + RetryPolicy.unwrap(e).getMessage()
+                        + "); auditing with " + selectedModel, LogCategory.GENERAL);
+                return routeToAI(selectedModel, false, estimatedTokens, content, findingSink);
+            });
+}
+
+/** The findings in a response, without reporting them. */
+private List<JSONObject> parseFindings(JSONObject aiResponse, String model) {
+    List<JSONObject> findings = new ArrayList<>();
+    String content = extractContentFromResponse(aiResponse, model);
+    if (content != null && !content.isEmpty()) {
+        FindingsStreamParser parser = new FindingsStreamParser(findings::add, message -> { });
+        parser.feed(content);
+        parser.finish();
+    }
+    return findings;
+}
+
 private String getApiKeyForModel(String model) {
     String[] modelParts = model.split("/",2);
     String provider;
@@ -2197,30 +3381,21 @@ private String getApiKeyForModel(String model) {
         }
     }
     log("getApiKeyForModel: Determined provider: " + provider + " for model: " + model, LogCategory.GENERAL);
+    // The first configured key; each call picks its own key from the provider's pool (see sendToAIWithRetry)
     switch (provider) {
-        case "openai": return new String(openaiKeyField.getPassword());
-        case "openrouter": return new String(openrouterKeyField.getPassword());
-        case "gemini":
-            String[] keys = geminiKeyField.getText().split("\\n");
-            if (keys.length > 0) {
-                return keys[0].trim();
-            }
-            return null;
-        case "claude": return new String(claudeKeyField.getPassword());
-        case "local": return new String(localKeyField.getPassword());
+        case "openai": return firstApiKey(new String(openaiKeyField.getPassword()));
+        case "openrouter": return firstApiKey(new String(openrouterKeyField.getPassword()));
+        case "gemini": return firstApiKey(geminiKeyField.getText());
+        case "claude": return firstApiKey(new String(claudeKeyField.getPassword()));
+        case "local": return firstApiKey(new String(localKeyField.getPassword()));
         default: return null;
     }
 }
 
-private String getNextGeminiApiKey(boolean cycle) {
-    if (geminiApiKeys.isEmpty()) {
-        return null;
-    }
-    if (cycle) {
-        currentGeminiKeyIndex.incrementAndGet();
-    }
-    int index = currentGeminiKeyIndex.get() % geminiApiKeys.size();
-    return geminiApiKeys.get(index).trim();
+/** First key of a settings value that may list several, or an empty string. */
+private static String firstApiKey(String value) {
+    List<String> keys = ApiKeyPool.parse(value);
+    return keys.isEmpty() ? "" : keys.get(0);
 }
 
 
@@ -2230,7 +3405,7 @@ private String getNextGeminiApiKey(boolean cycle) {
         if (error != null && error.getMessage() != null) {
             errorMessage += ": " + error.getMessage();
         }
-        api.logging().logToError(errorMessage);
+        logError(errorMessage);
         api.logging().raiseErrorEvent(errorMessage);
     }
 
@@ -2239,7 +3414,7 @@ private String getNextGeminiApiKey(boolean cycle) {
         if (error != null && error.getMessage() != null) {
             debugMessage += ": " + error.getMessage();
         }
-		api.logging().logToOutput(debugMessage); // Prints to Burp's Output tab
+		logOutput(debugMessage); // Prints to Burp's Output tab
 		api.logging().raiseDebugEvent(debugMessage); // Sends to Burp's Event Log
 	}
 
@@ -2252,7 +3427,11 @@ public AuditResult activeAudit(HttpRequestResponse baseRequestResponse, AuditIns
 
 @Override
 public AuditResult passiveAudit(HttpRequestResponse baseRequestResponse) {
-    // this extension doesn't implement passive scanning (yet)
+    // Findings are added to the site map asynchronously once the queued audit runs;
+    // the scanner thread only pays for scoring the item
+    if (passiveScanEnabled && !isShuttingDown && passiveQueue != null) {
+        passiveQueue.offer(baseRequestResponse);
+    }
     return AuditResult.auditResult(Collections.emptyList());
 }
 
@@ -2266,31 +3445,6 @@ public ConsolidationAction consolidateIssues(AuditIssue newIssue, AuditIssue exi
     return ConsolidationAction.KEEP_BOTH;
 }
 
-    private void testGeminiKeyCycling() {
-        log("--- Starting Gemini Key Cycling Test ---", LogCategory.GENERAL);
-
-        if (geminiApiKeys.isEmpty()) {
-            log("No Gemini API keys loaded. Test cannot run.", LogCategory.GENERAL);
-            return;
-        }
-
-        log("Total keys loaded: " + geminiApiKeys.size(), LogCategory.GENERAL);
-        int initialIndex = currentGeminiKeyIndex.get();
-        log("Initial key index: " + initialIndex, LogCategory.GENERAL);
-
-        for (int i = 0; i < geminiApiKeys.size() * 2; i++) { // Cycle through the keys twice
-            String currentKey = getNextGeminiApiKey(false); // Get current key without cycling
-            log(String.format("Test Cycle %d: Current key (ends with...%s)", i + 1, currentKey.substring(currentKey.length() - 4)), LogCategory.GENERAL);
-            
-            // Simulate a failure, which causes a cycle
-            log("Simulating rate-limit failure...", LogCategory.GENERAL);
-            currentKey = getNextGeminiApiKey(true); // Cycle to the next key
-            log(String.format("Test Cycle %d: Switched to new key (ends with...%s)", i + 1, currentKey.substring(currentKey.length() - 4)), LogCategory.GENERAL);
-        }
-
-        log("--- Gemini Key Cycling Test Finished ---", LogCategory.GENERAL);
-    }
-
     private void resetModelsToDefault() {
         SwingUtilities.invokeLater(() -> {
             availableModels.clear();
@@ -2356,11 +3510,11 @@ public ConsolidationAction consolidateIssues(AuditIssue newIssue, AuditIssue exi
                         while ((line = reader.readLine()) != null) {
                             errorResponse.append(line);
                         }
-                        api.logging().logToError("Failed to fetch OpenRouter models. Response Code: " + responseCode + ", Error: " + errorResponse.toString());
+                        logError("Failed to fetch OpenRouter models. Response Code: " + responseCode + ", Error: " + errorResponse.toString());
                     }
                 }
             } catch (Exception e) {
-                api.logging().logToError("Error fetching OpenRouter models: " + e.getMessage());
+                logError("Error fetching OpenRouter models: " + e.getMessage());
             }
             return openrouterModels;
         });
@@ -2400,6 +3554,7 @@ public ConsolidationAction consolidateIssues(AuditIssue newIssue, AuditIssue exi
         for (String model : filteredModels) {
             modelDropdown.addItem(model);
         }
+        routingCandidates = new ArrayList<>(filteredModels);
     }
 			
 			
@@ -2411,10 +3566,10 @@ public ConsolidationAction consolidateIssues(AuditIssue newIssue, AuditIssue exi
                 availableModels.add("Default"); // Always keep Default option at the top
 
                 // Fetch models from all providers concurrently
-                CompletableFuture<List<String>> openaiFuture = fetchOpenAIModels(new String(openaiKeyField.getPassword()));
-                CompletableFuture<List<String>> geminiFuture = fetchGeminiModels(geminiKeyField.getText().split("\n")[0].trim());
-                CompletableFuture<List<String>> claudeFuture = fetchClaudeModels(new String(claudeKeyField.getPassword()));
-                CompletableFuture<List<String>> openrouterFuture = fetchOpenRouterModels(new String(openrouterKeyField.getPassword()));
+                CompletableFuture<List<String>> openaiFuture = fetchOpenAIModels(firstApiKey(new String(openaiKeyField.getPassword())));
+                CompletableFuture<List<String>> geminiFuture = fetchGeminiModels(firstApiKey(geminiKeyField.getText()));
+                CompletableFuture<List<String>> claudeFuture = fetchClaudeModels(firstApiKey(new String(claudeKeyField.getPassword())));
+                CompletableFuture<List<String>> openrouterFuture = fetchOpenRouterModels(firstApiKey(new String(openrouterKeyField.getPassword())));
 
                 // Wait for all futures to complete
                 CompletableFuture.allOf(openaiFuture, geminiFuture, claudeFuture, openrouterFuture).join();
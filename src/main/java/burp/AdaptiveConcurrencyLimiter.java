@@ -0,0 +1,186 @@
+package burp;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AIMD limit on concurrent calls for one provider and API key. While calls
+ * succeed at normal latency and the limit is actually being used, it grows by
+ * about one slot per round of calls; a 429, an overload status, a call that
+ * got no response (timeout, reset) or a sustained latency rise cuts it
+ * multiplicatively. Single slow calls do not count: LLM latency is heavy
+ * tailed, so a rise means the recent average drifting well above the
+ * long-run one. At most one cut is made per round trip, so a burst of
+ * failures from calls that were already in flight counts once.
+ *
+ * Slots are handed out asynchronously, like {@link ProviderRateLimiter}
+ * permits, so queued calls never hold a thread.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final double OVERLOAD_BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.75;
+    // Recent latency above this multiple of the long-run latency counts as a rise
+    private static final double SPIKE_FACTOR = 2.0;
+    private static final int WARMUP_SAMPLES = 10;
+    private static final double RECENT_SMOOTHING = 0.3;    // about the last 3 calls
+    private static final double BASELINE_SMOOTHING = 0.02; // about the last 50 calls
+    private static final int HISTORY_SIZE = 12;
+    private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private final Deque<String> history = new ArrayDeque<>();
+    private double limit;
+    private int maxLimit;
+    private int inFlight = 0;
+    private double recentLatencyMs = 0;
+    private double baselineLatencyMs = 0;
+    private int samples = 0;
+    private long lastDecreaseNanos = 0;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        note("start");
+    }
+
+    /** A future that completes once a slot is free; call {@link #release()} when the call is done. */
+    public CompletableFuture<Void> acquire() {
+        CompletableFuture<Void> slot = new CompletableFuture<>();
+        synchronized (this) {
+            waiters.add(slot);
+        }
+        grant();
+        return slot;
+    }
+
+    public void release() {
+        synchronized (this) {
+            inFlight = Math.max(0, inFlight - 1);
+        }
+        grant();
+    }
+
+    private void grant() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (this) {
+            while (!waiters.isEmpty() && inFlight < (int) limit) {
+                CompletableFuture<Void> head = waiters.poll();
+                if (head.isDone()) { // cancelled by the caller
+                    continue;
+                }
+                inFlight++;
+                granted.add(head);
+            }
+        }
+        // Complete outside the lock so dependent stages never run while holding it
+        int lost = 0;
+        for (CompletableFuture<Void> slot : granted) {
+            if (!slot.complete(null)) { // cancelled after it was granted
+                lost++;
+            }
+        }
+        if (lost > 0) {
+            synchronized (this) {
+                inFlight = Math.max(0, inFlight - lost);
+            }
+            grant();
+        }
+    }
+
+    /**
+     * Feeds back the outcome of one provider call: its HTTP status (0 if no
+     * response arrived) and how long it took.
+     */
+    public void onResult(int status, long latencyNanos) {
+        double latencyMs = latencyNanos / 1e6;
+        synchronized (this) {
+            long now = System.nanoTime();
+            boolean overload = status == 0 || status == 429 || status == 503 || status == 529;
+            if (status == 200) {
+                if (samples == 0) {
+                    recentLatencyMs = latencyMs;
+                    baselineLatencyMs = latencyMs;
+                } else {
+                    recentLatencyMs += RECENT_SMOOTHING * (latencyMs - recentLatencyMs);
+                    baselineLatencyMs += BASELINE_SMOOTHING * (latencyMs - baselineLatencyMs);
+                }
+                samples++;
+            }
+            boolean spike = status == 200 && samples >= WARMUP_SAMPLES && recentLatencyMs > SPIKE_FACTOR * baselineLatencyMs;
+
+            if (overload || spike) {
+                // One cut per round trip; calls already in flight when we cut report the same congestion
+                long roundTripNanos = (long) (Math.max(baselineLatencyMs, 1000) * 1e6);
+                if (now - lastDecreaseNanos >= roundTripNanos) {
+                    lastDecreaseNanos = now;
+                    limit = Math.max(1, Math.floor(limit * (overload ? OVERLOAD_BACKOFF : LATENCY_BACKOFF)));
+                    note(overload ? (status == 0 ? "no response" : String.valueOf(status)) : "slow");
+                }
+            } else if (status == 200 && inFlight + 1 >= (int) limit && limit < maxLimit) {
+                // Grow only while the limit is what holds calls back
+                int before = (int) limit;
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+                if ((int) limit > before) {
+                    note("ok");
+                }
+            }
+        }
+        grant();
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        synchronized (this) {
+            this.maxLimit = Math.max(1, maxLimit);
+            if (limit > this.maxLimit) {
+                limit = this.maxLimit;
+                note("max");
+            }
+        }
+        grant();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaitingCount() {
+        return waiters.size();
+    }
+
+    /** Recent limit changes, oldest first, e.g. "14:02:11 6 (429)". */
+    public synchronized List<String> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    /** Compact trail of recent limits, e.g. "4 5 6 3\u2193 4", where the arrow marks a cut. */
+    public synchronized String getHistoryTrail() {
+        StringBuilder trail = new StringBuilder();
+        for (String entry : history) {
+            String[] parts = entry.split(" ", 3);
+            if (trail.length() > 0) {
+                trail.append(' ');
+            }
+            trail.append(parts[1]);
+            if (parts.length > 2 && !parts[2].equals("(ok)") && !parts[2].equals("(start)")) {
+                trail.append('\u2193');
+            }
+        }
+        return trail.toString();
+    }
+
+    private void note(String reason) {
+        if (history.size() == HISTORY_SIZE) {
+            history.poll();
+        }
+        history.add(LocalTime.now().format(TIME_FMT) + " " + (int) limit + " (" + reason + ")");
+    }
+}
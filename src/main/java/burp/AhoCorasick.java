@@ -0,0 +1,206 @@
+package burp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton: finds which of a fixed set of patterns occur in a
+ * text in a single pass, however many patterns there are. Matching ignores
+ * ASCII case. The shallowest nodes, where a scan spends most of its time,
+ * get a flat table of ASCII transitions with failures already resolved, so
+ * most characters cost one array lookup; deeper nodes keep small sorted
+ * arrays and follow failure links.
+ */
+public final class AhoCorasick {
+    private static final int[] NO_OUTPUT = new int[0];
+    // Nodes given a dense row, 512 bytes each; bounds the table for large pattern sets
+    private static final int MAX_DENSE_NODES = 1024;
+
+    // Row of node n starts at denseRow[n] * 128, or denseRow[n] is -1
+    private final int[] denseRow;
+    private final int[] dense;
+    private final char[][] keys;
+    private final int[][] next;
+    private final int[] fail;
+    private final int[][] outputs;
+    private final int patternCount;
+
+    private AhoCorasick(List<Map<Character, Integer>> trie, List<List<Integer>> ends, int patternCount) {
+        int n = trie.size();
+        this.patternCount = patternCount;
+        keys = new char[n][];
+        next = new int[n][];
+        fail = new int[n];
+        outputs = new int[n][];
+        for (int node = 0; node < n; node++) {
+            Map<Character, Integer> children = trie.get(node);
+            char[] k = new char[children.size()];
+            int i = 0;
+            for (char c : children.keySet()) {
+                k[i++] = c;
+            }
+            Arrays.sort(k);
+            int[] t = new int[k.length];
+            for (i = 0; i < k.length; i++) {
+                t[i] = children.get(k[i]);
+            }
+            keys[node] = k;
+            next[node] = t;
+        }
+
+        // Failure links breadth first; each node's outputs include those of its failure chain
+        int[] order = new int[n];
+        int visited = 0;
+        order[visited++] = 0;
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : next[0]) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+        outputs[0] = toArray(ends.get(0));
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            order[visited++] = node;
+            List<Integer> own = new ArrayList<>(ends.get(node));
+            for (int id : outputs[fail[node]]) {
+                own.add(id);
+            }
+            outputs[node] = toArray(own);
+            for (int i = 0; i < keys[node].length; i++) {
+                char c = keys[node][i];
+                int child = next[node][i];
+                int f = fail[node];
+                int target;
+                while ((target = child(f, c)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target >= 0 && target != child ? target : 0;
+                queue.add(child);
+            }
+        }
+
+        // Dense rows for the first nodes in breadth-first order; a node's failure target is
+        // shallower, so its row is already filled when the node's own row is
+        int rows = Math.min(n, MAX_DENSE_NODES);
+        denseRow = new int[n];
+        Arrays.fill(denseRow, -1);
+        dense = new int[rows * 128];
+        for (int row = 0; row < rows; row++) {
+            int node = order[row];
+            denseRow[node] = row;
+            int base = row * 128;
+            if (node != 0) {
+                System.arraycopy(dense, denseRow[fail[node]] * 128, dense, base, 128);
+            }
+            for (int i = 0; i < keys[node].length; i++) {
+                if (keys[node][i] < 128) {
+                    dense[base + keys[node][i]] = next[node][i];
+                }
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        return ids.isEmpty() ? NO_OUTPUT : ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Collects patterns; each gets the id returned by {@link #add}. */
+    public static final class Builder {
+        private final List<Map<Character, Integer>> trie = new ArrayList<>();
+        private final List<List<Integer>> ends = new ArrayList<>();
+        private int patterns = 0;
+
+        Builder() {
+            newNode();
+        }
+
+        private int newNode() {
+            trie.add(new HashMap<>());
+            ends.add(new ArrayList<>());
+            return trie.size() - 1;
+        }
+
+        /** Adds a pattern and returns its id; empty patterns never match. */
+        public int add(CharSequence pattern) {
+            int id = patterns++;
+            if (pattern.length() == 0) {
+                return id;
+            }
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = fold(pattern.charAt(i));
+                Integer child = trie.get(node).get(c);
+                if (child == null) {
+                    child = newNode();
+                    trie.get(node).put(c, child);
+                }
+                node = child;
+            }
+            ends.get(node).add(id);
+            return id;
+        }
+
+        public AhoCorasick build() {
+            return new AhoCorasick(trie, ends, patterns);
+        }
+    }
+
+    public int patternCount() {
+        return patternCount;
+    }
+
+    /** Ids of the patterns found in the first {@code maxChars} characters of {@code text}. */
+    public BitSet find(CharSequence text, int maxChars) {
+        return find(text, 0, maxChars);
+    }
+
+    /** Ids of the patterns found in up to {@code maxChars} characters of {@code text} from {@code from}. */
+    public BitSet find(CharSequence text, int from, int maxChars) {
+        BitSet found = new BitSet(patternCount);
+        int end = (int) Math.min(text.length(), (long) from + maxChars);
+        int state = 0;
+        for (int i = from; i < end; i++) {
+            state = step(state, fold(text.charAt(i)));
+            for (int id : outputs[state]) {
+                found.set(id);
+            }
+        }
+        return found;
+    }
+
+    private int step(int state, char c) {
+        while (true) {
+            int row = denseRow[state];
+            if (row >= 0 && c < 128) {
+                return dense[(row << 7) | c];
+            }
+            int target = child(state, c);
+            if (target >= 0) {
+                return target;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    private int child(int node, char c) {
+        int i = Arrays.binarySearch(keys[node], c);
+        return i < 0 ? -1 : next[node][i];
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
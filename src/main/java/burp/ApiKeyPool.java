@@ -0,0 +1,211 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The API keys configured for one provider. Each call picks the healthy key
+ * with the most quota headroom, so load spreads across keys and aggregate
+ * throughput grows with the number of keys (each key has its own rate and
+ * concurrency limiter). A key that is rate limited or rejected is put into
+ * cooldown, doubling with each consecutive failure, and skipped until it ends.
+ */
+public class ApiKeyPool {
+    private static final long RATE_LIMIT_COOLDOWN_MS = 5000;
+    private static final long REJECTED_COOLDOWN_MS = 10 * 60 * 1000;
+    private static final long MAX_COOLDOWN_MS = 60 * 60 * 1000;
+
+    /** Health and usage of one key. */
+    public static final class KeyState {
+        private final String key;
+        private long cooldownUntilMs = 0;
+        private int consecutiveFailures = 0;
+        private long calls = 0;
+        private long rateLimited = 0;
+        private long rejected = 0;
+        private long lastUsedMs = 0;
+
+        KeyState(String key) {
+            this.key = key;
+        }
+
+        public synchronized boolean isCoolingDown(long nowMs) {
+            return nowMs < cooldownUntilMs;
+        }
+
+        public synchronized long cooldownRemainingMs(long nowMs) {
+            return Math.max(0, cooldownUntilMs - nowMs);
+        }
+
+        /** "...abcd", for logs and the status panel. */
+        public String label() {
+            return ApiKeyPool.label(key);
+        }
+    }
+
+    private final String provider;
+    private final Map<String, KeyState> keys = new LinkedHashMap<>();
+
+    public ApiKeyPool(String provider, List<String> keys) {
+        this.provider = provider;
+        for (String key : keys) {
+            this.keys.putIfAbsent(key, new KeyState(key));
+        }
+    }
+
+    /**
+     * Splits a settings value into keys. Commas, whitespace and line breaks all
+     * separate keys, so one field can hold several.
+     */
+    public static List<String> parse(String value) {
+        List<String> parsed = new ArrayList<>();
+        if (value != null) {
+            for (String key : value.trim().split("[\\s,]+")) {
+                if (!key.isEmpty() && !parsed.contains(key)) {
+                    parsed.add(key);
+                }
+            }
+        }
+        return parsed;
+    }
+
+    public static String label(String key) {
+        return key == null || key.length() < 4 ? "..." : "..." + key.substring(key.length() - 4);
+    }
+
+    public String provider() {
+        return provider;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    public List<String> keys() {
+        return new ArrayList<>(keys.keySet());
+    }
+
+    /**
+     * Picks a key for the next call: among keys not in cooldown, the one with the
+     * highest {@code headroom} score, least recently used on ties. If every key is
+     * cooling down, the one whose cooldown ends first. Null if the pool is empty.
+     */
+    public String select(ToDoubleFunction<String> headroom) {
+        long now = System.currentTimeMillis();
+        KeyState best = null;
+        double bestScore = 0;
+        KeyState soonest = null;
+        for (KeyState state : keys.values()) {
+            synchronized (state) {
+                if (state.isCoolingDown(now)) {
+                    if (soonest == null || state.cooldownUntilMs < soonest.cooldownUntilMs) {
+                        soonest = state;
+                    }
+                    continue;
+                }
+                double score = headroom.applyAsDouble(state.key);
+                if (best == null || score > bestScore || (score == bestScore && state.lastUsedMs < best.lastUsedMs)) {
+                    best = state;
+                    bestScore = score;
+                }
+            }
+        }
+        KeyState chosen = best != null ? best : soonest;
+        if (chosen == null) {
+            return null;
+        }
+        synchronized (chosen) {
+            chosen.calls++;
+            chosen.lastUsedMs = now;
+        }
+        return chosen.key;
+    }
+
+    /** Whether a key other than {@code key} is available right now. */
+    public boolean hasOtherAvailableKey(String key) {
+        long now = System.currentTimeMillis();
+        return keys.values().stream().anyMatch(state -> !state.key.equals(key) && !state.isCoolingDown(now));
+    }
+
+    public void recordSuccess(String key) {
+        KeyState state = keys.get(key);
+        if (state != null) {
+            synchronized (state) {
+                state.consecutiveFailures = 0;
+            }
+        }
+    }
+
+    /**
+     * Cools a rate-limited key down for {@code serverDelayMs} if the provider
+     * said how long (0 if it did not), otherwise for a backoff that doubles with
+     * each consecutive 429.
+     */
+    public void recordRateLimited(String key, long serverDelayMs) {
+        KeyState state = keys.get(key);
+        if (state != null) {
+            synchronized (state) {
+                state.rateLimited++;
+                long backoff = RATE_LIMIT_COOLDOWN_MS << Math.min(escalate(state), 16);
+                cool(state, serverDelayMs > 0 ? serverDelayMs : backoff);
+            }
+        }
+    }
+
+    /** Cools a key down that the provider rejected (invalid, revoked, out of quota). */
+    public void recordRejected(String key) {
+        KeyState state = keys.get(key);
+        if (state != null) {
+            synchronized (state) {
+                state.rejected++;
+                cool(state, REJECTED_COOLDOWN_MS << Math.min(escalate(state), 3));
+            }
+        }
+    }
+
+    /**
+     * The failure streak to base the cooldown on. Calls that were already in
+     * flight when the key started cooling down fail too; they do not lengthen it.
+     */
+    private static int escalate(KeyState state) {
+        return state.isCoolingDown(System.currentTimeMillis()) ? Math.max(0, state.consecutiveFailures - 1) : state.consecutiveFailures++;
+    }
+
+    private static void cool(KeyState state, long durationMs) {
+        state.cooldownUntilMs = Math.max(state.cooldownUntilMs, System.currentTimeMillis() + Math.min(durationMs, MAX_COOLDOWN_MS));
+    }
+
+    public int coolingDownCount() {
+        long now = System.currentTimeMillis();
+        return (int) keys.values().stream().filter(state -> state.isCoolingDown(now)).count();
+    }
+
+    /** One line per key, e.g. "...abcd: 120 calls, 3 rate limited, cooling down 12s". */
+    public List<String> describe() {
+        long now = System.currentTimeMillis();
+        List<String> lines = new ArrayList<>();
+        for (KeyState state : keys.values()) {
+            synchronized (state) {
+                StringBuilder line = new StringBuilder(state.label()).append(": ").append(state.calls).append(" calls");
+                if (state.rateLimited > 0) {
+                    line.append(", ").append(state.rateLimited).append(" rate limited");
+                }
+                if (state.rejected > 0) {
+                    line.append(", ").append(state.rejected).append(" rejected");
+                }
+                if (state.isCoolingDown(now)) {
+                    line.append(", cooling down ").append((state.cooldownRemainingMs(now) + 999) / 1000).append('s');
+                }
+                lines.add(line.toString());
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,118 @@
+package burp;
+
+import burp.api.montoya.logging.Logging;
+
+/**
+ * Hands log lines to Burp on a single background thread, so worker threads
+ * never wait on Burp's output and error streams. Lines go into a fixed-size
+ * ring buffer; when it is full the oldest pending lines are overwritten
+ * (and counted) rather than blocking the caller.
+ */
+public class AsyncLogAppender {
+    private static final int CAPACITY = 8192;
+
+    private final Logging logging;
+    private final String[] lines = new String[CAPACITY];
+    private final boolean[] isError = new boolean[CAPACITY];
+    private final Thread writer;
+    private int head = 0;   // next line to write out
+    private int size = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    public AsyncLogAppender(Logging logging) {
+        this.logging = logging;
+        this.writer = new Thread(this::run, "AIAuditor-Log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void output(String line) {
+        append(line, false);
+    }
+
+    public void error(String line) {
+        append(line, true);
+    }
+
+    private synchronized void append(String line, boolean error) {
+        if (closed) {
+            write(line, error); // late lines during unload still reach Burp
+            return;
+        }
+        if (size == CAPACITY) {
+            head = (head + 1) % CAPACITY;
+            size--;
+            dropped++;
+        }
+        int tail = (head + size) % CAPACITY;
+        lines[tail] = line;
+        isError[tail] = error;
+        size++;
+        notifyAll();
+    }
+
+    private void run() {
+        String[] batchLines = new String[256];
+        boolean[] batchErrors = new boolean[256];
+        while (true) {
+            int count;
+            long droppedNow;
+            synchronized (this) {
+                while (size == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (size == 0) {
+                    return; // closed and drained
+                }
+                count = Math.min(size, batchLines.length);
+                for (int i = 0; i < count; i++) {
+                    batchLines[i] = lines[head];
+                    batchErrors[i] = isError[head];
+                    lines[head] = null;
+                    head = (head + 1) % CAPACITY;
+                }
+                size -= count;
+                droppedNow = dropped;
+                dropped = 0;
+                notifyAll();
+            }
+            if (droppedNow > 0) {
+                write("[log] " + droppedNow + " lines dropped because logging fell behind", true);
+            }
+            for (int i = 0; i < count; i++) {
+                write(batchLines[i], batchErrors[i]);
+                batchLines[i] = null;
+            }
+        }
+    }
+
+    private void write(String line, boolean error) {
+        try {
+            if (error) {
+                logging.logToError(line);
+            } else {
+                logging.logToOutput(line);
+            }
+        } catch (RuntimeException e) {
+            // Burp unloading the extension; nothing left to log to
+        }
+    }
+
+    /** Writes out pending lines (waiting at most a second) and stops the writer thread. */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
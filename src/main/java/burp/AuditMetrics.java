@@ -0,0 +1,560 @@
+package burp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.JSONObject;
+
+/**
+ * Counters and latency histograms for provider calls, kept per provider and
+ * model: call rate by HTTP status (429s and errors included), retries, tokens
+ * reported by the provider (input tokens served from the provider's prompt
+ * cache included), result cache lookups, and how long tasks waited
+ * for a rate-limit permit and then for a concurrency slot and a worker.
+ *
+ * The numbers are exposed as a platform MXBean and, when enabled, as
+ * Prometheus text on http://127.0.0.1:PORT/metrics for graphing long runs.
+ */
+public class AuditMetrics implements AuditMetricsMXBean {
+    public static final String OBJECT_NAME = "burp.aiauditor:type=AuditMetrics";
+
+    // Prometheus histogram bounds in seconds; the underlying histograms are finer
+    private static final double[] LATENCY_BUCKETS = {0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300};
+    private static final double[] WAIT_BUCKETS = {0.001, 0.01, 0.1, 0.5, 1, 5, 10, 30, 60, 300};
+
+    /** Everything recorded for one provider/model pair. */
+    private static class ModelStats {
+        final String provider;
+        final String model;
+        final Map<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+        final LongAdder retries = new LongAdder();
+        final LongAdder tokensIn = new LongAdder();
+        final LongAdder tokensOut = new LongAdder();
+        // Input tokens read from the provider's prompt cache, and written to it (Claude only)
+        final LongAdder tokensCacheRead = new LongAdder();
+        final LongAdder tokensCacheWrite = new LongAdder();
+        final StageProfiler.Histogram latency = new StageProfiler.Histogram();
+
+        ModelStats(String provider, String model) {
+            this.provider = provider;
+            this.model = model;
+        }
+
+        long requests() {
+            long total = 0;
+            for (LongAdder count : statusCounts.values()) {
+                total += count.sum();
+            }
+            return total;
+        }
+
+        long status(int code) {
+            LongAdder count = statusCounts.get(code);
+            return count == null ? 0 : count.sum();
+        }
+
+        long errors() {
+            return requests() - status(200);
+        }
+    }
+
+    /** Queue wait for one provider: until the rate limiter let the task go, then until it got a slot and a worker. */
+    private static class WaitStats {
+        final StageProfiler.Histogram rateLimit = new StageProfiler.Histogram();
+        final StageProfiler.Histogram executor = new StageProfiler.Histogram();
+    }
+
+    private final Map<String, ModelStats> models = new ConcurrentHashMap<>();
+    private final Map<String, WaitStats> waits = new ConcurrentHashMap<>();
+    private final StageProfiler.Histogram latency = new StageProfiler.Histogram();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+
+    private volatile ServerSocket endpoint;
+    private ObjectName registeredName;
+
+    // ---- recording --------------------------------------------------------
+
+    /**
+     * Records one provider call. {@code model} is "provider/model" as used in the
+     * model dropdown; {@code status} is the HTTP status, or 0 if no response arrived.
+     */
+    public void recordCall(String model, int status, long nanos) {
+        ModelStats stats = statsFor(model);
+        stats.statusCounts.computeIfAbsent(status, s -> new LongAdder()).increment();
+        stats.latency.record(nanos / 1000);
+        latency.record(nanos / 1000);
+    }
+
+    public void recordTokens(String model, long in, long out) {
+        ModelStats stats = statsFor(model);
+        stats.tokensIn.add(in);
+        stats.tokensOut.add(out);
+    }
+
+    /** Input tokens, already counted by {@link #recordTokens}, that the provider read from or wrote to its prompt cache. */
+    public void recordPromptCache(String model, long read, long written) {
+        ModelStats stats = statsFor(model);
+        stats.tokensCacheRead.add(read);
+        stats.tokensCacheWrite.add(written);
+    }
+
+    /**
+     * Records the token usage a provider reported in {@code response} (the
+     * non-streaming shape; streamed responses are rebuilt with their usage).
+     * Responses without usage, e.g. from some local servers, add nothing.
+     */
+    public void recordUsage(String model, String provider, JSONObject response) {
+        if (response == null) {
+            return;
+        }
+        switch (provider) {
+            case "claude": {
+                JSONObject usage = response.optJSONObject("usage");
+                if (usage != null) {
+                    recordTokens(model, usage.optLong("input_tokens") + usage.optLong("cache_creation_input_tokens")
+                            + usage.optLong("cache_read_input_tokens"), usage.optLong("output_tokens"));
+                    recordPromptCache(model, usage.optLong("cache_read_input_tokens"), usage.optLong("cache_creation_input_tokens"));
+                }
+                break;
+            }
+            case "gemini": {
+                JSONObject usage = response.optJSONObject("usageMetadata");
+                if (usage != null) {
+                    recordTokens(model, usage.optLong("promptTokenCount"), usage.optLong("candidatesTokenCount"));
+                    recordPromptCache(model, usage.optLong("cachedContentTokenCount"), 0);
+                }
+                break;
+            }
+            default: {
+                JSONObject usage = response.optJSONObject("usage");
+                if (usage != null) {
+                    recordTokens(model, usage.optLong("prompt_tokens"), usage.optLong("completion_tokens"));
+                    JSONObject details = usage.optJSONObject("prompt_tokens_details");
+                    if (details != null) {
+                        recordPromptCache(model, details.optLong("cached_tokens"), 0);
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    public void recordRetry(String model) {
+        statsFor(model).retries.increment();
+    }
+
+    public void recordCacheLookup(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    public void recordQueueWait(String provider, long rateLimitNanos, long executorNanos) {
+        WaitStats stats = waits.computeIfAbsent(provider, p -> new WaitStats());
+        stats.rateLimit.record(rateLimitNanos / 1000);
+        stats.executor.record(executorNanos / 1000);
+    }
+
+    /** A hedge was sent because the first call took longer than that model's usual p95. */
+    public void recordHedgeSent() {
+        hedges.increment();
+    }
+
+    /** A hedge answered before the call it was hedging. */
+    public void recordHedgeWon() {
+        hedgeWins.increment();
+    }
+
+    /** A call moved on to the next model of the failover chain. */
+    public void recordFailover() {
+        failovers.increment();
+    }
+
+    /**
+     * Latency percentile of one model's calls in milliseconds, or -1 while
+     * fewer than {@code minSamples} calls were recorded for it.
+     */
+    public double latencyPercentileMillis(String model, double p, long minSamples) {
+        ModelStats stats = models.get(model);
+        if (stats == null || stats.latency.count() < minSamples) {
+            return -1;
+        }
+        return stats.latency.percentile(p) / 1000.0;
+    }
+
+    /**
+     * Mean output tokens per successful call of one model, or -1 while fewer
+     * than {@code minSamples} successful calls were recorded for it.
+     */
+    public double meanOutputTokens(String model, long minSamples) {
+        ModelStats stats = models.get(model);
+        long calls = stats == null ? 0 : stats.status(200);
+        if (calls < minSamples) {
+            return -1;
+        }
+        return (double) stats.tokensOut.sum() / calls;
+    }
+
+    private ModelStats statsFor(String model) {
+        return models.computeIfAbsent(model, m -> {
+            String[] parts = m.split("/", 2);
+            return parts.length == 2 ? new ModelStats(parts[0], parts[1]) : new ModelStats("other", m);
+        });
+    }
+
+    // ---- MXBean -----------------------------------------------------------
+
+    private long sum(ToLongFunction<ModelStats> value) {
+        long total = 0;
+        for (ModelStats stats : models.values()) {
+            total += value.applyAsLong(stats);
+        }
+        return total;
+    }
+
+    private Map<String, Long> byModel(ToLongFunction<ModelStats> value) {
+        Map<String, Long> result = new TreeMap<>();
+        models.forEach((model, stats) -> result.put(model, value.applyAsLong(stats)));
+        return result;
+    }
+
+    private StageProfiler.Histogram mergedWait(boolean rateLimit) {
+        StageProfiler.Histogram merged = new StageProfiler.Histogram();
+        for (WaitStats stats : waits.values()) {
+            merged.add(rateLimit ? stats.rateLimit : stats.executor);
+        }
+        return merged;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return sum(ModelStats::requests);
+    }
+
+    @Override
+    public long getErrorCount() {
+        return sum(ModelStats::errors);
+    }
+
+    @Override
+    public long getRateLimitedCount() {
+        return sum(stats -> stats.status(429));
+    }
+
+    @Override
+    public long getRetryCount() {
+        return sum(stats -> stats.retries.sum());
+    }
+
+    @Override
+    public long getTokensIn() {
+        return sum(stats -> stats.tokensIn.sum());
+    }
+
+    @Override
+    public long getTokensOut() {
+        return sum(stats -> stats.tokensOut.sum());
+    }
+
+    @Override
+    public long getPromptCacheReadTokens() {
+        return sum(stats -> stats.tokensCacheRead.sum());
+    }
+
+    @Override
+    public long getPromptCacheWriteTokens() {
+        return sum(stats -> stats.tokensCacheWrite.sum());
+    }
+
+    @Override
+    public double getPromptCacheHitRatio() {
+        long in = getTokensIn();
+        return in == 0 ? 0 : (double) getPromptCacheReadTokens() / in;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    @Override
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public long getFailoverCount() {
+        return failovers.sum();
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return latency.percentile(0.50) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return latency.percentile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getRateLimitWaitP99Millis() {
+        return mergedWait(true).percentile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getQueueWaitP50Millis() {
+        return mergedWait(false).percentile(0.50) / 1000.0;
+    }
+
+    @Override
+    public double getQueueWaitP99Millis() {
+        return mergedWait(false).percentile(0.99) / 1000.0;
+    }
+
+    @Override
+    public Map<String, Long> getRequestsByModel() {
+        return byModel(ModelStats::requests);
+    }
+
+    @Override
+    public Map<String, Long> getRateLimitedByModel() {
+        return byModel(stats -> stats.status(429));
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByModel() {
+        return byModel(ModelStats::errors);
+    }
+
+    @Override
+    public Map<String, Long> getTokensInByModel() {
+        return byModel(stats -> stats.tokensIn.sum());
+    }
+
+    @Override
+    public Map<String, Long> getTokensOutByModel() {
+        return byModel(stats -> stats.tokensOut.sum());
+    }
+
+    @Override
+    public Map<String, Long> getPromptCacheReadTokensByModel() {
+        return byModel(stats -> stats.tokensCacheRead.sum());
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP99MillisByModel() {
+        Map<String, Double> result = new TreeMap<>();
+        models.forEach((model, stats) -> result.put(model, stats.latency.percentile(0.99) / 1000.0));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        models.clear();
+        waits.clear();
+        latency.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        hedges.reset();
+        hedgeWins.reset();
+        failovers.reset();
+    }
+
+    /** Registers the MXBean, replacing one left behind by a previous load of the extension. */
+    public synchronized void registerMBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+        registeredName = name;
+    }
+
+    public synchronized void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (Exception e) {
+            // already gone
+        }
+        registeredName = null;
+    }
+
+    // ---- Prometheus -------------------------------------------------------
+
+    /** The current values in the Prometheus text exposition format (version 0.0.4). */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        header(out, "ai_auditor_requests_total", "counter", "Provider calls by HTTP status (0 = no response)");
+        for (ModelStats stats : models.values()) {
+            for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(stats.statusCounts).entrySet()) {
+                sample(out, "ai_auditor_requests_total", labels(stats) + ",status=\"" + status.getKey() + "\"",
+                        status.getValue().sum());
+            }
+        }
+        header(out, "ai_auditor_retries_total", "counter", "Provider calls retried after a failure");
+        for (ModelStats stats : models.values()) {
+            sample(out, "ai_auditor_retries_total", labels(stats), stats.retries.sum());
+        }
+        header(out, "ai_auditor_tokens_total", "counter", "Tokens reported in provider usage fields");
+        for (ModelStats stats : models.values()) {
+            sample(out, "ai_auditor_tokens_total", labels(stats) + ",direction=\"in\"", stats.tokensIn.sum());
+            sample(out, "ai_auditor_tokens_total", labels(stats) + ",direction=\"out\"", stats.tokensOut.sum());
+        }
+        header(out, "ai_auditor_prompt_cache_tokens_total", "counter",
+                "Input tokens the provider read from (op=read) or wrote to (op=write) its prompt cache; part of direction=in");
+        for (ModelStats stats : models.values()) {
+            sample(out, "ai_auditor_prompt_cache_tokens_total", labels(stats) + ",op=\"read\"", stats.tokensCacheRead.sum());
+            sample(out, "ai_auditor_prompt_cache_tokens_total", labels(stats) + ",op=\"write\"", stats.tokensCacheWrite.sum());
+        }
+        header(out, "ai_auditor_cache_lookups_total", "counter", "Result cache lookups");
+        sample(out, "ai_auditor_cache_lookups_total", "result=\"hit\"", cacheHits.sum());
+        sample(out, "ai_auditor_cache_lookups_total", "result=\"miss\"", cacheMisses.sum());
+
+        header(out, "ai_auditor_hedges_total", "counter", "Hedged calls sent after the p95 delay, and how many answered first");
+        sample(out, "ai_auditor_hedges_total", "result=\"sent\"", hedges.sum());
+        sample(out, "ai_auditor_hedges_total", "result=\"won\"", hedgeWins.sum());
+        header(out, "ai_auditor_failovers_total", "counter", "Calls moved on to the next model of the failover chain");
+        out.append("ai_auditor_failovers_total ").append(failovers.sum()).append('\n');
+
+        header(out, "ai_auditor_request_duration_seconds", "histogram", "Provider call latency, retries counted separately");
+        for (ModelStats stats : models.values()) {
+            histogram(out, "ai_auditor_request_duration_seconds", labels(stats), stats.latency, LATENCY_BUCKETS);
+        }
+        header(out, "ai_auditor_queue_wait_seconds", "histogram",
+                "Time a task waited for a rate-limit permit (phase=rate_limit), then for a concurrency slot and a worker (phase=executor)");
+        for (Map.Entry<String, WaitStats> wait : new TreeMap<>(waits).entrySet()) {
+            String provider = "provider=\"" + escape(wait.getKey()) + "\"";
+            histogram(out, "ai_auditor_queue_wait_seconds", provider + ",phase=\"rate_limit\"",
+                    wait.getValue().rateLimit, WAIT_BUCKETS);
+            histogram(out, "ai_auditor_queue_wait_seconds", provider + ",phase=\"executor\"",
+                    wait.getValue().executor, WAIT_BUCKETS);
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels,
+                                  StageProfiler.Histogram histogram, double[] bounds) {
+        for (double bound : bounds) {
+            out.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+               .append(histogram.countAtOrBelow((long) (bound * 1_000_000))).append('\n');
+        }
+        long count = histogram.count();
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(histogram.sum() / 1e6).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+    }
+
+    private static String labels(ModelStats stats) {
+        return "provider=\"" + escape(stats.provider) + "\",model=\"" + escape(stats.model) + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Serves {@link #toPrometheus()} on 127.0.0.1:{@code port} from a daemon
+     * thread, replacing an endpoint already running on another port.
+     */
+    public synchronized void startEndpoint(int port) throws IOException {
+        ServerSocket current = endpoint;
+        if (current != null && !current.isClosed() && current.getLocalPort() == port) {
+            return;
+        }
+        stopEndpoint();
+        ServerSocket server = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        endpoint = server;
+        Thread thread = new Thread(() -> serve(server), "AIAuditor-Metrics");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stopEndpoint() {
+        ServerSocket current = endpoint;
+        endpoint = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    public boolean isEndpointRunning() {
+        ServerSocket current = endpoint;
+        return current != null && !current.isClosed();
+    }
+
+    private void serve(ServerSocket server) {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(2000);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                String requestLine = in.readLine();
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    // Drain the headers; scrapers send no body with GET
+                }
+                boolean metrics = requestLine != null && requestLine.startsWith("GET /metrics");
+                byte[] body = (metrics ? toPrometheus() : "Not found\n").getBytes(StandardCharsets.UTF_8);
+                String head = (metrics ? "HTTP/1.1 200 OK" : "HTTP/1.1 404 Not Found") + "\r\n"
+                        + "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "Connection: close\r\n\r\n";
+                OutputStream out = socket.getOutputStream();
+                out.write(head.getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+            } catch (SocketTimeoutException e) {
+                // client went quiet; drop it
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+            }
+        }
+    }
+}
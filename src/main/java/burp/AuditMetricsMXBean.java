@@ -0,0 +1,66 @@
+package burp;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link AuditMetrics}, registered as {@value AuditMetrics#OBJECT_NAME}
+ * on the platform MBean server so long audit campaigns can be watched with
+ * JConsole, VisualVM or a JMX exporter. Per-model maps are keyed "provider/model".
+ */
+public interface AuditMetricsMXBean {
+
+    long getRequestCount();
+
+    long getErrorCount();
+
+    long getRateLimitedCount();
+
+    long getRetryCount();
+
+    long getTokensIn();
+
+    long getTokensOut();
+
+    long getPromptCacheReadTokens();
+
+    long getPromptCacheWriteTokens();
+
+    /** Share of input tokens read from the providers' prompt caches. */
+    double getPromptCacheHitRatio();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getHedgeCount();
+
+    long getHedgeWinCount();
+
+    long getFailoverCount();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP99Millis();
+
+    double getRateLimitWaitP99Millis();
+
+    double getQueueWaitP50Millis();
+
+    double getQueueWaitP99Millis();
+
+    Map<String, Long> getRequestsByModel();
+
+    Map<String, Long> getRateLimitedByModel();
+
+    Map<String, Long> getErrorsByModel();
+
+    Map<String, Long> getTokensInByModel();
+
+    Map<String, Long> getTokensOutByModel();
+
+    Map<String, Long> getPromptCacheReadTokensByModel();
+
+    Map<String, Double> getLatencyP99MillisByModel();
+
+    void reset();
+}
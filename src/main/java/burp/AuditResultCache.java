@@ -0,0 +1,253 @@
+package burp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk-backed, content-addressed cache of raw provider responses. Entries are
+ * keyed by a SHA-256 of (model, prompt, chunk), so rescanning the same content
+ * with the same model and prompt is answered locally without a provider call.
+ *
+ * Entries older than the maximum age are dropped on lookup, and the least
+ * recently used entries are evicted once the total size exceeds the limit.
+ * Only the in-memory index is guarded by the lock; files are read, written
+ * (to a temp file, then moved into place atomically) and deleted outside it,
+ * so workers do not queue behind each other's disk I/O.
+ */
+public class AuditResultCache {
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final long DEFAULT_MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    private static final String SUFFIX = ".json";
+
+    private static class Entry {
+        final long size;
+        final long createdMs;
+
+        Entry(long size, long createdMs) {
+            this.size = size;
+            this.createdMs = createdMs;
+        }
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxAgeMs;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public AuditResultCache() {
+        this(Paths.get(System.getProperty("user.home"), ".ai-auditor", "cache"), DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MS);
+    }
+
+    public AuditResultCache(Path directory, long maxBytes, long maxAgeMs) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+        loadIndex();
+    }
+
+    /** Builds the cache key for a model, prompt and content chunk. */
+    public static String key(String model, String prompt, String chunk) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{model, prompt, chunk}) {
+                digest.update((part == null ? "" : part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0); // separator so ("ab","c") and ("a","bc") differ
+            }
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /** Returns the cached raw response for the key, or null on a miss. */
+    public String get(String key) {
+        Entry entry;
+        boolean expired = false;
+        synchronized (this) {
+            entry = index.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.createdMs > maxAgeMs) {
+                expired = unindex(key, entry);
+            }
+        }
+        if (entry == null || expired) {
+            if (expired) {
+                deleteQuietly(pathFor(key));
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            String content = Files.readString(pathFor(key), StandardCharsets.UTF_8);
+            hits.incrementAndGet();
+            return content;
+        } catch (IOException e) {
+            boolean dropped;
+            synchronized (this) {
+                dropped = unindex(key, entry);
+            }
+            if (dropped) {
+                deleteQuietly(pathFor(key));
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /** Stores a raw response, evicting least recently used entries if the cache is over its size limit. */
+    public void put(String key, String rawResponse) {
+        if (rawResponse == null) {
+            return;
+        }
+        byte[] bytes = rawResponse.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, pathFor(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            return; // caching is best-effort
+        }
+
+        List<String> evicted;
+        synchronized (this) {
+            Entry previous = index.put(key, new Entry(bytes.length, System.currentTimeMillis()));
+            if (previous != null) {
+                totalBytes -= previous.size;
+            }
+            totalBytes += bytes.length;
+            evicted = evict();
+        }
+        deleteFiles(evicted);
+    }
+
+    public void clear() {
+        List<String> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(index.keySet());
+            index.clear();
+            totalBytes = 0;
+        }
+        deleteFiles(keys);
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public synchronized int entryCount() {
+        return index.size();
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    /** Drops least recently used entries from the index until it fits; returns their keys, whose files the caller deletes. */
+    private List<String> evict() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            totalBytes -= eldest.getValue().size;
+            evicted.add(eldest.getKey());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    /** Drops an expired or unreadable entry unless a newer put already replaced it; true if it was dropped. */
+    private boolean unindex(String key, Entry entry) {
+        if (!index.remove(key, entry)) {
+            return false;
+        }
+        totalBytes -= entry.size;
+        return true;
+    }
+
+    private void deleteFiles(List<String> keys) {
+        for (String key : keys) {
+            deleteQuietly(pathFor(key));
+        }
+    }
+
+    private void loadIndex() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            return;
+        }
+
+        // Oldest first, so the access order of the index matches file age after a restart
+        files.sort(Comparator.comparing(AuditResultCache::lastModified));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                long size = Files.size(file);
+                index.put(name.substring(0, name.length() - SUFFIX.length()),
+                        new Entry(size, lastModified(file).toMillis()));
+                totalBytes += size;
+            } catch (IOException e) {
+                // unreadable entry, skip it
+            }
+        }
+        deleteFiles(evict());
+    }
+
+    private Path pathFor(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
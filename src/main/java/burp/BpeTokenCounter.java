@@ -0,0 +1,208 @@
+package burp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Exact byte-pair-encoding token counter for a tiktoken vocabulary
+ * ({@code .tiktoken} files: one "base64-token rank" pair per line).
+ *
+ * Counting only needs the number of tokens, not the token ids, so the encoder
+ * works on a reusable UTF-8 buffer and looks ranks up by byte range in an
+ * open-addressing table; nothing is allocated per token. Most pre-tokenized
+ * pieces are whole vocabulary entries and cost a single lookup.
+ */
+public class BpeTokenCounter implements TokenCounter {
+    // Pieces longer than this are counted in windows; BPE merging is quadratic in piece length
+    private static final int MAX_PIECE_BYTES = 256;
+
+    static final Pattern CL100K_PATTERN = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+    static final Pattern O200K_PATTERN = Pattern.compile(
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    private final String name;
+    private final Pattern pretokenizer;
+    private final RankTable ranks;
+
+    public BpeTokenCounter(String name, InputStream tiktoken, Pattern pretokenizer) throws IOException {
+        this.name = name;
+        this.pretokenizer = pretokenizer;
+        this.ranks = RankTable.load(tiktoken);
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int count(CharSequence text) {
+        return encode(text, null);
+    }
+
+    /** The token ids of {@code text}, for checking the vocabulary against known encodings. */
+    int[] encode(CharSequence text) {
+        List<Integer> ids = new ArrayList<>();
+        encode(text, ids);
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** Counts the tokens of {@code text}; with {@code ids}, also adds each token's rank to it. */
+    private int encode(CharSequence text, List<Integer> ids) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        byte[] buffer = new byte[MAX_PIECE_BYTES + 4];
+        int[] parts = new int[MAX_PIECE_BYTES + 4];
+        int total = 0;
+        Matcher m = pretokenizer.matcher(text);
+        while (m.find()) {
+            int pos = m.start();
+            int end = m.end();
+            while (pos < end) {
+                // Encode up to MAX_PIECE_BYTES of the piece, never splitting a surrogate pair
+                int len = 0;
+                while (pos < end && len < MAX_PIECE_BYTES) {
+                    char c = text.charAt(pos++);
+                    if (c < 0x80) {
+                        buffer[len++] = (byte) c;
+                    } else if (c < 0x800) {
+                        buffer[len++] = (byte) (0xC0 | (c >> 6));
+                        buffer[len++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && pos < end && Character.isLowSurrogate(text.charAt(pos))) {
+                        int cp = Character.toCodePoint(c, text.charAt(pos++));
+                        buffer[len++] = (byte) (0xF0 | (cp >> 18));
+                        buffer[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        buffer[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        buffer[len++] = (byte) (0x80 | (cp & 0x3F));
+                    } else {
+                        buffer[len++] = (byte) (0xE0 | (c >> 12));
+                        buffer[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        buffer[len++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                }
+                int tokens = countPiece(buffer, len, parts);
+                total += tokens;
+                if (ids != null) {
+                    for (int i = 0; i < tokens; i++) {
+                        int start = tokens == 1 ? 0 : parts[i];
+                        int stop = tokens == 1 ? len : parts[i + 1];
+                        ids.add(ranks.get(buffer, start, stop - start));
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    /** Tokens in one piece; when more than one, {@code parts[0..n]} holds their start offsets and the end. */
+    private int countPiece(byte[] piece, int len, int[] parts) {
+        if (ranks.get(piece, 0, len) >= 0) {
+            return 1;
+        }
+        if (parts.length < len + 1) {
+            parts = new int[len + 1];
+        }
+        // parts[i] is the start offset of the i-th token; starts as single bytes
+        int n = len;
+        for (int i = 0; i <= len; i++) {
+            parts[i] = i;
+        }
+        while (n > 1) {
+            int bestRank = Integer.MAX_VALUE;
+            int bestIndex = -1;
+            for (int i = 0; i + 1 < n; i++) {
+                int rank = ranks.get(piece, parts[i], parts[i + 2] - parts[i]);
+                if (rank >= 0 && rank < bestRank) {
+                    bestRank = rank;
+                    bestIndex = i;
+                }
+            }
+            if (bestIndex < 0) {
+                break;
+            }
+            System.arraycopy(parts, bestIndex + 2, parts, bestIndex + 1, n - bestIndex - 1);
+            n--;
+        }
+        return n;
+    }
+
+    /** Open-addressing map from byte sequences to ranks, queried by range without copying. */
+    private static final class RankTable {
+        private final byte[][] keys;
+        private final int[] values;
+        private final int mask;
+
+        private RankTable(int capacity) {
+            int size = Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1;
+            keys = new byte[size][];
+            values = new int[size];
+            mask = size - 1;
+        }
+
+        static RankTable load(InputStream in) throws IOException {
+            List<byte[]> tokens = new ArrayList<>();
+            List<Integer> rankList = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+                String line;
+                Base64.Decoder decoder = Base64.getDecoder();
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (space <= 0) {
+                        continue;
+                    }
+                    tokens.add(decoder.decode(line.substring(0, space)));
+                    rankList.add(Integer.parseInt(line.substring(space + 1).trim()));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Malformed tiktoken vocabulary: " + e.getMessage(), e);
+            }
+            RankTable table = new RankTable(tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                table.put(tokens.get(i), rankList.get(i));
+            }
+            return table;
+        }
+
+        private void put(byte[] key, int value) {
+            int slot = hash(key, 0, key.length) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        int get(byte[] buf, int off, int len) {
+            int slot = hash(buf, off, len) & mask;
+            byte[] key;
+            while ((key = keys[slot]) != null) {
+                if (key.length == len && Arrays.equals(key, 0, len, buf, off, off + len)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int hash(byte[] buf, int off, int len) {
+            int h = 0x811C9DC5;
+            for (int i = off; i < off + len; i++) {
+                h = (h ^ buf[i]) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
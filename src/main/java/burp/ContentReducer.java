@@ -0,0 +1,345 @@
+package burp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Removes content that costs tokens without helping the audit, before the
+ * message is chunked. Applied to each HTTP message separately:
+ *
+ * - binary bodies (by Content-Type or by a high share of control bytes) are
+ *   replaced by a one-line placeholder;
+ * - base64 data: URIs and very long base64 and hex runs (embedded images,
+ *   blobs) are collapsed to a placeholder with their length and first
+ *   characters. JWTs and values of credential-like keys are kept, since
+ *   those are exactly what the audit should see;
+ * - well-known library files (jQuery, React, Bootstrap, ...) are replaced by
+ *   their name and version, which is all the model needs to flag an outdated
+ *   library. A body whose hash is listed in ~/.ai-auditor/known-libraries.txt
+ *   ("sha256 name" per line) is elided whole. A license banner alone only
+ *   elides the library's own segment: up to its source map comment or the
+ *   next banner, or the whole body if its size fits that library.
+ *
+ * Headers are never changed.
+ */
+public class ContentReducer {
+    private static final int MIN_DATA_URI_RUN = 200;
+    private static final int MIN_BASE64_RUN = 2048;
+    private static final int MIN_HEX_RUN = 2048;
+    private static final int BINARY_SAMPLE = 4096;
+    private static final int KEY_LOOKBEHIND = 64;
+
+    // The payload of data:image/png;base64,... (the media type is kept)
+    private static final Pattern DATA_URI = Pattern.compile("(?<=;base64,)[A-Za-z0-9+/]{" + MIN_DATA_URI_RUN + ",}={0,2}");
+    private static final Pattern BASE64_RUN = Pattern.compile("[A-Za-z0-9+/_\\-]{" + MIN_BASE64_RUN + ",}={0,2}");
+    private static final Pattern HEX_RUN = Pattern.compile("(?:[0-9a-fA-F]{2}[:\\s]?){" + (MIN_HEX_RUN / 2) + ",}");
+    // "access_token": ", password=, "X-Api-Key: Bearer , client_secret='
+    private static final Pattern CREDENTIAL_KEY = Pattern.compile(
+            "(?i)(?:token|secret|passw(?:or)?d|pwd|api[_-]?key|private[_-]?key|auth(?:orization)?|session(?:[_-]?id)?|cookie|credentials?"
+            + "|signature|jwt|bearer|assertion|ticket|nonce)[\"']?\\s*[:=]\\s*[\"']?(?:Bearer\\s+|Basic\\s+)?\\z");
+    private static final String SOURCE_MAP_COMMENT = "//# sourceMappingURL=";
+    private static final Pattern CONTENT_TYPE = Pattern.compile("(?im)^content-type:\\s*([^;\\r\\n]+)");
+    // "/*! jQuery v3.6.0 | (c) OpenJS Foundation", "/** @license React v18.2.0", "* Bootstrap v5.3.2 (https://getbootstrap.com/)"
+    private static final Pattern LIBRARY_BANNER = Pattern.compile(
+            "\\A\\s*/[*]{1,2}!?[\\s*]*(?:@license\\s+)?"
+            + "((?i:jquery(?:[ .-]ui)?|react(?:-dom)?|angular(?:js)?|vue(?:\\.js)?|bootstrap|lodash|underscore|moment(?:\\.js)?"
+            + "|d3|backbone|ember|knockout|handlebars|axios|popper(?:\\.js)?|chart\\.js|three\\.js|core-js|zone\\.js|swiper|select2))"
+            + "[\\s,]+(?:JavaScript Library\\s+)?v?(\\d+\\.\\d+(?:\\.\\d+)?[\\w.-]*)");
+    private static final String[] BINARY_TYPES = {
+            "image/", "audio/", "video/", "font/", "application/octet-stream", "application/pdf", "application/zip",
+            "application/gzip", "application/x-protobuf", "application/wasm", "application/vnd.ms-fontobject",
+            "application/x-font", "application/font"
+    };
+
+    /** A reduced message and how much it shrank. */
+    public static class Result {
+        public final String content;
+        public final int originalChars;
+        public final int elisions;
+
+        Result(String content, int originalChars, int elisions) {
+            this.content = content;
+            this.originalChars = originalChars;
+            this.elisions = elisions;
+        }
+
+        public int savedChars() {
+            return originalChars - content.length();
+        }
+    }
+
+    private final Map<String, String> knownLibraries = new ConcurrentHashMap<>();
+    private final AtomicLong savedChars = new AtomicLong();
+    private final AtomicLong savedTokens = new AtomicLong();
+
+    public ContentReducer() {
+        loadKnownLibraries(Paths.get(System.getProperty("user.home"), ".ai-auditor", "known-libraries.txt"));
+    }
+
+    private void loadKnownLibraries(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                String[] parts = line.trim().split("\\s+", 2);
+                if (parts.length == 2 && parts[0].matches("[0-9a-fA-F]{64}")) {
+                    knownLibraries.put(parts[0].toLowerCase(Locale.ROOT), parts[1]);
+                }
+            }
+        } catch (IOException e) {
+            // optional file
+        }
+    }
+
+    /** Reduces one HTTP message (head, blank line, body). */
+    public Result reduce(String message) {
+        if (message == null || message.isEmpty()) {
+            return new Result(message == null ? "" : message, 0, 0);
+        }
+        int bodyStart = bodyOffset(message);
+        if (bodyStart < 0 || bodyStart >= message.length()) {
+            return new Result(message, message.length(), 0);
+        }
+        String head = message.substring(0, bodyStart);
+        String body = message.substring(bodyStart);
+
+        String contentType = "";
+        Matcher ct = CONTENT_TYPE.matcher(head);
+        if (ct.find()) {
+            contentType = ct.group(1).trim().toLowerCase(Locale.ROOT);
+        }
+
+        if (isBinary(contentType, body)) {
+            String placeholder = "[binary body elided: " + body.length() + " bytes"
+                    + (contentType.isEmpty() ? "" : ", " + contentType) + "]";
+            return new Result(head + placeholder, message.length(), 1);
+        }
+
+        int[] elisions = {0};
+        String prefix = "";
+        LibrarySegment library = knownLibrary(body);
+        if (library != null) {
+            prefix = "[known library elided: " + library.name + ", " + library.end + " bytes]";
+            elisions[0]++;
+            if (library.end >= body.length()) {
+                return new Result(head + prefix, message.length(), elisions[0]);
+            }
+            prefix += "\n";
+            body = body.substring(library.end);
+        }
+
+        String reduced = collapse(body, DATA_URI, "base64", elisions);
+        reduced = collapse(reduced, BASE64_RUN, "base64", elisions);
+        reduced = collapse(reduced, HEX_RUN, "hex", elisions);
+        return new Result(head + prefix + reduced, message.length(), elisions[0]);
+    }
+
+    /** Adds a reduction to the running totals shown in the UI. */
+    public void record(Result result, int tokensSaved) {
+        savedChars.addAndGet(result.savedChars());
+        savedTokens.addAndGet(Math.max(0, tokensSaved));
+    }
+
+    public long savedChars() {
+        return savedChars.get();
+    }
+
+    public long savedTokens() {
+        return savedTokens.get();
+    }
+
+    private static int bodyOffset(String message) {
+        int crlf = message.indexOf("\r\n\r\n");
+        int lf = message.indexOf("\n\n");
+        if (crlf >= 0 && (lf < 0 || crlf <= lf)) {
+            return crlf + 4;
+        }
+        return lf >= 0 ? lf + 2 : -1;
+    }
+
+    private static boolean isBinary(String contentType, String body) {
+        for (String type : BINARY_TYPES) {
+            if (contentType.startsWith(type)) {
+                return !contentType.equals("image/svg+xml");
+            }
+        }
+        // Text bodies have almost no control characters; binary ones decoded as text have many
+        int sample = Math.min(body.length(), BINARY_SAMPLE);
+        int control = 0;
+        for (int i = 0; i < sample; i++) {
+            char c = body.charAt(i);
+            if ((c < 0x20 && c != '\n' && c != '\r' && c != '\t') || c == 0xFFFD) {
+                control++;
+            }
+        }
+        return sample > 0 && control * 10 > sample;
+    }
+
+    /** The leading part of a body that is a known library: its name and version, and where it ends. */
+    private static class LibrarySegment {
+        final String name;
+        final int end;
+
+        LibrarySegment(String name, int end) {
+            this.name = name;
+            this.end = end;
+        }
+    }
+
+    private LibrarySegment knownLibrary(String body) {
+        String hash = sha256(body);
+        String known = knownLibraries.get(hash);
+        if (known != null) {
+            return new LibrarySegment(known, body.length());
+        }
+        Matcher banner = LIBRARY_BANNER.matcher(body);
+        if (!banner.lookingAt()) {
+            return null;
+        }
+        String name = banner.group(1) + " " + banner.group(2);
+        // A bundle can put application code after the library: stop at the library's own end if it is marked
+        int end = segmentEnd(body, banner.end());
+        if (end < body.length() && !body.substring(end).isBlank()) {
+            return new LibrarySegment(name, end);
+        }
+        if (body.length() > maxLibrarySize(banner.group(1))) {
+            return null; // too large to be just this library
+        }
+        // Later copies of the same file are matched by hash without running the pattern
+        knownLibraries.put(hash, name);
+        return new LibrarySegment(name, body.length());
+    }
+
+    /** End of the library that starts the body: after its source map comment, or at the next license banner. */
+    private static int segmentEnd(String body, int from) {
+        int end = body.length();
+        int sourceMap = body.indexOf(SOURCE_MAP_COMMENT, from);
+        if (sourceMap >= 0) {
+            int lineEnd = body.indexOf('\n', sourceMap);
+            end = lineEnd < 0 ? body.length() : lineEnd + 1;
+        }
+        int nextBanner = body.indexOf("/*!", from);
+        return nextBanner >= 0 ? Math.min(end, nextBanner) : end;
+    }
+
+    /** Upper bound on the size of one file of the library, unminified and with its bundled extras. */
+    private static int maxLibrarySize(String library) {
+        String name = library.toLowerCase(Locale.ROOT).replaceAll("[ .-]", "");
+        switch (name) {
+            case "underscore":
+            case "backbone":
+            case "popperjs":
+            case "popper":
+                return 128 * 1024;
+            case "react":
+            case "axios":
+            case "zonejs":
+            case "handlebars":
+            case "select2":
+                return 256 * 1024;
+            case "jquery":
+            case "bootstrap":
+            case "knockout":
+            case "momentjs":
+            case "moment":
+            case "swiper":
+            case "corejs":
+                return 512 * 1024;
+            case "jqueryui":
+            case "lodash":
+            case "vue":
+            case "vuejs":
+            case "d3":
+            case "chartjs":
+                return 768 * 1024;
+            default:
+                // react-dom, angular, ember, three.js development builds
+                return 2 * 1024 * 1024;
+        }
+    }
+
+    private static String collapse(String text, Pattern run, String kind, int[] elisions) {
+        Matcher m = run.matcher(text);
+        if (!m.find()) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        int last = 0;
+        do {
+            String blob = m.group();
+            if (!looksEncoded(blob) || isToken(text, m.start(), m.end())) {
+                continue; // a long plain word or identifier, or a credential the audit should see
+            }
+            sb.append(text, last, m.start());
+            sb.append("[").append(kind).append(" blob elided: ").append(blob.length())
+              .append(" chars, starts ").append(blob, 0, 16).append("]");
+            last = m.end();
+            elisions[0]++;
+        } while (m.find());
+        sb.append(text, last, text.length());
+        return sb.toString();
+    }
+
+    /** A JWT segment, or the value of a credential-like key ("token": "...", password=...). */
+    private static boolean isToken(String text, int start, int end) {
+        boolean dotBefore = start > 0 && text.charAt(start - 1) == '.';
+        boolean dotAfter = end < text.length() && text.charAt(end) == '.';
+        // header.payload.signature: header and payload are JSON, so they start with eyJ ({" in base64url)
+        if ((dotBefore || dotAfter) && text.startsWith("eyJ", start)) {
+            return true;
+        }
+        if (dotBefore) {
+            int segment = start - 1;
+            while (segment > 0 && isBase64Url(text.charAt(segment - 1))) {
+                segment--;
+            }
+            if (text.startsWith("eyJ", segment)) {
+                return true;
+            }
+        }
+        return CREDENTIAL_KEY.matcher(text.substring(Math.max(0, start - KEY_LOOKBEHIND), start)).find();
+    }
+
+    private static boolean isBase64Url(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+
+    private static boolean looksEncoded(String blob) {
+        boolean digit = false;
+        boolean letter = false;
+        for (int i = 0; i < blob.length() && !(digit && letter); i++) {
+            char c = blob.charAt(i);
+            digit |= c >= '0' && c <= '9';
+            letter |= Character.isLetter(c);
+        }
+        return digit && letter;
+    }
+
+    private static String sha256(String body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(body.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
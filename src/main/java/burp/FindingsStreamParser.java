@@ -0,0 +1,257 @@
+package burp;
+
+import java.util.function.Consumer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Incremental parser for the {"findings": [ {...}, {...} ]} document the
+ * prompt asks the model to return. Text can be fed in arbitrary pieces (for
+ * example streamed deltas); each finding object is handed to the sink as soon
+ * as its closing brace arrives, without waiting for the rest of the document.
+ * Only the finding being read is buffered, never the whole document.
+ *
+ * Anything outside the findings array (markdown fences, prose) is skipped, as
+ * are <think>...</think> reasoning blocks, so a "findings" key quoted inside
+ * the model's reasoning is not mistaken for the answer. If the input ends in
+ * the middle of a finding, {@link #finish()} recovers what it can of it.
+ */
+public class FindingsStreamParser {
+    private static final String FINDINGS_KEY = "\"findings\"";
+    private static final String THINK_OPEN = "<think>";
+    private static final String THINK_CLOSE = "</think>";
+    /** A single finding larger than this is dropped instead of buffered. */
+    private static final int MAX_FINDING_CHARS = 1024 * 1024;
+
+    private enum State { SEEK_KEY, SEEK_ARRAY, IN_ARRAY, IN_OBJECT, THINK, DONE }
+
+    private final Consumer<JSONObject> findingSink;
+    private final Consumer<String> errorSink;
+
+    private State state = State.SEEK_KEY;
+    private State stateBeforeThink = State.SEEK_KEY;
+    private int keyMatched = 0;
+    private int thinkMatched = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private boolean oversized = false;
+    // Closing brackets still owed by the current finding, innermost last
+    private final StringBuilder closers = new StringBuilder();
+    private final StringBuilder current = new StringBuilder();
+    // The longest prefix of the current finding that ends after a complete member, and what it owes
+    private int lastSafeLength = 0;
+    private String lastSafeClosers = "";
+    private int emitted = 0;
+    private int recovered = 0;
+    // A finding was skipped, or closed off by finish()
+    private boolean lossy = false;
+
+    public FindingsStreamParser(Consumer<JSONObject> findingSink, Consumer<String> errorSink) {
+        this.findingSink = findingSink;
+        this.errorSink = errorSink;
+    }
+
+    public void feed(CharSequence text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            accept(text.charAt(i));
+        }
+    }
+
+    private void accept(char c) {
+        if (state != State.IN_OBJECT && state != State.DONE && matchThink(c)) {
+            return;
+        }
+        switch (state) {
+            case SEEK_KEY:
+                if (c == FINDINGS_KEY.charAt(keyMatched)) {
+                    keyMatched++;
+                    if (keyMatched == FINDINGS_KEY.length()) {
+                        keyMatched = 0;
+                        state = State.SEEK_ARRAY;
+                    }
+                } else {
+                    keyMatched = (c == '"') ? 1 : 0;
+                }
+                break;
+
+            case SEEK_ARRAY:
+                if (c == '[') {
+                    state = State.IN_ARRAY;
+                } else if (c != ':' && !Character.isWhitespace(c)) {
+                    // "findings" was not a key followed by an array, keep looking
+                    state = State.SEEK_KEY;
+                    accept(c);
+                }
+                break;
+
+            case IN_ARRAY:
+                if (c == '{') {
+                    state = State.IN_OBJECT;
+                    inString = false;
+                    escaped = false;
+                    oversized = false;
+                    closers.setLength(0);
+                    closers.append('}');
+                    current.setLength(0);
+                    current.append(c);
+                    lastSafeLength = 0;
+                    lastSafeClosers = "";
+                } else if (c == ']') {
+                    state = State.DONE;
+                }
+                break;
+
+            case IN_OBJECT:
+                if (!oversized) {
+                    current.append(c);
+                    if (current.length() > MAX_FINDING_CHARS) {
+                        oversized = true;
+                        current.setLength(0);
+                    }
+                }
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{') {
+                    closers.append('}');
+                } else if (c == '[') {
+                    closers.append(']');
+                } else if (c == '}' || c == ']') {
+                    closers.setLength(closers.length() - 1);
+                    if (closers.length() == 0) {
+                        emit();
+                        state = State.IN_ARRAY;
+                    }
+                } else if (c == ',' && !oversized) {
+                    lastSafeLength = current.length() - 1;
+                    lastSafeClosers = closers.toString();
+                }
+                break;
+
+            case THINK:
+            case DONE:
+            default:
+                break;
+        }
+    }
+
+    /** Tracks <think> and </think> outside findings; returns true while the char belongs to a reasoning block. */
+    private boolean matchThink(char c) {
+        String tag = state == State.THINK ? THINK_CLOSE : THINK_OPEN;
+        if (Character.toLowerCase(c) == tag.charAt(thinkMatched)) {
+            thinkMatched++;
+        } else {
+            thinkMatched = (c == '<') ? 1 : 0;
+        }
+        if (thinkMatched < tag.length()) {
+            return state == State.THINK;
+        }
+        thinkMatched = 0;
+        if (state == State.THINK) {
+            state = stateBeforeThink;
+        } else {
+            stateBeforeThink = state;
+            state = State.THINK;
+            keyMatched = 0;
+        }
+        return true;
+    }
+
+    private void emit() {
+        if (oversized) {
+            lossy = true;
+            report("Skipping finding larger than " + MAX_FINDING_CHARS + " characters");
+            current.setLength(0);
+            return;
+        }
+        try {
+            JSONObject finding = new JSONObject(current.toString());
+            emitted++;
+            findingSink.accept(finding);
+        } catch (JSONException e) {
+            lossy = true;
+            report("Skipping malformed finding: " + e.getMessage());
+        } finally {
+            current.setLength(0);
+        }
+    }
+
+    /**
+     * Call once the input has ended. If it stopped in the middle of a finding
+     * (the model hit its output limit), the finding is closed off, first by
+     * ending the open string and brackets, else by cutting back to the last
+     * complete member, and emitted if it still names a vulnerability.
+     */
+    public void finish() {
+        if (state != State.IN_OBJECT || oversized) {
+            return;
+        }
+        lossy = true;
+        String partial = current.toString();
+        JSONObject finding = tryParse(partial + (inString ? "\"" : "") + new StringBuilder(closers).reverse());
+        if (finding == null && lastSafeLength > 0) {
+            finding = tryParse(partial.substring(0, lastSafeLength) + new StringBuilder(lastSafeClosers).reverse());
+        }
+        state = State.DONE;
+        current.setLength(0);
+        if (finding == null || !finding.has("vulnerability")) {
+            report("Discarding truncated finding that could not be recovered");
+            return;
+        }
+        recovered++;
+        emitted++;
+        report("Recovered truncated finding: " + finding.optString("vulnerability"));
+        findingSink.accept(finding);
+    }
+
+    private static JSONObject tryParse(String json) {
+        try {
+            return new JSONObject(json);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private void report(String message) {
+        if (errorSink != null) {
+            errorSink.accept(message);
+        }
+    }
+
+    /** Number of findings handed to the sink so far. */
+    public int emittedCount() {
+        return emitted;
+    }
+
+    /** Number of findings recovered from truncated output by {@link #finish()}. */
+    public int recoveredCount() {
+        return recovered;
+    }
+
+    /** True once a findings array has been located in the input. */
+    public boolean foundFindings() {
+        return state == State.IN_ARRAY || state == State.IN_OBJECT || state == State.DONE
+                || (state == State.THINK && stateBeforeThink == State.IN_ARRAY);
+    }
+
+    /** True once the findings array was closed with every finding in it parsed. */
+    public boolean isComplete() {
+        return state == State.DONE && !lossy;
+    }
+
+    /** True if the input ended in the middle of a finding object. */
+    public boolean isTruncated() {
+        return state == State.IN_OBJECT;
+    }
+}
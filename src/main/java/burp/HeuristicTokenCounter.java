@@ -0,0 +1,114 @@
+package burp;
+
+/**
+ * Vocabulary-free token estimate for when no BPE file is available. Counts in
+ * a single pass over the characters, without allocating, by mimicking how
+ * BPE pre-tokenizers split text: words and short number groups are roughly
+ * one token, runs of punctuation and whitespace merge, high-entropy runs
+ * (base64, hex, minified identifiers) cost about one token per 2.7
+ * characters, and non-Latin scripts cost far more per character than English.
+ *
+ * The result is scaled per model family to account for vocabulary size.
+ */
+public class HeuristicTokenCounter implements TokenCounter {
+    private final String name;
+    private final double scale;
+
+    public HeuristicTokenCounter(String name, double scale) {
+        this.name = name;
+        this.scale = scale;
+    }
+
+    @Override
+    public String name() {
+        return name + " (estimate)";
+    }
+
+    @Override
+    public int count(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        double tokens = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isAsciiAlnum(c)) {
+                int start = i;
+                int transitions = 0;
+                double runTokens = 0;
+                while (i < length && isAsciiAlnum(text.charAt(i))) {
+                    int segStart = i;
+                    boolean digits = isDigit(text.charAt(i));
+                    while (i < length && isAsciiAlnum(text.charAt(i)) && isDigit(text.charAt(i)) == digits) {
+                        char prev = text.charAt(i);
+                        i++;
+                        // Lower-to-upper case changes mark camelCase words or random strings
+                        if (i < length && Character.isLowerCase(prev) && Character.isUpperCase(text.charAt(i))) {
+                            transitions++;
+                        }
+                    }
+                    int segLength = i - segStart;
+                    if (digits) {
+                        runTokens += Math.ceil(segLength / 3.0); // numbers split into groups of up to 3 digits
+                    } else {
+                        runTokens += segLength <= 6 ? 1 : Math.ceil(segLength / 4.5);
+                    }
+                    transitions++;
+                }
+                int runLength = i - start;
+                if (runLength >= 16 && transitions > runLength / 5) {
+                    runTokens = Math.max(runTokens, runLength / 2.7);
+                }
+                tokens += runTokens;
+            } else if (c == ' ' && i + 1 < length && isAsciiAlnum(text.charAt(i + 1))) {
+                i++; // a single space is folded into the following word
+            } else if (Character.isWhitespace(c)) {
+                int start = i;
+                while (i < length && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                tokens += Math.ceil((i - start) / 8.0);
+            } else if (c < 0x80) {
+                int start = i;
+                while (i < length && text.charAt(i) < 0x80 && !isAsciiAlnum(text.charAt(i))
+                        && !Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                int runLength = i - start;
+                tokens += runLength <= 2 ? 1 : Math.ceil(runLength / 2.0);
+            } else {
+                tokens += nonAsciiCost(c);
+                i++;
+            }
+        }
+        return (int) Math.ceil(tokens * scale);
+    }
+
+    private static double nonAsciiCost(char c) {
+        if (Character.isSurrogate(c)) {
+            return 0.75; // emoji and other astral characters: several byte tokens per pair
+        }
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        switch (script) {
+            case HAN:
+            case HIRAGANA:
+            case KATAKANA:
+            case HANGUL:
+                return 1.0;
+            case LATIN:
+                return 0.4; // accented letters inside otherwise Latin words
+            default:
+                return 0.6; // Cyrillic, Greek, Arabic, Hebrew, Devanagari, ...
+        }
+    }
+
+    private static boolean isAsciiAlnum(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,322 @@
+package burp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * {@link ProviderTransport} backed by a shared {@link HttpClient}. One client is
+ * kept per proxy setting; each client negotiates HTTP/2 where the provider
+ * supports it and keeps connections alive, so concurrent chunks to the same
+ * provider host are multiplexed instead of opening a new TLS session each.
+ *
+ * The request timeout only covers the wait for response headers, so the body
+ * has its own inactivity timeout: a provider that goes silent mid-body for
+ * that long fails the call with an {@link HttpTimeoutException} instead of
+ * holding its worker and concurrency slot forever.
+ */
+public class HttpClientTransport implements ProviderTransport {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(15000);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(360000); // long enough for local LLMs
+    // Longest silence allowed while the body is arriving, like the read timeout of the old connection
+    private static final long BODY_IDLE_TIMEOUT_MS = 360000;
+
+    // The JDK client does not expose its connection pool, so reuse is only estimated:
+    // a request to a host that saw traffic within this window is assumed to ride an open
+    // connection. Concurrent HTTP/1.1 calls that each open their own are counted as reused too.
+    private static final long KEEP_ALIVE_WINDOW_MS = 30000;
+
+    private static final String DIRECT = "";
+
+    private final SSLContext sslContext;
+    private final StageProfiler profiler;
+    private final Map<String, HttpClient> clients = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastActivity = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong reusedConnectionCount = new AtomicLong();
+    private final AtomicLong http2ResponseCount = new AtomicLong();
+
+    private final long bodyIdleTimeoutMs;
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "AIAuditor-BodyTimeout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public HttpClientTransport(SSLContext sslContext, StageProfiler profiler) {
+        this(sslContext, profiler, BODY_IDLE_TIMEOUT_MS);
+    }
+
+    HttpClientTransport(SSLContext sslContext, StageProfiler profiler, long bodyIdleTimeoutMs) {
+        this.sslContext = sslContext;
+        this.profiler = profiler;
+        this.bodyIdleTimeoutMs = bodyIdleTimeoutMs;
+    }
+
+    @Override
+    public ProviderResponse post(URI uri, Map<String, String> headers, String body, String proxy)
+            throws IOException, InterruptedException {
+        HttpClient client = clientFor(proxy);
+        long start = profiler.start();
+        String origin = uri.getScheme() + "://" + uri.getAuthority();
+        boolean reused = beginRequest(origin);
+
+        long[] headersAt = new long[1];
+        HttpResponse<String> response = client.send(buildRequest(uri, headers, body),
+                timed(idle(HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)), start, reused, headersAt));
+        profiler.record(StageProfiler.Stage.DOWNLOAD, headersAt[0]);
+
+        endRequest(origin, response);
+        return new ProviderResponse(response.statusCode(), response.headers().map(), response.body());
+    }
+
+    @Override
+    public ProviderResponse postStreaming(URI uri, Map<String, String> headers, String body, String proxy,
+                                          Consumer<String> lineSink) throws IOException, InterruptedException {
+        HttpClient client = clientFor(proxy);
+        long start = profiler.start();
+        String origin = uri.getScheme() + "://" + uri.getAuthority();
+        boolean reused = beginRequest(origin);
+
+        // ofLines() returns at the headers; the download is the time spent draining the lines
+        long[] headersAt = new long[1];
+        HttpResponse<Stream<String>> response = client.send(buildRequest(uri, headers, body),
+                timed(idle(HttpResponse.BodyHandlers.ofLines()), start, reused, headersAt));
+
+        String errorBody = "";
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() == 200) {
+                lines.forEachOrdered(lineSink);
+            } else {
+                errorBody = lines.collect(Collectors.joining("\n"));
+            }
+        } catch (UncheckedIOException e) {
+            // The lines reader reports a failed body as IOException("closed") caused by the actual error
+            IOException failure = e.getCause();
+            if (failure.getCause() instanceof HttpTimeoutException) {
+                throw (HttpTimeoutException) failure.getCause();
+            }
+            throw failure;
+        }
+        profiler.record(StageProfiler.Stage.DOWNLOAD, headersAt[0]);
+
+        endRequest(origin, response);
+        return new ProviderResponse(response.statusCode(), response.headers().map(), errorBody);
+    }
+
+    private HttpRequest buildRequest(URI uri, Map<String, String> headers, String body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(REQUEST_TIMEOUT)
+                .POST(body == null || body.isEmpty()
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8));
+        headers.forEach(builder::header);
+        return builder.build();
+    }
+
+    /** Counts a request to {@code origin}; returns true if it is expected to ride an open connection. */
+    private boolean beginRequest(String origin) {
+        long now = System.currentTimeMillis();
+        Long previous = lastActivity.put(origin, now);
+        requestCount.incrementAndGet();
+        if (previous != null && now - previous < KEEP_ALIVE_WINDOW_MS) {
+            reusedConnectionCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Wraps {@code handler} to record the time to response headers and note when they
+     * arrived in {@code headersAt[0]}. Returns the handler unchanged when not profiling.
+     */
+    private <T> HttpResponse.BodyHandler<T> timed(HttpResponse.BodyHandler<T> handler, long start,
+                                                  boolean reused, long[] headersAt) {
+        if (start == 0L) {
+            return handler;
+        }
+        return info -> {
+            profiler.record(reused ? StageProfiler.Stage.TTFB : StageProfiler.Stage.TTFB_NEW_CONNECTION, start);
+            headersAt[0] = profiler.start();
+            return handler.apply(info);
+        };
+    }
+
+    /** Wraps {@code handler} so its body fails once no bytes arrived for the idle timeout. */
+    private <T> HttpResponse.BodyHandler<T> idle(HttpResponse.BodyHandler<T> handler) {
+        return info -> new IdleTimeoutSubscriber<>(handler.apply(info));
+    }
+
+    /**
+     * Passes the body through to {@code delegate}, restarting a timer on every
+     * buffer. When the timer fires, the upstream subscription is cancelled and
+     * the delegate fails with an HttpTimeoutException, which wakes a reader
+     * blocked on an ofLines() stream as well as a send() waiting for ofString().
+     */
+    private final class IdleTimeoutSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private Flow.Subscription subscription;
+        private ScheduledFuture<?> timer;
+        private long lastDataAt;
+        private boolean done;
+
+        IdleTimeoutSubscriber(HttpResponse.BodySubscriber<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public synchronized void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            lastDataAt = System.nanoTime();
+            schedule(bodyIdleTimeoutMs);
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public synchronized void onNext(List<ByteBuffer> item) {
+            if (done) {
+                return;
+            }
+            lastDataAt = System.nanoTime();
+            delegate.onNext(item);
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            if (finish()) {
+                delegate.onError(throwable);
+            }
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            if (finish()) {
+                delegate.onComplete();
+            }
+        }
+
+        private boolean finish() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            return true;
+        }
+
+        private void schedule(long delayMs) {
+            try {
+                timer = watchdog.schedule(this::check, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // transport shut down; the call ends with the client
+            }
+        }
+
+        private synchronized void check() {
+            if (done) {
+                return;
+            }
+            long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastDataAt);
+            if (idleMs < bodyIdleTimeoutMs) {
+                schedule(bodyIdleTimeoutMs - idleMs);
+                return;
+            }
+            done = true;
+            delegate.onError(new HttpTimeoutException("No response data for " + idleMs + " ms"));
+            subscription.cancel();
+        }
+    }
+
+    private void endRequest(String origin, HttpResponse<?> response) {
+        lastActivity.put(origin, System.currentTimeMillis());
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2ResponseCount.incrementAndGet();
+        }
+    }
+
+    private HttpClient clientFor(String proxy) {
+        String key = proxy == null ? DIRECT : proxy.trim();
+        return clients.computeIfAbsent(key, k -> {
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(CONNECT_TIMEOUT)
+                    .followRedirects(HttpClient.Redirect.NORMAL);
+            if (sslContext != null) {
+                builder.sslContext(sslContext);
+            }
+            if (!k.isEmpty()) {
+                builder.proxy(ProxySelector.of(parseProxy(k)));
+            }
+            return builder.build();
+        });
+    }
+
+    /** Parses an "IP:Port" proxy string, throwing IllegalArgumentException if it is malformed. */
+    public static InetSocketAddress parseProxy(String proxyString) {
+        String[] proxyParts = proxyString.trim().split(":");
+        if (proxyParts.length != 2) {
+            throw new IllegalArgumentException("Invalid proxy format. Use IP:Port.");
+        }
+        try {
+            return new InetSocketAddress(proxyParts[0], Integer.parseInt(proxyParts[1]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid proxy port: " + proxyParts[1], e);
+        }
+    }
+
+    @Override
+    public long requestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public long reusedConnectionCount() {
+        return reusedConnectionCount.get();
+    }
+
+    @Override
+    public long http2ResponseCount() {
+        return http2ResponseCount.get();
+    }
+
+    @Override
+    public void shutdown() {
+        // HttpClient has no close() before Java 21; dropping the references lets idle connections be reclaimed.
+        clients.clear();
+        lastActivity.clear();
+        watchdog.shutdownNow();
+    }
+}
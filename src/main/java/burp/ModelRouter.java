@@ -0,0 +1,265 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.MimeType;
+
+/**
+ * Picks the model for each chunk of a bulk scan. A chunk is first sent to a
+ * small, cheap triage model; only chunks in which triage reports a finding of
+ * medium severity or above go on to the selected (deep) model. Triage answers
+ * for the rest are the result.
+ *
+ * The triage model is the configured model with the lowest expected cost for
+ * the chunk (list price per token, times the chunk's input tokens and the
+ * model's observed output length), the fastest by observed p50 among those
+ * close to it. Triage is skipped, and the chunk sent straight to the deep
+ * model, when it is not expected to pay off: for content types where triage
+ * has mostly escalated so far, or when triage plus the likely escalation would
+ * cost more than the deep call alone or take much longer.
+ */
+public class ModelRouter {
+    // USD per million input and output tokens, list prices, matched by the longest prefix of the model name
+    private static final Map<String, double[]> PRICES = new LinkedHashMap<>();
+    static {
+        PRICES.put("gpt-4o-mini", new double[]{0.15, 0.60});
+        PRICES.put("gpt-4o", new double[]{2.50, 10.00});
+        PRICES.put("gpt-4.1-nano", new double[]{0.10, 0.40});
+        PRICES.put("gpt-4.1-mini", new double[]{0.40, 1.60});
+        PRICES.put("gpt-4.1", new double[]{2.00, 8.00});
+        PRICES.put("o1-mini", new double[]{1.10, 4.40});
+        PRICES.put("o1-preview", new double[]{15.00, 60.00});
+        PRICES.put("o1", new double[]{15.00, 60.00});
+        PRICES.put("o3-mini", new double[]{1.10, 4.40});
+        PRICES.put("claude-3-haiku", new double[]{0.25, 1.25});
+        PRICES.put("claude-3-5-haiku", new double[]{0.80, 4.00});
+        PRICES.put("claude-3-5-sonnet", new double[]{3.00, 15.00});
+        PRICES.put("claude-3-7-sonnet", new double[]{3.00, 15.00});
+        PRICES.put("claude-sonnet-4", new double[]{3.00, 15.00});
+        PRICES.put("claude-3-opus", new double[]{15.00, 75.00});
+        PRICES.put("claude-opus-4", new double[]{15.00, 75.00});
+        PRICES.put("gemini-1.5-flash", new double[]{0.075, 0.30});
+        PRICES.put("gemini-1.5-pro", new double[]{1.25, 5.00});
+        PRICES.put("gemini-2.0-flash-lite", new double[]{0.075, 0.30});
+        PRICES.put("gemini-2.0-flash", new double[]{0.10, 0.40});
+        PRICES.put("gemini-2.5-flash-lite", new double[]{0.10, 0.40});
+        PRICES.put("gemini-2.5-flash", new double[]{0.30, 2.50});
+        PRICES.put("gemini-2.5-pro", new double[]{1.25, 10.00});
+        PRICES.put("mistral-7b-instruct", new double[]{0.03, 0.05});
+    }
+    private static final List<String> PRICE_PREFIXES = new ArrayList<>(PRICES.keySet());
+    static {
+        PRICE_PREFIXES.sort(Comparator.comparingInt(String::length).reversed());
+    }
+
+    // Until a model has answered this often, its output length and latency are guesses
+    private static final long MIN_SAMPLES = 10;
+    private static final double DEFAULT_OUTPUT_TOKENS = 600;
+    // Assumed share of triaged chunks that escalate, until a content type has its own history
+    private static final double PRIOR_ESCALATION_RATE = 0.3;
+    private static final long MIN_CLASS_SAMPLES = 20;
+    // Models within this factor of the cheapest are compared on latency instead
+    private static final double COST_TIE = 1.1;
+    // Triage may make a chunk this much slower than sending it straight to the deep model
+    private static final double LATENCY_TOLERANCE = 1.5;
+
+    /** How one chunk is routed. */
+    public static final class Decision {
+        private final String triageModel;
+        private final String deepModel;
+        private final String contentClass;
+        private final double triageCost;
+        private final double deepCost;
+
+        Decision(String triageModel, String deepModel, String contentClass, double triageCost, double deepCost) {
+            this.triageModel = triageModel;
+            this.deepModel = deepModel;
+            this.contentClass = contentClass;
+            this.triageCost = triageCost;
+            this.deepCost = deepCost;
+        }
+
+        /** The model to triage with, or null to send the chunk straight to the deep model. */
+        public String triageModel() {
+            return triageModel;
+        }
+
+        public String deepModel() {
+            return deepModel;
+        }
+    }
+
+    /** Triage outcomes for one content type. */
+    private static final class ClassStats {
+        final LongAdder triaged = new LongAdder();
+        final LongAdder escalated = new LongAdder();
+
+        double escalationRate() {
+            long n = triaged.sum();
+            return n < MIN_CLASS_SAMPLES ? PRIOR_ESCALATION_RATE : (double) escalated.sum() / n;
+        }
+    }
+
+    private final AuditMetrics metrics;
+    private final Map<String, ClassStats> classes = new ConcurrentHashMap<>();
+    private final LongAdder triaged = new LongAdder();
+    private final LongAdder escalated = new LongAdder();
+    private final LongAdder direct = new LongAdder();
+    private final DoubleAdder savedUsd = new DoubleAdder();
+
+    public ModelRouter(AuditMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** The content type a chunk is judged by: the response's stated MIME type. */
+    public static String contentClass(HttpRequestResponse reqRes) {
+        if (reqRes == null || reqRes.response() == null) {
+            return "NO_RESPONSE";
+        }
+        MimeType mime = reqRes.response().statedMimeType();
+        return mime == null ? "NONE" : mime.name();
+    }
+
+    /**
+     * Routes a chunk of {@code inputTokens} bound for {@code deepModel}, triaging
+     * with one of {@code candidates} (configured provider/model names) if that
+     * is expected to cut its cost without making it much slower.
+     */
+    public Decision decide(String deepModel, List<String> candidates, int inputTokens, String contentClass) {
+        double deepCost = expectedCostUsd(deepModel, inputTokens);
+        String best = null;
+        double bestCost = Double.NaN;
+        if (!Double.isNaN(deepCost)) {
+            Map<String, Double> costs = new LinkedHashMap<>();
+            for (String model : candidates) {
+                double cost = expectedCostUsd(model, inputTokens);
+                // A local model serves one call at a time, too few for triaging a bulk scan
+                if (!model.equals(deepModel) && !model.startsWith("local/") && !Double.isNaN(cost) && cost < deepCost) {
+                    costs.put(model, cost);
+                }
+            }
+            // The cheapest, unless a model close to it in cost is faster
+            for (Map.Entry<String, Double> entry : costs.entrySet()) {
+                if (best == null || entry.getValue() < bestCost) {
+                    best = entry.getKey();
+                    bestCost = entry.getValue();
+                }
+            }
+            double cheapest = bestCost;
+            for (Map.Entry<String, Double> entry : costs.entrySet()) {
+                if (entry.getValue() <= cheapest * COST_TIE && latencyMillis(entry.getKey()) < latencyMillis(best)) {
+                    best = entry.getKey();
+                    bestCost = entry.getValue();
+                }
+            }
+        }
+        if (best != null && !paysOff(best, bestCost, deepModel, deepCost, contentClass)) {
+            best = null;
+        }
+        if (best == null) {
+            direct.increment();
+        }
+        return new Decision(best, deepModel, contentClass, bestCost, deepCost);
+    }
+
+    /** Triage pays off if triage plus the likely escalation costs less than the deep call and is not much slower. */
+    private boolean paysOff(String triageModel, double triageCost, String deepModel, double deepCost, String contentClass) {
+        double p = classes.computeIfAbsent(contentClass, c -> new ClassStats()).escalationRate();
+        if (triageCost + p * deepCost >= deepCost) {
+            return false;
+        }
+        double triageLatency = latencyMillis(triageModel);
+        double deepLatency = latencyMillis(deepModel);
+        if (Double.isInfinite(triageLatency) || Double.isInfinite(deepLatency)) {
+            return true; // no history yet; cost decides
+        }
+        return triageLatency + p * deepLatency <= LATENCY_TOLERANCE * deepLatency;
+    }
+
+    /** Whether triage findings call for the deep model: any finding of medium severity or above. */
+    public static boolean needsDeepAnalysis(List<JSONObject> triageFindings) {
+        for (JSONObject finding : triageFindings) {
+            String severity = finding.optString("severity", "").trim().toUpperCase(Locale.ROOT);
+            if (severity.equals("HIGH") || severity.equals("MEDIUM") || severity.equals("CRITICAL")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Records how a triaged chunk went, for the escalation rates and the savings estimate. */
+    public void recordTriage(Decision decision, boolean escalatedToDeep) {
+        ClassStats stats = classes.computeIfAbsent(decision.contentClass, c -> new ClassStats());
+        stats.triaged.increment();
+        triaged.increment();
+        if (escalatedToDeep) {
+            stats.escalated.increment();
+            escalated.increment();
+            savedUsd.add(-decision.triageCost);
+        } else {
+            savedUsd.add(decision.deepCost - decision.triageCost);
+        }
+    }
+
+    /**
+     * Expected cost of one call in USD: list price of the input tokens and of
+     * the model's mean output so far. NaN if the model's price is unknown.
+     */
+    double expectedCostUsd(String model, int inputTokens) {
+        double[] price = priceOf(model);
+        if (price == null) {
+            return Double.NaN;
+        }
+        double output = metrics.meanOutputTokens(model, MIN_SAMPLES);
+        return (inputTokens * price[0] + (output < 0 ? DEFAULT_OUTPUT_TOKENS : output) * price[1]) / 1e6;
+    }
+
+    /** p50 latency so far, or infinity while there is too little history. */
+    private double latencyMillis(String model) {
+        double p50 = metrics.latencyPercentileMillis(model, 0.5, MIN_SAMPLES);
+        return p50 < 0 ? Double.POSITIVE_INFINITY : p50;
+    }
+
+    /** List price {input, output} per million tokens, or null if unknown. Local models are free. */
+    static double[] priceOf(String model) {
+        if (model.startsWith("local/")) {
+            return new double[]{0, 0};
+        }
+        // "openrouter/openai/o1-mini" is priced as "o1-mini"
+        String name = model.substring(model.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+        for (String prefix : PRICE_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return PRICES.get(prefix);
+            }
+        }
+        return null;
+    }
+
+    public long triagedCount() {
+        return triaged.sum();
+    }
+
+    public long escalatedCount() {
+        return escalated.sum();
+    }
+
+    public long directCount() {
+        return direct.sum();
+    }
+
+    /** Estimated list-price saving of triage against sending every triaged chunk to the deep model. */
+    public double savedUsd() {
+        return savedUsd.sum();
+    }
+}
@@ -0,0 +1,249 @@
+package burp;
+
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.MimeType;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+/**
+ * Bounded, prioritized queue of proxy traffic for background auditing.
+ *
+ * {@link #offer} is called from Burp's passive scanner threads, so it only
+ * scores the item and takes a short lock; it never waits. When the queue is
+ * full, the lowest-priority item (possibly the new one) is dropped.
+ *
+ * Items are scored by MIME type, scope, response size and novelty (how often
+ * the same route has been seen). A single background thread drains the queue
+ * highest priority first, within an audits-per-minute rate budget, a
+ * tokens-per-hour cost budget and a small in-flight limit.
+ */
+public class PassiveAuditQueue {
+    private static final int CAPACITY = 500;
+    private static final int MAX_IN_FLIGHT = 2;
+    private static final long HOUR_MS = 60L * 60 * 1000;
+
+    private static class Entry {
+        final HttpRequestResponse reqRes;
+        final double priority;
+        final long seq;
+
+        Entry(HttpRequestResponse reqRes, double priority, long seq) {
+            this.reqRes = reqRes;
+            this.priority = priority;
+            this.seq = seq;
+        }
+    }
+
+    // Highest priority first; older entries first among equals
+    private final TreeSet<Entry> queue = new TreeSet<>(
+            Comparator.comparingDouble((Entry e) -> -e.priority).thenComparingLong(e -> e.seq));
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, AtomicInteger> routeCounts = new ConcurrentHashMap<>();
+    private final RequestDeduplicator auditedShapes = new RequestDeduplicator();
+
+    private final Function<HttpRequestResponse, CompletableFuture<Boolean>> auditor;
+    private final ToIntFunction<HttpRequestResponse> tokenEstimator;
+    private final ScheduledExecutorService drainer;
+
+    private volatile int auditsPerMinute = 10;
+    private volatile int tokensPerHour = 200000;
+    private volatile boolean inScopeOnly = true;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong audited = new AtomicLong();
+    private long minuteStartMs = 0;
+    private int auditsThisMinute = 0;
+    private long hourStartMs = 0;
+    private long tokensThisHour = 0;
+
+    public PassiveAuditQueue(Function<HttpRequestResponse, CompletableFuture<Boolean>> auditor,
+                             ToIntFunction<HttpRequestResponse> tokenEstimator) {
+        this.auditor = auditor;
+        this.tokenEstimator = tokenEstimator;
+        this.drainer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AIAuditor-PassiveQueue");
+            t.setDaemon(true);
+            return t;
+        });
+        drainer.scheduleWithFixedDelay(this::drain, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void setBudgets(int auditsPerMinute, int tokensPerHour) {
+        this.auditsPerMinute = Math.max(1, auditsPerMinute);
+        this.tokensPerHour = Math.max(1, tokensPerHour);
+    }
+
+    public void setInScopeOnly(boolean inScopeOnly) {
+        this.inScopeOnly = inScopeOnly;
+    }
+
+    /** Scores and enqueues an item without blocking; returns false if it was not queued. */
+    public boolean offer(HttpRequestResponse reqRes) {
+        if (reqRes == null || reqRes.request() == null || reqRes.response() == null) {
+            return false;
+        }
+        boolean inScope = reqRes.request().isInScope();
+        if (inScopeOnly && !inScope) {
+            return false;
+        }
+        double mimeScore = mimeScore(reqRes.response());
+        if (mimeScore < 0) {
+            return false; // images, fonts, media and other content the model cannot audit
+        }
+
+        String route = reqRes.request().method() + " " + reqRes.request().httpService().host()
+                + RequestDeduplicator.maskPath(reqRes.request().pathWithoutQuery());
+        if (routeCounts.size() > 100000) {
+            routeCounts.clear(); // novelty is relative; starting over is fine
+        }
+        int seen = routeCounts.computeIfAbsent(route, r -> new AtomicInteger()).getAndIncrement();
+
+        double priority = mimeScore
+                + (inScope ? 4 : 0)
+                + 3.0 / (1 + seen)
+                + sizeScore(reqRes.response().body().length());
+
+        Entry entry = new Entry(reqRes, priority, sequence.incrementAndGet());
+        synchronized (queue) {
+            queue.add(entry);
+            if (queue.size() > CAPACITY) {
+                Entry lowest = queue.pollLast();
+                dropped.incrementAndGet();
+                return lowest != entry;
+            }
+        }
+        return true;
+    }
+
+    private static double mimeScore(HttpResponse response) {
+        MimeType mime = response.statedMimeType();
+        if (mime == null) {
+            return 1;
+        }
+        switch (mime.name().toUpperCase(Locale.ROOT)) {
+            case "JSON":
+            case "HTML":
+            case "XML":
+            case "SCRIPT":
+                return 3;
+            case "PLAIN_TEXT":
+            case "YAML":
+            case "UNRECOGNIZED":
+                return 1;
+            case "CSS":
+            case "NONE":
+                return 0;
+            default:
+                return -1; // IMAGE_*, SOUND, VIDEO, FONT_*, APPLICATION_FLASH, RTF, ...
+        }
+    }
+
+    /** Small to medium responses are the most useful per token; huge ones cost many chunks. */
+    private static double sizeScore(int bytes) {
+        if (bytes == 0) {
+            return -1;
+        }
+        return 2 - Math.log10(Math.max(1, bytes)) / 2;
+    }
+
+    private void drain() {
+        try {
+            while (inFlight.get() < MAX_IN_FLIGHT) {
+                Entry next;
+                synchronized (queue) {
+                    next = queue.pollFirst();
+                }
+                if (next == null) {
+                    return;
+                }
+                // Near-duplicates of something already audited in the background are not worth a call
+                RequestDeduplicator.Shape shape = RequestDeduplicator.shapeOf(next.reqRes);
+                if (auditedShapes.isKnown(shape)) {
+                    continue;
+                }
+                int tokens = tokenEstimator.applyAsInt(next.reqRes);
+                if (tokens > tokensPerHour) {
+                    dropped.incrementAndGet(); // would never fit the hourly budget
+                    continue;
+                }
+                if (!takeBudget(tokens)) {
+                    synchronized (queue) {
+                        queue.add(next);
+                    }
+                    return;
+                }
+                auditedShapes.remember(shape);
+                inFlight.incrementAndGet();
+                auditor.apply(next.reqRes).whenComplete((ok, e) -> {
+                    inFlight.decrementAndGet();
+                    if (Boolean.TRUE.equals(ok)) {
+                        audited.incrementAndGet();
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            // keep the drainer alive; the next tick retries
+        }
+    }
+
+    private synchronized boolean takeBudget(int tokens) {
+        long now = System.currentTimeMillis();
+        if (now - minuteStartMs >= 60000) {
+            minuteStartMs = now;
+            auditsThisMinute = 0;
+        }
+        if (now - hourStartMs >= HOUR_MS) {
+            hourStartMs = now;
+            tokensThisHour = 0;
+        }
+        if (auditsThisMinute >= auditsPerMinute || tokensThisHour + tokens > tokensPerHour) {
+            return false;
+        }
+        auditsThisMinute++;
+        tokensThisHour += tokens;
+        return true;
+    }
+
+    public int size() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    public long auditedCount() {
+        return audited.get();
+    }
+
+    public synchronized long tokensUsedThisHour() {
+        return tokensThisHour;
+    }
+
+    public void clear() {
+        synchronized (queue) {
+            queue.clear();
+        }
+    }
+
+    public void shutdown() {
+        drainer.shutdownNow();
+        clear();
+    }
+}
@@ -0,0 +1,75 @@
+package burp;
+
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A provider answered with a non-200 status. Keeps the full response so retry
+ * decisions can look at the status, the error type in the body and headers
+ * such as Retry-After instead of the exception message.
+ */
+public class ProviderApiException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final ProviderResponse response;
+
+    public ProviderApiException(ProviderResponse response) {
+        super("API error " + response.statusCode() + ": " + response.body());
+        this.response = response;
+    }
+
+    public int statusCode() {
+        return response.statusCode();
+    }
+
+    public Map<String, List<String>> headers() {
+        return response.headers();
+    }
+
+    /** Returns the first value of a header (case-insensitive), or null if absent. */
+    public String header(String name) {
+        return response.header(name);
+    }
+
+    public String body() {
+        return response.body();
+    }
+
+    /**
+     * The provider's machine-readable error type, or an empty string: "type" or
+     * "code" of the error object for OpenAI-compatible APIs and Claude, the
+     * "status" and any detail "reason" for Gemini (e.g. "INVALID_ARGUMENT API_KEY_INVALID").
+     */
+    public String errorType() {
+        JSONObject error;
+        try {
+            error = new JSONObject(response.body()).optJSONObject("error");
+        } catch (JSONException e) {
+            return "";
+        }
+        if (error == null) {
+            return "";
+        }
+        StringBuilder type = new StringBuilder();
+        for (String field : new String[]{"type", "code", "status"}) {
+            Object value = error.opt(field);
+            if (value instanceof String && !((String) value).isEmpty()) {
+                type.append(type.length() > 0 ? " " : "").append(value);
+            }
+        }
+        JSONArray details = error.optJSONArray("details");
+        if (details != null) {
+            for (int i = 0; i < details.length(); i++) {
+                JSONObject detail = details.optJSONObject(i);
+                if (detail != null && !detail.optString("reason").isEmpty()) {
+                    type.append(type.length() > 0 ? " " : "").append(detail.optString("reason"));
+                }
+            }
+        }
+        return type.toString();
+    }
+}
@@ -0,0 +1,288 @@
+package burp;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Token-bucket limiter with two budgets, requests and tokens, for one provider
+ * and API key. Both buckets refill continuously over the window; a request is
+ * admitted once there is one request permit and enough tokens for its
+ * estimated size.
+ *
+ * Providers report their real quota in response headers. When those are
+ * available, the bucket capacities and levels follow them, so throughput
+ * settles at the actual ceiling instead of at a guessed setting.
+ */
+public class ProviderRateLimiter {
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    private static class Waiter {
+        final CompletableFuture<Void> permit = new CompletableFuture<>();
+        final int tokens;
+
+        Waiter(int tokens) {
+            this.tokens = tokens;
+        }
+    }
+
+    private static class Bucket {
+        double capacity;
+        double level;
+        double refillPerMs;
+
+        Bucket(double capacity, long windowMs) {
+            this.capacity = capacity;
+            this.level = capacity;
+            this.refillPerMs = capacity / windowMs;
+        }
+
+        void refill(long elapsedMs) {
+            level = Math.min(capacity, level + elapsedMs * refillPerMs);
+        }
+
+        /** Milliseconds until the bucket holds {@code amount}, assuming no other consumers. */
+        long millisUntil(double amount) {
+            if (level >= amount) return 0;
+            if (refillPerMs <= 0) return Long.MAX_VALUE;
+            return (long) Math.ceil((amount - level) / refillPerMs);
+        }
+
+        void resize(double newCapacity, long windowMs) {
+            if (newCapacity <= 0) return;
+            level = Math.min(level, newCapacity);
+            capacity = newCapacity;
+            refillPerMs = newCapacity / windowMs;
+        }
+    }
+
+    private final Bucket requests;
+    private final Bucket tokens;
+    private long lastRefillMs;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private boolean wakeUpScheduled = false;
+
+    public ProviderRateLimiter(int maxRequests, int maxTokens, int timeWindowSeconds) {
+        long windowMs = Math.max(1, timeWindowSeconds) * 1000L;
+        this.requests = new Bucket(Math.max(1, maxRequests), windowMs);
+        this.tokens = new Bucket(Math.max(1, maxTokens), windowMs);
+        this.lastRefillMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns a future that completes once one request and {@code estimatedTokens}
+     * tokens have been taken from the buckets. Waiters are served in arrival order.
+     */
+    public CompletableFuture<Void> acquire(int estimatedTokens, ScheduledExecutorService scheduler) {
+        Waiter waiter = new Waiter(Math.max(0, estimatedTokens));
+        synchronized (this) {
+            waiters.add(waiter);
+        }
+        release(scheduler);
+        return waiter.permit;
+    }
+
+    public synchronized void reconfigure(int maxRequests, int maxTokens, int timeWindowSeconds) {
+        refill();
+        long windowMs = Math.max(1, timeWindowSeconds) * 1000L;
+        requests.resize(Math.max(1, maxRequests), windowMs);
+        tokens.resize(Math.max(1, maxTokens), windowMs);
+    }
+
+    public synchronized int getWaitingCount() {
+        return waiters.size();
+    }
+
+    /** Remaining tokens in the bucket right now; used to pick the least loaded key. */
+    public synchronized double availableTokens() {
+        refill();
+        return tokens.level;
+    }
+
+    /**
+     * Share of this key's quota that is free right now, between 0 and 1: the
+     * lower of the request and token bucket levels, discounted by calls already
+     * waiting for a permit.
+     */
+    public synchronized double headroom() {
+        refill();
+        double free = Math.min(requests.level / requests.capacity, tokens.level / tokens.capacity);
+        return free / (1 + waiters.size());
+    }
+
+    /** Grants permits in arrival order while both budgets allow, then schedules the next wake-up. */
+    public void release(ScheduledExecutorService scheduler) {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (this) {
+            refill();
+            long waitMs = 0;
+            while (!waiters.isEmpty()) {
+                Waiter head = waiters.peek();
+                if (head.permit.isDone()) { // cancelled by the caller
+                    waiters.poll();
+                    continue;
+                }
+                // A chunk larger than the whole budget would never fit; let it through on a full bucket
+                double cost = Math.min(head.tokens, tokens.capacity);
+                if (requests.level >= 1 && tokens.level >= cost) {
+                    requests.level -= 1;
+                    tokens.level -= cost;
+                    granted.add(waiters.poll().permit);
+                } else {
+                    waitMs = Math.max(requests.millisUntil(1), tokens.millisUntil(cost));
+                    break;
+                }
+            }
+            if (!waiters.isEmpty() && !wakeUpScheduled && !scheduler.isShutdown()) {
+                wakeUpScheduled = true;
+                scheduler.schedule(() -> {
+                    synchronized (this) {
+                        wakeUpScheduled = false;
+                    }
+                    release(scheduler);
+                }, Math.max(1, Math.min(waitMs, 60000)), TimeUnit.MILLISECONDS);
+            }
+        }
+        // Complete outside the lock so dependent stages never run while holding it
+        granted.forEach(permit -> permit.complete(null));
+    }
+
+    /**
+     * Aligns the buckets with the quota the provider reports. Understands the
+     * OpenAI (x-ratelimit-*-requests/tokens), Anthropic (anthropic-ratelimit-*)
+     * and generic x-ratelimit-limit/remaining headers; missing headers leave the
+     * configured values in place.
+     */
+    public synchronized void updateFromHeaders(Map<String, List<String>> headers) {
+        if (headers == null || headers.isEmpty()) {
+            return;
+        }
+        refill();
+
+        Double requestLimit = firstNumber(headers, "x-ratelimit-limit-requests", "anthropic-ratelimit-requests-limit", "x-ratelimit-limit");
+        Double requestRemaining = firstNumber(headers, "x-ratelimit-remaining-requests", "anthropic-ratelimit-requests-remaining", "x-ratelimit-remaining");
+        Double tokenLimit = firstNumber(headers, "x-ratelimit-limit-tokens", "anthropic-ratelimit-input-tokens-limit", "anthropic-ratelimit-tokens-limit");
+        Double tokenRemaining = firstNumber(headers, "x-ratelimit-remaining-tokens", "anthropic-ratelimit-input-tokens-remaining", "anthropic-ratelimit-tokens-remaining");
+
+        // OpenAI and Anthropic quotas are expressed per minute
+        long windowMs = 60000;
+        if (requestLimit != null) {
+            requests.resize(requestLimit, windowMs);
+        }
+        if (tokenLimit != null) {
+            tokens.resize(tokenLimit, windowMs);
+        }
+        if (requestRemaining != null) {
+            requests.level = Math.min(requests.capacity, requestRemaining);
+        }
+        if (tokenRemaining != null) {
+            tokens.level = Math.min(tokens.capacity, tokenRemaining);
+        }
+
+        // When a budget is exhausted, trust the provider's reset time over our own refill rate
+        Long requestResetMs = resetMillis(headers, "x-ratelimit-reset-requests", "anthropic-ratelimit-requests-reset");
+        if (requestResetMs != null && requests.level < 1) {
+            requests.refillPerMs = Math.max(requests.refillPerMs, 1.0 / Math.max(1, requestResetMs));
+        }
+        Long tokenResetMs = resetMillis(headers, "x-ratelimit-reset-tokens", "anthropic-ratelimit-input-tokens-reset", "anthropic-ratelimit-tokens-reset");
+        if (tokenResetMs != null && tokenRemaining != null && tokenRemaining < tokens.capacity) {
+            tokens.refillPerMs = Math.max(tokens.refillPerMs, (tokens.capacity - tokenRemaining) / Math.max(1, tokenResetMs));
+        }
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastRefillMs;
+        if (elapsed > 0) {
+            requests.refill(elapsed);
+            tokens.refill(elapsed);
+            lastRefillMs = now;
+        }
+    }
+
+    private static String header(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)
+                    && entry.getValue() != null && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0).trim();
+            }
+        }
+        return null;
+    }
+
+    private static Double firstNumber(Map<String, List<String>> headers, String... names) {
+        for (String name : names) {
+            String value = header(headers, name);
+            if (value != null) {
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    // try the next name
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a reset header into milliseconds from now. Accepts OpenAI durations
+     * ("1s", "6m0s", "20ms"), RFC 3339 timestamps (Anthropic) and epoch
+     * milliseconds or plain seconds.
+     */
+    static Long resetMillis(Map<String, List<String>> headers, String... names) {
+        for (String name : names) {
+            String value = header(headers, name);
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            Long parsed = parseResetValue(value);
+            if (parsed != null) {
+                return Math.max(0, parsed);
+            }
+        }
+        return null;
+    }
+
+    static Long parseResetValue(String value) {
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        if (v.matches("\\d+(\\.\\d+)?")) {
+            double number = Double.parseDouble(v);
+            // Large values are epoch milliseconds, small ones are seconds from now
+            return number > 1_000_000_000_000L ? (long) number - System.currentTimeMillis() : (long) (number * 1000);
+        }
+        Matcher m = DURATION_PART.matcher(v);
+        long total = 0;
+        boolean matched = false;
+        int end = 0;
+        while (m.find() && m.start() == end) {
+            matched = true;
+            end = m.end();
+            double amount = Double.parseDouble(m.group(1));
+            switch (m.group(2)) {
+                case "h": total += (long) (amount * 3600000); break;
+                case "m": total += (long) (amount * 60000); break;
+                case "s": total += (long) (amount * 1000); break;
+                default: total += (long) amount; break;
+            }
+        }
+        if (matched && end == v.length()) {
+            return total;
+        }
+        try {
+            return Duration.between(OffsetDateTime.now(), OffsetDateTime.parse(value.trim())).toMillis();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package burp;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Status, headers and body of a provider call, independent of the transport
+ * that produced it.
+ */
+public class ProviderResponse {
+    private final int statusCode;
+    private final Map<String, List<String>> headers;
+    private final String body;
+
+    public ProviderResponse(int statusCode, Map<String, List<String>> headers, String body) {
+        this.statusCode = statusCode;
+        this.headers = headers != null ? headers : Collections.emptyMap();
+        this.body = body != null ? body : "";
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    public Map<String, List<String>> headers() {
+        return headers;
+    }
+
+    /** Returns the first value of a header (case-insensitive), or null if absent. */
+    public String header(String name) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name) && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    public String body() {
+        return body;
+    }
+}
@@ -0,0 +1,45 @@
+package burp;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Transport used for all LLM provider calls. Implementations are shared across
+ * worker threads, so they must be thread-safe and should keep connections open
+ * between calls instead of paying the TCP/TLS handshake for every chunk.
+ */
+public interface ProviderTransport {
+
+    /**
+     * POSTs {@code body} to {@code uri} and returns the full response.
+     *
+     * @param proxy "host:port" of an HTTP proxy, or an empty string for a direct connection
+     */
+    ProviderResponse post(URI uri, Map<String, String> headers, String body, String proxy)
+            throws IOException, InterruptedException;
+
+    /**
+     * POSTs {@code body} and hands a successful (200) response to {@code lineSink}
+     * one line at a time as it arrives, for server-sent-events streaming. The
+     * returned response carries the status and headers; its body is only
+     * populated for error responses.
+     */
+    ProviderResponse postStreaming(URI uri, Map<String, String> headers, String body, String proxy,
+                                   Consumer<String> lineSink) throws IOException, InterruptedException;
+
+    /** Total number of requests sent through this transport. */
+    long requestCount();
+
+    /**
+     * Requests estimated to have gone out over a connection already open to the same
+     * host. Transports that cannot see their connection pool guess from recent traffic.
+     */
+    long reusedConnectionCount();
+
+    /** Responses that were received over HTTP/2. */
+    long http2ResponseCount();
+
+    void shutdown();
+}
@@ -0,0 +1,168 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+
+/**
+ * Packs many small request/response pairs into shared prompts. Each item gets
+ * a stable id ("item-1", "item-2", ... in selection order) and is wrapped in
+ * delimiters; the model is asked to tag every finding with the id of the item
+ * it belongs to, so the combined findings can be routed back afterwards.
+ *
+ * Packing is first-fit decreasing against the chunk token budget; items that
+ * do not fit in a batch on their own are returned separately so they can go
+ * through the regular chunker. The number of items per batch is also capped
+ * so that their findings fit in one answer (see {@link #outputTokens(int)}).
+ */
+public class RequestBatcher {
+    public static final String ITEM_ID_FIELD = "item_id";
+    /** Largest answer every supported model can give (the Claude 3 models stop at 4096 tokens). */
+    static final int MAX_OUTPUT_TOKENS = 4096;
+    /** Answer budget for a single item, the limit a one-item call has always used. */
+    private static final int BASE_OUTPUT_TOKENS = 1024;
+    /** Rough size of the findings for each further item: one or two findings with explanation and steps. */
+    private static final int OUTPUT_TOKENS_PER_ITEM = 320;
+    static final int MAX_ITEMS_PER_BATCH = 1 + (MAX_OUTPUT_TOKENS - BASE_OUTPUT_TOKENS) / OUTPUT_TOKENS_PER_ITEM;
+    private static final Pattern ITEM_COUNT = Pattern.compile("^The content below holds (\\d+) independent HTTP");
+
+    public static class Item<T> {
+        final String id;
+        final T source;
+        final String content;
+        final int tokens;
+
+        Item(String id, T source, String content, int tokens) {
+            this.id = id;
+            this.source = source;
+            this.content = content;
+            this.tokens = tokens;
+        }
+    }
+
+    public static class Batch<T> {
+        private final Map<String, Item<T>> items = new LinkedHashMap<>();
+        private int tokens = 0;
+
+        public int size() {
+            return items.size();
+        }
+
+        public int tokens() {
+            return tokens;
+        }
+
+        public List<T> sources() {
+            List<T> sources = new ArrayList<>();
+            items.values().forEach(item -> sources.add(item.source));
+            return sources;
+        }
+
+        /** The combined content: a short note on the item format, then each delimited item. */
+        public String render() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("The content below holds ").append(items.size())
+              .append(" independent HTTP request/response items. Analyze each item separately and add an \"")
+              .append(ITEM_ID_FIELD).append("\" field to every finding with the id of the item it was found in.\n\n");
+            for (Item<T> item : items.values()) {
+                sb.append("=== ITEM ").append(item.id).append(" ===\n")
+                  .append(item.content)
+                  .append("\n=== END ITEM ").append(item.id).append(" ===\n\n");
+            }
+            return sb.toString();
+        }
+
+        /** The item a finding belongs to, or null if its item_id does not name an item of this batch. */
+        public T sourceFor(JSONObject finding) {
+            if (items.size() == 1) {
+                return items.values().iterator().next().source;
+            }
+            String id = finding.optString(ITEM_ID_FIELD, "").trim();
+            // Models sometimes drop the prefix and answer with just the number
+            if (id.matches("\\d+")) {
+                id = "item-" + id;
+            }
+            Item<T> item = items.get(id);
+            return item != null ? item.source : null;
+        }
+
+        /** The items in two batches of about half the size each, for retrying an answer that was cut off. */
+        public List<Batch<T>> split() {
+            Batch<T> first = new Batch<>();
+            Batch<T> second = new Batch<>();
+            int half = (items.size() + 1) / 2;
+            for (Item<T> item : items.values()) {
+                (first.size() < half ? first : second).add(item);
+            }
+            return second.size() == 0 ? List.of(first) : List.of(first, second);
+        }
+
+        void add(Item<T> item) {
+            items.put(item.id, item);
+            tokens += item.tokens;
+        }
+    }
+
+    /** Output token limit for an answer covering {@code items} items. */
+    public static int outputTokens(int items) {
+        return Math.min(MAX_OUTPUT_TOKENS, BASE_OUTPUT_TOKENS + Math.max(0, items - 1) * OUTPUT_TOKENS_PER_ITEM);
+    }
+
+    /** The number of items in content rendered by {@link Batch#render()}, or 1 for any other content. */
+    public static int itemCount(String content) {
+        Matcher matcher = ITEM_COUNT.matcher(content);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : 1;
+    }
+
+    /**
+     * Packs {@code sources} into batches of at most {@code capacityTokens} content
+     * tokens. Sources too large for any batch are added to {@code oversized}.
+     */
+    public static <T> List<Batch<T>> pack(List<T> sources, Function<T, String> contentOf, TokenCounter counter,
+                                          int capacityTokens, List<T> oversized) {
+        // Budget for the batch note and each item's delimiters
+        int perItemOverhead = counter.count("=== ITEM item-000 ===\n\n=== END ITEM item-000 ===\n\n");
+        int capacity = capacityTokens - counter.count(new Batch<T>().render());
+
+        List<Item<T>> items = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            T source = sources.get(i);
+            String content = contentOf.apply(source);
+            if (content == null || content.isEmpty()) {
+                continue;
+            }
+            int tokens = counter.count(content) + perItemOverhead;
+            if (tokens > capacity) {
+                oversized.add(source);
+            } else {
+                items.add(new Item<>("item-" + (i + 1), source, content, tokens));
+            }
+        }
+
+        items.sort(Comparator.comparingInt((Item<T> item) -> item.tokens).reversed());
+        List<Batch<T>> batches = new ArrayList<>();
+        for (Item<T> item : items) {
+            Batch<T> target = null;
+            for (Batch<T> batch : batches) {
+                if (batch.size() < MAX_ITEMS_PER_BATCH && batch.tokens + item.tokens <= capacity) {
+                    target = batch;
+                    break;
+                }
+            }
+            if (target == null) {
+                target = new Batch<>();
+                batches.add(target);
+            }
+            target.add(item);
+        }
+        return Collections.unmodifiableList(batches);
+    }
+}
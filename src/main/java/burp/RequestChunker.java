@@ -1,72 +1,279 @@
 package burp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Splits an HTTP request/response pair into chunks that fit the model's
+ * context. Cuts are placed on message structure rather than at fixed offsets:
+ * the end of a header block or a blank line first, then JSON/XML element
+ * boundaries, then line ends and statement ends, and only as a last resort in
+ * the middle of a line.
+ *
+ * Every chunk after the first starts with a short context prefix (request
+ * line, key headers and, inside the response, its status line) so the model
+ * still knows which endpoint it is looking at, followed by a small overlap
+ * with the previous chunk.
+ */
 public class RequestChunker {
-    private static int MAX_TOKENS_PER_CHUNK = 8192; 
+    private static int MAX_TOKENS_PER_CHUNK = 8192;
+    private static int OVERLAP_TOKENS = 64;
 
    public static void setMaxTokensPerChunk(int size) {
      MAX_TOKENS_PER_CHUNK = size;
    }
-    private static final Pattern BOUNDARY_PATTERN = Pattern.compile(
-        "(?<=\\n\\n)|(?=\\n\\n)|(?<=\\})|(?=\\{)|(?<=;)|(?<=\\n)|(?=\\n)"
-    );
+
+   public static int getMaxTokensPerChunk() {
+     return MAX_TOKENS_PER_CHUNK;
+   }
+
+   public static void setOverlapTokens(int tokens) {
+     OVERLAP_TOKENS = Math.max(0, tokens);
+   }
+
+    private static final Pattern REQUEST_LINE = Pattern.compile("^[A-Z]+ \\S+ HTTP/\\d(?:\\.\\d)?");
+    private static final Pattern RESPONSE_LINE = Pattern.compile("(?m)^HTTP/\\d(?:\\.\\d)? \\d{3}[^\\r\\n]*");
+    private static final String[] KEY_REQUEST_HEADERS = {"host", "content-type", "origin"};
+    private static final String[] KEY_RESPONSE_HEADERS = {"content-type"};
+
+    // Cut quality, best first
+    private static final int CUT_BLANK_LINE = 0;
+    private static final int CUT_ELEMENT = 1;
+    private static final int CUT_LINE = 2;
+    private static final int CUT_STATEMENT = 3;
+    private static final int CUT_KINDS = 4;
 
     public static int estimateTokens(String text) {
-        if (text == null || text.isEmpty()) {
-            return 0;
-        }
-        return (int) Math.ceil(text.length() / 4.0);
+        return TokenCounters.DEFAULT.count(text);
     }
 
     public static List<String> chunkContent(String content, String prompt) {
+        return chunkContent(content, prompt, TokenCounters.DEFAULT);
+    }
+
+    public static List<String> chunkContent(String content, String prompt, TokenCounter tokenCounter) {
         List<String> chunks = new ArrayList<>();
         if (content == null || content.isEmpty()) {
             return chunks;
         }
 
-        int promptTokens = estimateTokens(prompt);
+        int promptTokens = tokenCounter.count(prompt);
         int maxContentTokens = MAX_TOKENS_PER_CHUNK - promptTokens;
 
         if (maxContentTokens <= 0) {
             return chunks;
         }
 
-        int totalContentTokens = estimateTokens(content);
+        int totalContentTokens = tokenCounter.count(content);
 
         if (totalContentTokens <= maxContentTokens) {
             chunks.add(content);
             return chunks;
         }
 
-        // Approximate character count for the max content tokens
-        int maxContentChars = maxContentTokens * 4;
+        // Characters per token of this content; minified JS or base64 packs far fewer than prose
+        double charsPerToken = Math.max(1.0, (double) content.length() / totalContentTokens);
+        int maxContentChars = (int) (maxContentTokens * charsPerToken);
 
-        // Explicit check to prevent negative or zero maxContentChars from causing issues
-        if (maxContentChars <= 0) {
-            return chunks;
+        MessageContext context = MessageContext.parse(content);
+        String requestPrefix = context.prefix(false);
+        String responsePrefix = context.prefix(true);
+        // A prefix that eats more than a quarter of the budget costs more than it helps
+        if (Math.max(requestPrefix.length(), responsePrefix.length()) > maxContentChars / 4) {
+            requestPrefix = "";
+            responsePrefix = "";
         }
 
-        int currentPos = 0;
-        while (currentPos < content.length()) {
-            int endPos = Math.min(currentPos + maxContentChars, content.length());
-            chunks.add(content.substring(currentPos, endPos));
-            currentPos = endPos;
+        int overlapChars = Math.min(OVERLAP_TOKENS * 4, maxContentChars / 4);
+
+        int start = 0;
+        while (start < content.length()) {
+            String prefix = "";
+            if (start > 0) {
+                prefix = start >= context.responseStart ? responsePrefix : requestPrefix;
+            }
+            int budget = maxContentChars - prefix.length();
+            int end = start + budget >= content.length() ? content.length() : findCut(content, start, start + budget);
+
+            // The average density can be off for a dense region; shrink the window until the chunk fits
+            String chunk = prefix + content.substring(start, end);
+            for (int attempt = 0; attempt < 4; attempt++) {
+                int chunkTokens = tokenCounter.count(chunk);
+                if (chunkTokens <= maxContentTokens || budget < 64) {
+                    break;
+                }
+                budget = (int) (budget * (maxContentTokens / (double) chunkTokens) * 0.95);
+                end = findCut(content, start, Math.min(content.length(), start + budget));
+                chunk = prefix + content.substring(start, end);
+            }
+
+            chunks.add(chunk);
+            if (end >= content.length()) {
+                break;
+            }
+            start = overlapStart(content, start, end, overlapChars);
         }
 
         return chunks;
     }
 
-    private static List<String> splitLongString(String str) {
-        List<String> chunks = new ArrayList<>();
-        int length = str.length();
-        for (int i = 0; i < length; i += (MAX_TOKENS_PER_CHUNK * 4)) {
-            chunks.add(str.substring(i, Math.min(length, i + (MAX_TOKENS_PER_CHUNK * 4))));
+    /**
+     * Scans [start, limit) once, remembering the last cut of each kind, and
+     * returns the best one that still leaves the chunk at least half full.
+     */
+    private static int findCut(String content, int start, int limit) {
+        int[] lastCut = new int[CUT_KINDS];
+        Arrays.fill(lastCut, -1);
+        int tagStart = -1;
+
+        for (int i = start; i < limit; i++) {
+            char c = content.charAt(i);
+            switch (c) {
+                case '\n':
+                    lastCut[CUT_LINE] = i + 1;
+                    if (isBlankLineEnd(content, i, start)) {
+                        lastCut[CUT_BLANK_LINE] = i + 1;
+                    }
+                    break;
+                case '<':
+                    tagStart = i;
+                    break;
+                case '>':
+                    // After a closing tag or a self-closing element
+                    if (tagStart >= 0 && (content.charAt(Math.min(tagStart + 1, i)) == '/' || content.charAt(i - 1) == '/')) {
+                        lastCut[CUT_ELEMENT] = i + 1;
+                    }
+                    tagStart = -1;
+                    break;
+                case ',':
+                    // Between two JSON values: "},{" or "],["
+                    if (i > start && (content.charAt(i - 1) == '}' || content.charAt(i - 1) == ']')) {
+                        lastCut[CUT_ELEMENT] = i + 1;
+                    }
+                    break;
+                case ';':
+                case '}':
+                    lastCut[CUT_STATEMENT] = i + 1;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        int minEnd = start + (limit - start) / 2;
+        for (int kind = 0; kind < CUT_KINDS; kind++) {
+            if (lastCut[kind] > minEnd) {
+                return lastCut[kind];
+            }
+        }
+        return limit;
+    }
+
+    private static boolean isBlankLineEnd(String content, int newline, int floor) {
+        int j = newline - 1;
+        if (j >= floor && content.charAt(j) == '\r') {
+            j--;
+        }
+        return j >= floor && content.charAt(j) == '\n';
+    }
+
+    /**
+     * Steps back by the overlap, then forward to the nearest line start (or,
+     * in minified content, element boundary) so the overlap never begins in
+     * the middle of a token.
+     */
+    private static int overlapStart(String content, int start, int end, int overlapChars) {
+        if (overlapChars <= 0) {
+            return end;
+        }
+        int next = Math.max(start + 1, end - overlapChars);
+        int elementStart = -1;
+        for (int i = next; i < end; i++) {
+            char c = content.charAt(i - 1);
+            if (c == '\n') {
+                return i;
+            }
+            if (elementStart < 0 && i >= 2 && c == ',' && (content.charAt(i - 2) == '}' || content.charAt(i - 2) == ']')) {
+                elementStart = i;
+            }
+        }
+        return elementStart >= 0 ? elementStart : next;
+    }
+
+    /** Request line, status line and the headers worth repeating in every chunk. */
+    private static class MessageContext {
+        String requestLine = "";
+        final List<String> requestHeaders = new ArrayList<>();
+        String statusLine = "";
+        final List<String> responseHeaders = new ArrayList<>();
+        int responseStart = Integer.MAX_VALUE;
+
+        static MessageContext parse(String content) {
+            MessageContext ctx = new MessageContext();
+            int headEnd = 0;
+            if (REQUEST_LINE.matcher(content).lookingAt()) {
+                int lineEnd = lineEnd(content, 0);
+                ctx.requestLine = content.substring(0, lineEnd).trim();
+                headEnd = readHeaders(content, lineEnd, KEY_REQUEST_HEADERS, ctx.requestHeaders);
+            }
+
+            Matcher status = RESPONSE_LINE.matcher(content);
+            if (status.find(headEnd)) {
+                ctx.responseStart = status.start();
+                ctx.statusLine = status.group().trim();
+                readHeaders(content, status.end(), KEY_RESPONSE_HEADERS, ctx.responseHeaders);
+            }
+            return ctx;
+        }
+
+        String prefix(boolean inResponse) {
+            if (requestLine.isEmpty() && statusLine.isEmpty()) {
+                return "";
+            }
+            StringBuilder sb = new StringBuilder("[Context from earlier chunk]\n");
+            if (!requestLine.isEmpty()) {
+                sb.append(requestLine).append('\n');
+                requestHeaders.forEach(h -> sb.append(h).append('\n'));
+            }
+            if (inResponse && !statusLine.isEmpty()) {
+                sb.append(statusLine).append('\n');
+                responseHeaders.forEach(h -> sb.append(h).append('\n'));
+            }
+            return sb.append("[Continued]\n").toString();
+        }
+
+        /** Collects the wanted headers and returns the offset just past the blank line ending the block. */
+        private static int readHeaders(String content, int pos, String[] wanted, List<String> out) {
+            while (pos < content.length()) {
+                if (content.charAt(pos) == '\r') pos++;
+                if (pos < content.length() && content.charAt(pos) == '\n') pos++;
+                int lineEnd = lineEnd(content, pos);
+                String line = content.substring(pos, lineEnd).trim();
+                if (line.isEmpty()) {
+                    return lineEnd;
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    for (String w : wanted) {
+                        if (w.equals(name)) {
+                            out.add(line);
+                        }
+                    }
+                }
+                pos = lineEnd;
+            }
+            return pos;
+        }
+
+        private static int lineEnd(String content, int from) {
+            int nl = content.indexOf('\n', from);
+            return nl < 0 ? content.length() : nl;
         }
-        return chunks;
     }
 
     public static String extractHighlightedPortion(String content, int selectionStart, int selectionEnd) {
@@ -83,4 +290,4 @@ public class RequestChunker {
 
         return content.substring(selectionStart, selectionEnd);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,303 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+/**
+ * Groups near-duplicate request/response pairs so that only one representative
+ * per group is audited. Each pair is reduced to a shape: its route (method,
+ * host and path with ids, UUIDs and tokens masked) plus a 64-bit SimHash over
+ * parameter and header names, status, content type and body structure
+ * (JSON keys, HTML tag sequence or masked text). Values are never part of the
+ * shape, so different ids, timestamps or CSRF tokens do not split a group.
+ *
+ * Two pairs are near-duplicates when their routes match and their SimHashes
+ * differ in at most {@value #MAX_HAMMING_DISTANCE} bits. Lookups go through a
+ * banded LSH index: with 4 bands of 16 bits, any two hashes within 3 bits of
+ * each other share at least one band exactly.
+ *
+ * Shapes that were audited in earlier scans can be kept as "known" and
+ * serialized, so repeat scans skip them.
+ */
+public class RequestDeduplicator {
+    static final int MAX_HAMMING_DISTANCE = 3;
+    private static final int BANDS = 4;
+    private static final int BAND_BITS = 64 / BANDS;
+    private static final int MAX_BODY_CHARS = 64 * 1024;
+    private static final int MAX_KNOWN_SHAPES = 50000;
+
+    private static final Pattern UUID = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+    private static final Pattern HEX = Pattern.compile("[0-9a-fA-F]{16,}");
+    private static final Pattern TOKEN = Pattern.compile("[A-Za-z0-9_\\-]{24,}={0,2}");
+    private static final Pattern JSON_KEY = Pattern.compile("\"([^\"\\\\]{1,64})\"\\s*:");
+    private static final Pattern HTML_TAG = Pattern.compile("<(/?[a-zA-Z][a-zA-Z0-9-]*)");
+    private static final Pattern WORD = Pattern.compile("[A-Za-z_]{2,}");
+
+    /** The structural fingerprint of one request/response pair. */
+    public static class Shape {
+        final String route;
+        final long simHash;
+
+        public Shape(String route, long simHash) {
+            this.route = route;
+            this.simHash = simHash;
+        }
+
+        boolean nearDuplicateOf(Shape other) {
+            return route.equals(other.route) && Long.bitCount(simHash ^ other.simHash) <= MAX_HAMMING_DISTANCE;
+        }
+    }
+
+    /** A representative, the near-duplicates it stands for (itself included) and its shape. */
+    public static class Cluster<T> {
+        public final T representative;
+        public final List<T> members = new ArrayList<>();
+        public final Shape shape;
+
+        Cluster(T representative, Shape shape) {
+            this.representative = representative;
+            this.shape = shape;
+            members.add(representative);
+        }
+    }
+
+    public static class Result<T> {
+        public final List<Cluster<T>> clusters = new ArrayList<>();
+        public int skippedKnown = 0;
+
+        /** Maps each representative to every member of its cluster. */
+        public Map<T, List<T>> membersByRepresentative() {
+            Map<T, List<T>> members = new IdentityHashMap<>();
+            clusters.forEach(c -> members.put(c.representative, c.members));
+            return members;
+        }
+    }
+
+    private final Map<String, List<Shape>> knownIndex = new HashMap<>();
+    private final Set<String> knownShapes = new LinkedHashSet<>();
+
+    /**
+     * Clusters {@code items} by shape, in order; the first item of each cluster is
+     * its representative. With {@code skipKnown}, items matching a shape from an
+     * earlier scan are dropped.
+     */
+    public <T> Result<T> cluster(List<T> items, Function<T, Shape> shapeOf, boolean skipKnown) {
+        Result<T> result = new Result<>();
+        Map<String, List<Cluster<T>>> index = new HashMap<>();
+        for (T item : items) {
+            Shape shape = shapeOf.apply(item);
+            if (skipKnown && isKnown(shape)) {
+                result.skippedKnown++;
+                continue;
+            }
+            Cluster<T> match = null;
+            for (String key : bandKeys(shape)) {
+                for (Cluster<T> candidate : index.getOrDefault(key, List.of())) {
+                    if (candidate.shape.nearDuplicateOf(shape)) {
+                        match = candidate;
+                        break;
+                    }
+                }
+                if (match != null) {
+                    break;
+                }
+            }
+            if (match != null) {
+                match.members.add(item);
+            } else {
+                Cluster<T> created = new Cluster<>(item, shape);
+                result.clusters.add(created);
+                for (String key : bandKeys(shape)) {
+                    index.computeIfAbsent(key, k -> new ArrayList<>()).add(created);
+                }
+            }
+        }
+        return result;
+    }
+
+    public synchronized boolean isKnown(Shape shape) {
+        for (String key : bandKeys(shape)) {
+            for (Shape known : knownIndex.getOrDefault(key, List.of())) {
+                if (known.nearDuplicateOf(shape)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Records an audited shape so later scans can skip it. */
+    public synchronized void remember(Shape shape) {
+        if (isKnown(shape) || knownShapes.size() >= MAX_KNOWN_SHAPES) {
+            return;
+        }
+        knownShapes.add(Long.toHexString(shape.simHash) + " " + shape.route);
+        for (String key : bandKeys(shape)) {
+            knownIndex.computeIfAbsent(key, k -> new ArrayList<>()).add(shape);
+        }
+    }
+
+    public synchronized int knownCount() {
+        return knownShapes.size();
+    }
+
+    public synchronized void clearKnown() {
+        knownShapes.clear();
+        knownIndex.clear();
+    }
+
+    /** One "simhash route" line per known shape. */
+    public synchronized String serializeKnown() {
+        return String.join("\n", knownShapes);
+    }
+
+    public synchronized void loadKnown(String serialized) {
+        if (serialized == null || serialized.isEmpty()) {
+            return;
+        }
+        for (String line : serialized.split("\n")) {
+            int space = line.indexOf(' ');
+            if (space <= 0) {
+                continue;
+            }
+            try {
+                remember(new Shape(line.substring(space + 1), Long.parseUnsignedLong(line.substring(0, space), 16)));
+            } catch (NumberFormatException e) {
+                // skip corrupt entry
+            }
+        }
+    }
+
+    private static String[] bandKeys(Shape shape) {
+        String[] keys = new String[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            long bits = (shape.simHash >>> (band * BAND_BITS)) & ((1L << BAND_BITS) - 1);
+            keys[band] = band + ":" + bits + ":" + shape.route;
+        }
+        return keys;
+    }
+
+    /** Computes the shape of a request/response pair. */
+    public static Shape shapeOf(HttpRequestResponse reqRes) {
+        HttpRequest request = reqRes.request();
+        HttpResponse response = reqRes.response();
+        String route = request.method() + " " + request.httpService().host() + maskPath(request.pathWithoutQuery());
+
+        List<String> features = new ArrayList<>();
+        features.add("route:" + route);
+        for (ParsedHttpParameter parameter : request.parameters()) {
+            features.add("param:" + parameter.type() + ":" + parameter.name());
+        }
+        for (HttpHeader header : request.headers()) {
+            features.add("reqh:" + header.name().toLowerCase(Locale.ROOT));
+        }
+        addBodyFeatures(features, "req", request.bodyToString());
+
+        if (response != null) {
+            features.add("status:" + response.statusCode());
+            features.add("mime:" + response.statedMimeType());
+            for (HttpHeader header : response.headers()) {
+                features.add("resh:" + header.name().toLowerCase(Locale.ROOT));
+            }
+            addBodyFeatures(features, "res", response.bodyToString());
+        }
+        return new Shape(route, simHash(features));
+    }
+
+    /** Masks ids, UUIDs, long hex strings and tokens in each path segment. */
+    static String maskPath(String path) {
+        String[] segments = path.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (UUID.matcher(segment).matches()) {
+                segments[i] = "{uuid}";
+            } else if (HEX.matcher(segment).matches()) {
+                segments[i] = "{hex}";
+            } else if (TOKEN.matcher(segment).matches()) {
+                segments[i] = "{token}";
+            } else {
+                segments[i] = NUMBER.matcher(segment).replaceAll("{n}");
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    private static void addBodyFeatures(List<String> features, String side, String body) {
+        if (body == null || body.isEmpty()) {
+            return;
+        }
+        String b = body.length() > MAX_BODY_CHARS ? body.substring(0, MAX_BODY_CHARS) : body;
+        String trimmed = b.trim();
+        if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            Matcher m = JSON_KEY.matcher(b);
+            while (m.find()) {
+                features.add(side + ".key:" + m.group(1));
+            }
+            return;
+        }
+        Matcher tags = HTML_TAG.matcher(b);
+        String prev1 = "";
+        String prev2 = "";
+        boolean anyTag = false;
+        while (tags.find()) {
+            anyTag = true;
+            String tag = tags.group(1).toLowerCase(Locale.ROOT);
+            features.add(side + ".tags:" + prev2 + ">" + prev1 + ">" + tag);
+            prev2 = prev1;
+            prev1 = tag;
+        }
+        if (anyTag) {
+            return;
+        }
+        Matcher words = WORD.matcher(b);
+        while (words.find()) {
+            features.add(side + ".word:" + words.group());
+        }
+    }
+
+    static long simHash(List<String> features) {
+        int[] weights = new int[64];
+        for (String feature : features) {
+            long h = hash64(feature);
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((h >>> bit) & 1) != 0 ? 1 : -1;
+            }
+        }
+        long simHash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                simHash |= 1L << bit;
+            }
+        }
+        return simHash;
+    }
+
+    /** FNV-1a 64 with a final avalanche so similar strings spread over all bits. */
+    private static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
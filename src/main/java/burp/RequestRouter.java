@@ -0,0 +1,218 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Sends one audit call along a chain of models: the selected model first, then
+ * the configured fallbacks. If a model fails (retries exhausted, keys rejected,
+ * provider down) the call fails over to the next one. With hedging, a call that
+ * is still running after the primary model's usual p95 latency is also sent to
+ * the next model, the first answer wins and the other call is cancelled, which
+ * cuts the tail a slow or browned-out provider would otherwise add.
+ *
+ * Hedges are capped at a share of all calls, so a provider that slows down for
+ * everyone does not get twice the load.
+ */
+public class RequestRouter {
+    private static final double HEDGE_PERCENTILE = 0.95;
+    // Until a model has this many calls its p95 is a guess; the default delay is used instead
+    private static final long MIN_LATENCY_SAMPLES = 20;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 15000;
+    private static final long MIN_HEDGE_DELAY_MS = 500;
+    // At most this share of calls may be hedged, plus a small allowance for the first calls
+    private static final double HEDGE_BUDGET = 0.1;
+    private static final int HEDGE_BURST = 3;
+
+    /** The answer and the model that gave it. */
+    public static final class Routed<T> {
+        private final String model;
+        private final T value;
+
+        Routed(String model, T value) {
+            this.model = model;
+            this.value = value;
+        }
+
+        public String model() {
+            return model;
+        }
+
+        public T value() {
+            return value;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final AuditMetrics metrics;
+    private final AsyncLogAppender log;
+    private long routedCalls = 0;
+    private long hedgedCalls = 0;
+
+    public RequestRouter(ScheduledExecutorService scheduler, AuditMetrics metrics, AsyncLogAppender log) {
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.log = log;
+    }
+
+    /**
+     * Calls {@code send} with the first model of {@code chain}, failing over to
+     * the next on failure. With {@code hedge}, also calls the next model once the
+     * first call has run longer than its p95. Cancelling the returned future
+     * cancels every call still running. {@code send} is told whether the call is
+     * a hedge, which runs alongside the primary and may lose to it.
+     */
+    public <T> CompletableFuture<Routed<T>> route(List<String> chain, boolean hedge,
+                                                  BiFunction<String, Boolean, CompletableFuture<T>> send) {
+        CompletableFuture<Routed<T>> result = new CompletableFuture<>();
+        if (chain.isEmpty()) {
+            result.completeExceptionally(new IllegalArgumentException("No model to send the call to"));
+            return result;
+        }
+        RoutedCall<T> call = new RoutedCall<>(new ArrayList<>(chain), send, result);
+        result.whenComplete((value, error) -> call.cancelRunning());
+        countCall();
+        call.launchNext(false);
+        if (hedge && chain.size() > 1) {
+            long delayMs = hedgeDelayMillis(chain.get(0));
+            scheduler.schedule(() -> {
+                if (call.isOnlyPrimaryRunning() && tryTakeHedge()) {
+                    metrics.recordHedgeSent();
+                    log.output("Hedging: " + chain.get(0) + " slower than " + delayMs + " ms, also sending to " + chain.get(1));
+                    call.launchHedge();
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+
+    /** How long the primary may run before it is hedged: its p95 latency so far. */
+    long hedgeDelayMillis(String model) {
+        double p95 = metrics.latencyPercentileMillis(model, HEDGE_PERCENTILE, MIN_LATENCY_SAMPLES);
+        return p95 < 0 ? DEFAULT_HEDGE_DELAY_MS : Math.max(MIN_HEDGE_DELAY_MS, (long) p95);
+    }
+
+    private synchronized void countCall() {
+        routedCalls++;
+    }
+
+    /** Uses up one hedge if fewer than the budgeted share of calls were hedged so far. */
+    private synchronized boolean tryTakeHedge() {
+        if (hedgedCalls >= HEDGE_BUDGET * routedCalls + HEDGE_BURST) {
+            return false;
+        }
+        hedgedCalls++;
+        return true;
+    }
+
+    /** State of one routed call: the chain position and the calls in flight. */
+    private final class RoutedCall<T> {
+        private final List<String> chain;
+        private final BiFunction<String, Boolean, CompletableFuture<T>> send;
+        private final CompletableFuture<Routed<T>> result;
+        private final List<CompletableFuture<T>> running = new ArrayList<>();
+        private int next = 0;
+        // Calls started and not finished, including one being launched but not yet in running
+        private int active = 0;
+        private boolean hedged = false;
+        private Throwable lastError;
+
+        RoutedCall(List<String> chain, BiFunction<String, Boolean, CompletableFuture<T>> send, CompletableFuture<Routed<T>> result) {
+            this.chain = chain;
+            this.send = send;
+            this.result = result;
+        }
+
+        synchronized boolean isOnlyPrimaryRunning() {
+            return !result.isDone() && next == 1 && active == 1;
+        }
+
+        /** Sends the call to the second model while the primary keeps running. */
+        void launchHedge() {
+            synchronized (this) {
+                hedged = true;
+            }
+            launchNext(true);
+        }
+
+        /** Starts the next model of the chain; fails the result if there is none left. */
+        void launchNext(boolean asHedge) {
+            String model;
+            int index;
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                if (next >= chain.size()) {
+                    if (active == 0) {
+                        result.completeExceptionally(lastError != null ? lastError
+                                : new IllegalStateException("No model left to send the call to"));
+                    }
+                    return;
+                }
+                index = next++;
+                model = chain.get(index);
+                active++;
+            }
+            CompletableFuture<T> call;
+            try {
+                call = send.apply(model, asHedge);
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            synchronized (this) {
+                running.add(call);
+            }
+            if (result.isDone()) {
+                call.cancel(true); // the result was settled while this call was being started
+            }
+            CompletableFuture<T> started = call;
+            call.whenComplete((value, error) -> onDone(started, model, index, value, error));
+        }
+
+        private void onDone(CompletableFuture<T> call, String model, int index, T value, Throwable error) {
+            boolean hedgeAnswered;
+            boolean failOver;
+            String nextModel;
+            synchronized (this) {
+                running.remove(call);
+                active--;
+                hedgeAnswered = hedged && index == 1;
+                if (error == null) {
+                    failOver = false;
+                    nextModel = null;
+                } else {
+                    lastError = RetryPolicy.unwrap(error);
+                    // While a hedge is still running it may yet answer; fail over only once nothing is left
+                    failOver = active == 0 && !result.isDone();
+                    nextModel = next < chain.size() ? chain.get(next) : null;
+                }
+            }
+            if (error == null) {
+                if (result.complete(new Routed<>(model, value)) && hedgeAnswered) {
+                    metrics.recordHedgeWon();
+                }
+                return;
+            }
+            if (failOver) {
+                if (nextModel != null) {
+                    metrics.recordFailover();
+                    log.output("Failover: " + model + " failed (" + lastError.getMessage() + "), trying " + nextModel);
+                }
+                launchNext(false);
+            }
+        }
+
+        void cancelRunning() {
+            List<CompletableFuture<T>> toCancel;
+            synchronized (this) {
+                toCancel = new ArrayList<>(running);
+            }
+            toCancel.forEach(call -> call.cancel(true));
+        }
+    }
+}
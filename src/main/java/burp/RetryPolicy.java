@@ -0,0 +1,306 @@
+package burp;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Decides whether and when a failed provider call is tried again, and runs the
+ * attempts. Failures are classified by HTTP status and the provider's error
+ * type, never by message text. The wait before a retry is the provider's
+ * Retry-After (or rate-limit reset) when it sent one, otherwise exponential
+ * backoff with full jitter, so workers hit by the same brown-out spread out
+ * instead of retrying in lockstep. Waits run on a timer; no thread sleeps.
+ */
+public class RetryPolicy {
+    // Longest server-requested wait we honour; beyond it the call fails instead
+    private static final long MAX_SERVER_DELAY_MS = 300_000;
+
+    public enum Outcome {
+        /** 429 or a rate-limit error type: retry after the provider's reset time. */
+        RATE_LIMITED(true),
+        /** Timeouts, dropped connections, 408, 409, 5xx and overload errors: retry with backoff. */
+        TRANSIENT(true),
+        /** 401, 403, an invalid key or an exhausted quota: this key will not work, another might. */
+        KEY_REJECTED(false),
+        /** Bad request, unparseable response and everything else: retrying sends the same failure again. */
+        FATAL(false);
+
+        private final boolean retryable;
+
+        Outcome(boolean retryable) {
+            this.retryable = retryable;
+        }
+
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+
+    /** A classified failure and the wait before retrying it. */
+    public static final class Failure {
+        private final Outcome outcome;
+        private final Throwable cause;
+        private final long delayMillis;
+        private final boolean serverDelay;
+
+        Failure(Outcome outcome, Throwable cause, long delayMillis, boolean serverDelay) {
+            this.outcome = outcome;
+            this.cause = cause;
+            this.delayMillis = delayMillis;
+            this.serverDelay = serverDelay;
+        }
+
+        public Outcome outcome() {
+            return outcome;
+        }
+
+        public Throwable cause() {
+            return cause;
+        }
+
+        public long delayMillis() {
+            return delayMillis;
+        }
+
+        /** True if the delay came from Retry-After or a reset header rather than backoff. */
+        public boolean isServerDelay() {
+            return serverDelay;
+        }
+
+        /** HTTP status of the failed call, or 0 if no response arrived. */
+        public int statusCode() {
+            return cause instanceof ProviderApiException ? ((ProviderApiException) cause).statusCode() : 0;
+        }
+    }
+
+    /**
+     * Called before each retry with the classified failure. Returns the wait
+     * before the retry in milliseconds, normally {@link Failure#delayMillis()},
+     * or a negative value to give up instead.
+     */
+    public interface RetryHook {
+        long beforeRetry(int attempt, Failure failure);
+    }
+
+    /** Retries exactly the failures classified as retryable, after the policy's delay. */
+    public static final RetryHook RETRYABLE_ONLY = (attempt, failure) -> failure.outcome().isRetryable() ? failure.delayMillis() : -1;
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    /**
+     * @param maxAttempts total attempts, the first one included
+     * @param baseDelayMs backoff before the first retry (upper bound of its jitter range)
+     * @param maxDelayMs  cap on the backoff, however many attempts were made
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Runs {@code attempt} (called with 0, 1, ...) until it succeeds, a failure
+     * is not retried or the attempts run out. Between attempts the hook is asked
+     * and the wait is scheduled on {@code scheduler}. Cancelling the returned
+     * future cancels the attempt in flight and any retry still waiting.
+     */
+    public <T> CompletableFuture<T> execute(IntFunction<CompletableFuture<T>> attempt,
+                                            ScheduledExecutorService scheduler, RetryHook hook) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> current = new AtomicReference<>();
+        result.whenComplete((value, error) -> {
+            CompletableFuture<T> call = current.get();
+            if (call != null && result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        run(attempt, 0, scheduler, hook, result, current);
+        return result;
+    }
+
+    private <T> void run(IntFunction<CompletableFuture<T>> attempt, int n, ScheduledExecutorService scheduler,
+                         RetryHook hook, CompletableFuture<T> result, AtomicReference<CompletableFuture<T>> current) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<T> call;
+        try {
+            call = attempt.apply(n);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        current.set(call);
+        if (result.isCancelled()) {
+            call.cancel(true); // cancelled while this attempt was being started
+        }
+        call.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+            Throwable cause = unwrap(error);
+            Failure failure = classify(cause, n);
+            long delayMs = n + 1 >= maxAttempts ? -1 : hook.beforeRetry(n + 1, failure);
+            if (delayMs < 0 || delayMs > MAX_SERVER_DELAY_MS) {
+                result.completeExceptionally(n + 1 >= maxAttempts && failure.outcome().isRetryable()
+                        ? new Exception("Failed after " + maxAttempts + " attempts", cause) : cause);
+                return;
+            }
+            try {
+                scheduler.schedule(() -> run(attempt, n + 1, scheduler, hook, result, current), delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(cause); // shutting down
+            }
+        });
+    }
+
+    /** Classifies a failed call and works out how long to wait before retry number {@code attempt + 1}. */
+    public Failure classify(Throwable error, int attempt) {
+        Throwable cause = unwrap(error);
+        Outcome outcome = outcomeOf(cause);
+        if (outcome == Outcome.KEY_REJECTED) {
+            return new Failure(outcome, cause, 0, false); // a different key can be tried right away
+        }
+        if (cause instanceof ProviderApiException) {
+            Long serverDelay = serverDelayMillis((ProviderApiException) cause);
+            if (serverDelay != null) {
+                // A little jitter on top, so everyone told "retry in 10s" does not return in the same millisecond
+                return new Failure(outcome, cause, serverDelay + ThreadLocalRandom.current().nextLong(baseDelayMs / 4 + 1), true);
+            }
+        }
+        return new Failure(outcome, cause, backoffMillis(attempt), false);
+    }
+
+    /** Full jitter: uniform between 0 and min(cap, base * 2^attempt). */
+    long backoffMillis(int attempt) {
+        long ceiling = baseDelayMs << Math.min(attempt, 20);
+        if (ceiling <= 0 || ceiling > maxDelayMs) {
+            ceiling = maxDelayMs;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    static Outcome outcomeOf(Throwable cause) {
+        if (cause instanceof ProviderApiException) {
+            ProviderApiException api = (ProviderApiException) cause;
+            String type = api.errorType().toLowerCase(Locale.ROOT);
+            int status = api.statusCode();
+            if (type.contains("insufficient_quota") || type.contains("api_key_invalid")
+                    || type.contains("authentication_error") || type.contains("invalid_api_key")
+                    || type.contains("permission_error") || type.contains("billing")
+                    || status == 401 || status == 402 || status == 403) {
+                return Outcome.KEY_REJECTED;
+            }
+            if (status == 429 || type.contains("rate_limit") || type.contains("resource_exhausted")) {
+                return Outcome.RATE_LIMITED;
+            }
+            if (status == 408 || status == 409 || status >= 500 || type.contains("overloaded")
+                    || type.contains("unavailable") || type.contains("timeout")) {
+                return Outcome.TRANSIENT;
+            }
+            return Outcome.FATAL;
+        }
+        // No response at all: timeout, reset, refused, DNS. The provider may be fine a moment later.
+        if (cause instanceof IOException) {
+            return Outcome.TRANSIENT;
+        }
+        return Outcome.FATAL;
+    }
+
+    /**
+     * The wait the provider asked for: Retry-After in seconds or as an HTTP
+     * date, OpenAI's retry-after-ms, or else the reset time of whichever
+     * rate-limit budget the headers show as used up.
+     */
+    static Long serverDelayMillis(ProviderApiException error) {
+        String retryAfterMs = error.header("retry-after-ms");
+        if (retryAfterMs != null) {
+            try {
+                return Math.max(0, (long) Double.parseDouble(retryAfterMs.trim()));
+            } catch (NumberFormatException e) {
+                // fall through to Retry-After
+            }
+        }
+        String retryAfter = error.header("retry-after");
+        if (retryAfter != null) {
+            Long parsed = parseRetryAfter(retryAfter);
+            if (parsed != null) {
+                return parsed;
+            }
+        }
+        Long requestReset = exhausted(error, "x-ratelimit-remaining-requests", "anthropic-ratelimit-requests-remaining")
+                ? ProviderRateLimiter.resetMillis(error.headers(), "x-ratelimit-reset-requests", "anthropic-ratelimit-requests-reset")
+                : null;
+        Long tokenReset = exhausted(error, "x-ratelimit-remaining-tokens", "anthropic-ratelimit-input-tokens-remaining",
+                "anthropic-ratelimit-output-tokens-remaining", "anthropic-ratelimit-tokens-remaining")
+                ? ProviderRateLimiter.resetMillis(error.headers(), "x-ratelimit-reset-tokens", "anthropic-ratelimit-input-tokens-reset",
+                        "anthropic-ratelimit-output-tokens-reset", "anthropic-ratelimit-tokens-reset")
+                : null;
+        if (requestReset == null) {
+            return tokenReset;
+        }
+        return tokenReset == null ? requestReset : Math.max(requestReset, tokenReset);
+    }
+
+    /** Retry-After is either delta-seconds or an HTTP date (RFC 7231 section 7.1.3). */
+    static Long parseRetryAfter(String value) {
+        String v = value.trim();
+        try {
+            return Math.max(0, (long) (Double.parseDouble(v) * 1000));
+        } catch (NumberFormatException e) {
+            // not seconds
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static boolean exhausted(ProviderApiException error, String... remainingHeaders) {
+        for (String name : remainingHeaders) {
+            String remaining = error.header(name);
+            if (remaining != null) {
+                try {
+                    if (Double.parseDouble(remaining.trim()) < 1) {
+                        return true;
+                    }
+                } catch (NumberFormatException e) {
+                    // ignore malformed values
+                }
+            }
+        }
+        return false;
+    }
+
+    static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,193 @@
+package burp;
+
+import java.util.function.Consumer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Decodes a provider's server-sent-events stream line by line. Text deltas are
+ * forwarded to a sink as they arrive and accumulated, so that once the stream
+ * ends {@link #toResponse()} can rebuild a body in the provider's regular
+ * (non-streaming) shape for the existing response handling.
+ *
+ * Supported streams: OpenAI-compatible chat completions (openai, openrouter,
+ * local), Claude messages and Gemini streamGenerateContent with alt=sse.
+ */
+public class SseResponseDecoder implements Consumer<String> {
+    private final String provider;
+    private final Consumer<String> textSink;
+    private final StringBuilder text = new StringBuilder();
+    private String model = "";
+    // Token usage as reported in the stream, in the provider's non-streaming field layout
+    private JSONObject usage;
+    // Why the provider ended the answer, null if the stream stopped before saying so
+    private String stopReason;
+
+    public SseResponseDecoder(String provider, Consumer<String> textSink) {
+        this.provider = provider;
+        this.textSink = textSink;
+    }
+
+    @Override
+    public void accept(String line) {
+        // Only "data:" lines carry payloads; "event:", "id:" and ":" comment/keep-alive lines are skipped
+        if (line == null || !line.startsWith("data:")) {
+            return;
+        }
+        String data = line.substring(5).trim();
+        if (data.isEmpty() || "[DONE]".equals(data)) {
+            return;
+        }
+
+        JSONObject event;
+        try {
+            event = new JSONObject(data);
+        } catch (JSONException e) {
+            return;
+        }
+
+        String delta = extractDelta(event);
+        if (delta != null && !delta.isEmpty()) {
+            text.append(delta);
+            if (textSink != null) {
+                textSink.accept(delta);
+            }
+        }
+    }
+
+    private String extractDelta(JSONObject event) {
+        switch (provider) {
+            case "claude":
+                if ("message_start".equals(event.optString("type"))) {
+                    JSONObject message = event.optJSONObject("message");
+                    if (message != null) {
+                        model = message.optString("model", model);
+                        usage = message.optJSONObject("usage");
+                    }
+                    return null;
+                }
+                if ("message_delta".equals(event.optString("type"))) {
+                    JSONObject messageDelta = event.optJSONObject("delta");
+                    if (messageDelta != null && !messageDelta.isNull("stop_reason")) {
+                        stopReason = messageDelta.optString("stop_reason", null);
+                    }
+                    if (!event.has("usage")) {
+                        return null;
+                    }
+                    // Output tokens arrive at the end; input tokens were in message_start
+                    JSONObject finalUsage = event.getJSONObject("usage");
+                    if (usage == null) {
+                        usage = new JSONObject();
+                    }
+                    for (String key : finalUsage.keySet()) {
+                        usage.put(key, finalUsage.get(key));
+                    }
+                    return null;
+                }
+                if ("content_block_delta".equals(event.optString("type"))) {
+                    JSONObject delta = event.optJSONObject("delta");
+                    return delta != null ? delta.optString("text", "") : null;
+                }
+                return null;
+
+            case "gemini":
+                if (event.has("modelVersion")) {
+                    model = event.optString("modelVersion", model);
+                }
+                if (event.has("usageMetadata")) {
+                    usage = event.optJSONObject("usageMetadata"); // cumulative, the last one wins
+                }
+                JSONArray candidates = event.optJSONArray("candidates");
+                if (candidates == null || candidates.length() == 0) {
+                    return null;
+                }
+                if (candidates.getJSONObject(0).has("finishReason")) {
+                    stopReason = candidates.getJSONObject(0).optString("finishReason");
+                }
+                JSONObject content = candidates.getJSONObject(0).optJSONObject("content");
+                JSONArray parts = content != null ? content.optJSONArray("parts") : null;
+                if (parts == null) {
+                    return null;
+                }
+                StringBuilder partsText = new StringBuilder();
+                for (int i = 0; i < parts.length(); i++) {
+                    JSONObject part = parts.optJSONObject(i);
+                    if (part != null) {
+                        partsText.append(part.optString("text", ""));
+                    }
+                }
+                return partsText.toString();
+
+            case "openai":
+            case "openrouter":
+            case "local":
+            default:
+                if (event.has("model")) {
+                    model = event.optString("model", model);
+                }
+                if (event.optJSONObject("usage") != null) {
+                    usage = event.getJSONObject("usage"); // final chunk when stream_options.include_usage is set
+                }
+                JSONArray choices = event.optJSONArray("choices");
+                if (choices == null || choices.length() == 0) {
+                    return null;
+                }
+                if (!choices.getJSONObject(0).isNull("finish_reason")) {
+                    stopReason = choices.getJSONObject(0).optString("finish_reason", null);
+                }
+                JSONObject deltaObj = choices.getJSONObject(0).optJSONObject("delta");
+                return deltaObj != null ? deltaObj.optString("content", "") : null;
+        }
+    }
+
+    /** The model reported by the stream, or an empty string if none was seen yet. */
+    public String model() {
+        return model;
+    }
+
+    /** The full text received so far. */
+    public String text() {
+        return text.toString();
+    }
+
+    /**
+     * Rebuilds the stream as a non-streaming response body for this provider,
+     * usage and stop reason included if they were reported.
+     */
+    public JSONObject toResponse() {
+        String fullText = text.toString();
+        switch (provider) {
+            case "claude":
+                return new JSONObject()
+                        .put("model", model)
+                        .putOpt("usage", usage)
+                        .putOpt("stop_reason", stopReason)
+                        .put("content", new JSONArray()
+                                .put(new JSONObject()
+                                        .put("type", "text")
+                                        .put("text", fullText)));
+            case "gemini":
+                return new JSONObject()
+                        .put("modelVersion", model)
+                        .putOpt("usageMetadata", usage)
+                        .put("candidates", new JSONArray()
+                                .put(new JSONObject()
+                                        .putOpt("finishReason", stopReason)
+                                        .put("content", new JSONObject()
+                                                .put("parts", new JSONArray()
+                                                        .put(new JSONObject().put("text", fullText))))));
+            default:
+                return new JSONObject()
+                        .put("model", model)
+                        .putOpt("usage", usage)
+                        .put("choices", new JSONArray()
+                                .put(new JSONObject()
+                                        .putOpt("finish_reason", stopReason)
+                                        .put("message", new JSONObject()
+                                                .put("role", "assistant")
+                                                .put("content", fullText))));
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package burp;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional per-stage timing of the audit pipeline. While disabled, {@link #start()}
+ * returns 0 and {@link #record} returns immediately, so the instrumented code
+ * pays one volatile read per stage and nothing else.
+ *
+ * Each stage keeps an HDR-style histogram: exact buckets below 64 µs, then 32
+ * buckets per power of two, so every recorded value is within about 3% of its
+ * bucket's upper bound from microseconds up to hours, in fixed memory.
+ */
+public class StageProfiler {
+
+    public enum Stage {
+        BUILD_PROMPT("Build prompt"),
+        // java.net.http does not report connect time or whether a connection was reused; the
+        // split is guessed from recent traffic to the host (see HttpClientTransport), so the
+        // difference between the two only approximates the connect time
+        TTFB_NEW_CONNECTION("TTFB (new connection, estimated)"),
+        TTFB("TTFB (reused connection, estimated)"),
+        DOWNLOAD("Download"),
+        PARSE("Parse findings"),
+        SITE_MAP_ADD("Site map add");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private volatile boolean enabled = false;
+    private final Map<Stage, Histogram> histograms = new EnumMap<>(Stage.class);
+
+    public StageProfiler() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new Histogram());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** Start timestamp for a stage, or 0 when profiling is off. */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /** Records the time since {@code startNanos}; does nothing if the stage was started while disabled. */
+    public void record(Stage stage, long startNanos) {
+        if (startNanos == 0L) {
+            return;
+        }
+        histograms.get(stage).record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void reset() {
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /** Fixed-width table of count and percentiles (ms) per stage, for the UI. */
+    public String summary() {
+        StringBuilder out = new StringBuilder(String.format(Locale.ROOT, "%-26s %8s %9s %9s %9s %9s %9s%n",
+                "Stage", "Count", "p50", "p90", "p99", "p99.9", "Max"));
+        for (Stage stage : Stage.values()) {
+            Histogram h = histograms.get(stage);
+            out.append(String.format(Locale.ROOT, "%-26s %8d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    stage.label(), h.count(), h.percentile(0.50) / 1000.0, h.percentile(0.90) / 1000.0,
+                    h.percentile(0.99) / 1000.0, h.percentile(0.999) / 1000.0, h.max() / 1000.0));
+        }
+        return out.toString();
+    }
+
+    /**
+     * CSV export: one summary row per stage, followed by every non-empty bucket
+     * (upper bound in µs and count) so the full distribution can be re-plotted.
+     */
+    public String toCsv() {
+        StringBuilder out = new StringBuilder("stage,count,mean_us,p50_us,p90_us,p99_us,p999_us,max_us\n");
+        for (Stage stage : Stage.values()) {
+            Histogram h = histograms.get(stage);
+            out.append(stage.name()).append(',').append(h.count()).append(',').append(h.mean()).append(',')
+               .append(h.percentile(0.50)).append(',').append(h.percentile(0.90)).append(',')
+               .append(h.percentile(0.99)).append(',').append(h.percentile(0.999)).append(',')
+               .append(h.max()).append('\n');
+        }
+        out.append("\nstage,bucket_upper_us,count\n");
+        for (Stage stage : Stage.values()) {
+            Histogram h = histograms.get(stage);
+            for (int i = 0; i < Histogram.BUCKETS; i++) {
+                long count = h.counts.get(i);
+                if (count > 0) {
+                    out.append(stage.name()).append(',').append(Histogram.upperBound(i)).append(',').append(count).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /** Log-linear histogram of microsecond values; lock-free to record, approximate to read while recording. */
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 5;                  // 32 buckets per power of two
+        private static final int LINEAR_LIMIT = 2 << SUB_BUCKET_BITS;  // exact below 64 µs
+        private static final int MAX_EXPONENT = 41;                    // about 50 days in µs
+        static final int BUCKETS = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * (1 << SUB_BUCKET_BITS);
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            long value = Math.max(0, micros);
+            counts.incrementAndGet(index(value));
+            total.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        static int index(long value) {
+            if (value < LINEAR_LIMIT) {
+                return (int) value;
+            }
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+            int shift = exponent - SUB_BUCKET_BITS;
+            long mantissa = Math.min(value >> shift, (2L << SUB_BUCKET_BITS) - 1); // 32..63
+            int index = LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * (1 << SUB_BUCKET_BITS)
+                    + (int) (mantissa - (1 << SUB_BUCKET_BITS));
+            return Math.min(index, BUCKETS - 1);
+        }
+
+        /** Highest value that falls into bucket {@code index}. */
+        static long upperBound(int index) {
+            if (index < LINEAR_LIMIT) {
+                return index;
+            }
+            int offset = index - LINEAR_LIMIT;
+            int shift = offset / (1 << SUB_BUCKET_BITS) + 1;
+            long mantissa = (1 << SUB_BUCKET_BITS) + offset % (1 << SUB_BUCKET_BITS);
+            return ((mantissa + 1) << shift) - 1;
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+
+        /** Adds everything recorded in {@code other} to this histogram. */
+        void add(Histogram other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = other.counts.get(i);
+                if (count > 0) {
+                    counts.addAndGet(i, count);
+                }
+            }
+            total.add(other.total.sum());
+            sum.add(other.sum.sum());
+            max.accumulateAndGet(other.max.get(), Math::max);
+        }
+
+        /** Values recorded in buckets whose upper bound is at most {@code micros}. */
+        long countAtOrBelow(long micros) {
+            long seen = 0;
+            for (int i = 0; i < BUCKETS && upperBound(i) <= micros; i++) {
+                seen += counts.get(i);
+            }
+            return seen;
+        }
+
+        long mean() {
+            long n = total.sum();
+            return n == 0 ? 0 : sum.sum() / n;
+        }
+
+        long percentile(double p) {
+            long n = total.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            total.reset();
+            sum.reset();
+            max.set(0);
+        }
+    }
+}
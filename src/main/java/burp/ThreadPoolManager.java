@@ -1,86 +1,73 @@
 package burp;
 
-import java.time.Instant;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-
-import burp.api.montoya.MontoyaApi;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ThreadPoolManager {
-    private static final int CORE_POOL_SIZE = 3;
     private static final int MAX_POOL_SIZE = 5;
     private static final int KEEP_ALIVE_TIME = 60;
-    private static final int QUEUE_CAPACITY = 100;
 
     private final ThreadPoolExecutor mainExecutor;
     private final ExecutorService localExecutor;
-    private final Map<String, RateLimiter> rateLimiters;
-    private final MontoyaApi api;
-
-    private static class RateLimiter {
-        private final int maxRequests;
-        private final int timeWindowSeconds;
-        private final Queue<Instant> requestTimes;
-
-        public RateLimiter(int maxRequests, int timeWindowSeconds) {
-            this.maxRequests = maxRequests;
-            this.timeWindowSeconds = timeWindowSeconds;
-            this.requestTimes = new LinkedList<>();
-        }
+    private final ScheduledExecutorService rateLimitScheduler;
+    // Java 21+ only; null when virtual threads are not available in this JVM
+    private final ExecutorService virtualExecutor;
+    private volatile boolean virtualThreadMode = false;
+    // Per provider and key, how many calls may be in flight; adapts to 429s and latency (AIMD)
+    private final Map<String, AdaptiveConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<>();
+    private volatile int maxInFlightPerProvider = 16;
+    private volatile int initialConcurrency = 5;
+    private final AtomicInteger virtualActiveCount = new AtomicInteger();
+    // One limiter per provider and API key, so each key gets its own quota
+    private final Map<String, ProviderRateLimiter> rateLimiters;
+    // Configured keys per provider; calls are spread over them by headroom
+    private final Map<String, ApiKeyPool> keyPools = new ConcurrentHashMap<>();
+    private final AsyncLogAppender log;
+    private final AuditMetrics metrics;
 
-        public synchronized boolean tryAcquire() {
-            Instant now = Instant.now();
-            while (!requestTimes.isEmpty() && 
-                   now.minusSeconds(timeWindowSeconds).isAfter(requestTimes.peek())) {
-                requestTimes.poll();
-            }
+    // Per-provider defaults {requests, tokens} per window, until settings or response headers override them
+    private static final Map<String, int[]> DEFAULT_LIMITS = Map.of(
+        "openai",     new int[]{50, 200000},
+        "openrouter", new int[]{50, 200000},
+        "claude",     new int[]{100, 80000},
+        "gemini",     new int[]{60, 250000},
+        "local",      new int[]{5, 1000000}
+    );
 
-            if (requestTimes.size() < maxRequests) {
-                requestTimes.add(now);
-                return true;
-            }
-            return false;
-        }
+    private volatile int configuredRequests = -1;  // -1 = use DEFAULT_LIMITS
+    private volatile int configuredTokens = -1;
+    private volatile int configuredWindowSeconds = 60;
 
-        public synchronized long getNextAvailableSlot() {
-            if (requestTimes.isEmpty()) return 0;
-            
-            Instant oldestRequest = requestTimes.peek();
-            long timeToWait = timeWindowSeconds - 
-                            (Instant.now().getEpochSecond() - oldestRequest.getEpochSecond());
-            return Math.max(0, timeToWait);
-        }
-    }
-
-    public ThreadPoolManager(MontoyaApi api) {
-        this.api = api;
-        this.rateLimiters = new HashMap<>();
-        
-        // Initialize rate limiters
-        rateLimiters.put("openai", new RateLimiter(50, 60));    // 50 requests per minute
-        rateLimiters.put("claude", new RateLimiter(100, 60));   // 100 requests per minute
-        rateLimiters.put("gemini", new RateLimiter(60, 60));    // 60 requests per minute
-        rateLimiters.put("local", new RateLimiter(5, 60));      // 2 requests per minute
+    public ThreadPoolManager(AsyncLogAppender log, AuditMetrics metrics) {
+        this.log = log;
+        this.metrics = metrics;
+        this.rateLimiters = new ConcurrentHashMap<>();
 
-        // Executor for OpenAI, Claude, Gemini (parallel)
+        // Executor for OpenAI, Claude, Gemini (parallel). Tasks only reach this queue once
+        // their rate-limit permit has been granted, so workers never sit waiting for a slot.
         this.mainExecutor = new ThreadPoolExecutor(
-            CORE_POOL_SIZE,
+            MAX_POOL_SIZE,
             MAX_POOL_SIZE,
             KEEP_ALIVE_TIME,
             TimeUnit.SECONDS,
-            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            new LinkedBlockingQueue<>(),
             new ThreadFactory() {
                 private final AtomicInteger threadCount = new AtomicInteger(1);
                 @Override
@@ -91,8 +78,9 @@ public class ThreadPoolManager {
                     return thread;
                 }
             },
-            new ThreadPoolExecutor.CallerRunsPolicy()
+            new ThreadPoolExecutor.AbortPolicy()
         );
+        this.mainExecutor.allowCoreThreadTimeOut(true);
 
         // Executor for Local LLM (serial execution)
         this.localExecutor = Executors.newSingleThreadExecutor(r -> {
@@ -101,30 +89,287 @@ public class ThreadPoolManager {
             t.setDaemon(true);
             return t;
         });
+
+        // Single timer thread that wakes rate-limited tasks when their slot opens and fires scheduled retries
+        this.rateLimitScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("AIAuditor-RateLimiter");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.virtualExecutor = createVirtualThreadExecutor();
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor() reflectively so the
+     * extension still builds for and runs on Java 17.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public boolean isVirtualThreadSupported() {
+        return virtualExecutor != null;
+    }
+
+    /** Switches provider calls to virtual threads; returns false if this JVM does not support them. */
+    public boolean setVirtualThreadMode(boolean enabled) {
+        if (enabled && virtualExecutor == null) {
+            log.error("Virtual threads require Java 21 or later; staying on the platform thread pool.");
+            virtualThreadMode = false;
+            return false;
+        }
+        virtualThreadMode = enabled;
+        return true;
+    }
+
+    public boolean isVirtualThreadMode() {
+        return virtualThreadMode;
+    }
+
+    /** Upper bound for each adaptive limit; the platform pool is sized so it is never the tighter bound. */
+    public void setMaxInFlightPerProvider(int maxInFlight) {
+        this.maxInFlightPerProvider = Math.max(1, maxInFlight);
+        int poolSize = Math.max(MAX_POOL_SIZE, maxInFlightPerProvider);
+        if (poolSize >= mainExecutor.getCorePoolSize()) {
+            mainExecutor.setMaximumPoolSize(poolSize);
+            mainExecutor.setCorePoolSize(poolSize);
+        } else {
+            mainExecutor.setCorePoolSize(poolSize);
+            mainExecutor.setMaximumPoolSize(poolSize);
+        }
+        concurrencyLimiters.forEach((key, limiter) -> {
+            if (!key.startsWith("local#")) {
+                limiter.setMaxLimit(maxInFlightPerProvider);
+            }
+        });
+    }
+
+    /** Starting concurrency for limiters created from now on (the configured batch size). */
+    public void setInitialConcurrency(int initial) {
+        this.initialConcurrency = Math.max(1, initial);
+    }
+
+    /**
+     * Executor for coordination work (chunking, fan-out, waiting on chunk futures).
+     * Uses virtual threads in virtual-thread mode so blocked coordinators cost nothing.
+     */
+    public ExecutorService getCoordinatorExecutor() {
+        return virtualThreadMode ? virtualExecutor : ForkJoinPool.commonPool();
+    }
+
+    /** Timer shared by rate-limit wake-ups and retry backoff; scheduled work must be short. */
+    public ScheduledExecutorService getScheduler() {
+        return rateLimitScheduler;
     }
 
     public <T> CompletableFuture<T> submitTask(String provider, Callable<T> task) {
-        ExecutorService selectedExecutor = provider.equalsIgnoreCase("local") ? localExecutor : mainExecutor;
+        return submitTask(provider, null, 0, task);
+    }
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                RateLimiter limiter = rateLimiters.get(provider);
-                if (limiter != null) {
-                    while (!limiter.tryAcquire()) {
-                        Thread.sleep(1000); // Wait 1 second before retrying
-                    }
-                } else {
-                    api.logging().logToError("Unknown provider: " + provider + ". Proceeding without rate limiting.");
+    /**
+     * Runs the task once the provider/key limiter has granted one request and
+     * {@code estimatedTokens} tokens. Until then nothing occupies a worker.
+     */
+    public <T> CompletableFuture<T> submitTask(String provider, String apiKey, int estimatedTokens, Callable<T> task) {
+        long submitted = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AdaptiveConcurrencyLimiter concurrency = concurrencyFor(provider, apiKey);
+        AtomicReference<CompletableFuture<Void>> slot = new AtomicReference<>();
+        AtomicBoolean slotDropped = new AtomicBoolean();
+        Thread[] runner = new Thread[1];
+        long[] granted = new long[1];
+        // Gives the concurrency slot back exactly once, whether it was granted yet or not
+        Runnable dropSlot = () -> {
+            CompletableFuture<Void> held = slot.get();
+            if (held != null && slotDropped.compareAndSet(false, true) && !held.cancel(false) && !held.isCompletedExceptionally()) {
+                concurrency.release();
+            }
+        };
+        // Rate-limit permit first, then a concurrency slot; neither wait occupies a thread
+        CompletableFuture<Void> permit = limiterFor(provider, apiKey).acquire(estimatedTokens, rateLimitScheduler);
+        CompletableFuture<Void> ready = permit.thenCompose(ignored -> {
+            granted[0] = System.nanoTime();
+            slot.set(concurrency.acquire());
+            if (result.isDone()) {
+                dropSlot.run(); // cancelled while the permit was being granted
+            }
+            return slot.get();
+        });
+
+        boolean onVirtualThread = virtualThreadMode;
+        ExecutorService selectedExecutor = onVirtualThread ? virtualExecutor
+                : provider.equalsIgnoreCase("local") ? localExecutor : mainExecutor;
+
+        ready.thenApplyAsync(ignored -> {
+            synchronized (runner) {
+                if (result.isDone()) {
+                    throw new CancellationException();
                 }
+                runner[0] = Thread.currentThread();
+            }
+            metrics.recordQueueWait(provider, granted[0] - submitted, System.nanoTime() - granted[0]);
+            if (onVirtualThread) {
+                virtualActiveCount.incrementAndGet();
+            }
+            try {
                 return task.call();
             } catch (Exception e) {
-                api.logging().logToError("Error in AI analysis task: " + e.getMessage());
+                if (!result.isCancelled()) {
+                    log.error("Error in AI analysis task: " + e.getMessage());
+                }
                 throw new CompletionException(e);
+            } finally {
+                if (onVirtualThread) {
+                    virtualActiveCount.decrementAndGet();
+                }
+                synchronized (runner) {
+                    runner[0] = null;
+                }
+                Thread.interrupted(); // do not hand a pooled thread on with our cancellation interrupt
             }
-        }, selectedExecutor);
+        }, selectedExecutor).whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(RetryPolicy.unwrap(error));
+            }
+        });
+
+        // Cancelling the result stops the wait or aborts the call (HttpClient.send gives up when interrupted)
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                permit.cancel(false);
+                synchronized (runner) {
+                    if (runner[0] != null) {
+                        runner[0].interrupt();
+                    }
+                }
+            }
+            dropSlot.run();
+        });
+        return result;
+    }
+
+    /**
+     * Reports how a provider call went (HTTP status, 0 if no response arrived)
+     * to the adaptive concurrency limit of that provider and key.
+     */
+    public void recordCallResult(String provider, String apiKey, int status, long latencyNanos) {
+        AdaptiveConcurrencyLimiter limiter = concurrencyLimiters.get(limiterKey(provider, apiKey));
+        if (limiter != null) {
+            limiter.onResult(status, latencyNanos);
+        }
+    }
+
+    private AdaptiveConcurrencyLimiter concurrencyFor(String provider, String apiKey) {
+        return concurrencyLimiters.computeIfAbsent(limiterKey(provider, apiKey), k ->
+                // Local LLMs keep their serial behaviour
+                provider.equalsIgnoreCase("local") ? new AdaptiveConcurrencyLimiter(1, 1)
+                        : new AdaptiveConcurrencyLimiter(initialConcurrency, maxInFlightPerProvider));
+    }
+
+    /** Replaces the keys configured for {@code provider}; an empty list removes its pool. */
+    public void setApiKeys(String provider, List<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            keyPools.remove(provider);
+        } else {
+            keyPools.put(provider, new ApiKeyPool(provider, keys));
+        }
+    }
+
+    /**
+     * The key for the next call to {@code provider}: the pooled key with the most
+     * rate-limit headroom that is not cooling down, or {@code fallback} if no
+     * keys are pooled for the provider.
+     */
+    public String selectApiKey(String provider, String fallback) {
+        ApiKeyPool pool = keyPools.get(provider);
+        if (pool == null || pool.isEmpty()) {
+            return fallback;
+        }
+        String key = pool.select(k -> {
+            AdaptiveConcurrencyLimiter concurrency = concurrencyLimiters.get(limiterKey(provider, k));
+            double headroom = limiterFor(provider, k).headroom();
+            // Calls already queued on the key for a concurrency slot count against it too
+            return concurrency == null ? headroom : headroom / (1 + concurrency.getWaitingCount());
+        });
+        return key != null ? key : fallback;
+    }
+
+    /** Whether {@code provider} has a pooled key other than {@code key} that is not cooling down. */
+    public boolean hasOtherApiKey(String provider, String key) {
+        ApiKeyPool pool = keyPools.get(provider);
+        return pool != null && pool.hasOtherAvailableKey(key);
+    }
+
+    /**
+     * Updates a key's health after a call: success clears its failure streak, a
+     * rate limit or rejection puts it into cooldown. Other failures are not the
+     * key's fault and leave it alone.
+     */
+    public void recordKeyOutcome(String provider, String key, RetryPolicy.Failure failure) {
+        ApiKeyPool pool = keyPools.get(provider);
+        if (pool == null) {
+            return;
+        }
+        if (failure == null) {
+            pool.recordSuccess(key);
+        } else if (failure.outcome() == RetryPolicy.Outcome.RATE_LIMITED) {
+            pool.recordRateLimited(key, failure.isServerDelay() ? failure.delayMillis() : 0);
+        } else if (failure.outcome() == RetryPolicy.Outcome.KEY_REJECTED) {
+            pool.recordRejected(key);
+        }
+    }
+
+    /** Whether every pooled key of {@code provider} is cooling down; false if it has no pool. */
+    public boolean isProviderCoolingDown(String provider) {
+        ApiKeyPool pool = keyPools.get(provider);
+        return pool != null && !pool.isEmpty() && pool.coolingDownCount() == pool.size();
+    }
+
+    /** Key pool per provider, for the status panel. */
+    public Map<String, ApiKeyPool> getKeyPools() {
+        return new TreeMap<>(keyPools);
+    }
+
+    /** Limiter per "provider#keyId", for the status panel. */
+    public Map<String, AdaptiveConcurrencyLimiter> getConcurrencyLimiters() {
+        return new TreeMap<>(concurrencyLimiters);
+    }
+
+    /** Feeds a provider response's rate-limit headers back into the limiter for that key. */
+    public void updateFromResponseHeaders(String provider, String apiKey, Map<String, List<String>> headers) {
+        ProviderRateLimiter limiter = limiterFor(provider, apiKey);
+        limiter.updateFromHeaders(headers);
+        limiter.release(rateLimitScheduler);
+    }
+
+    private ProviderRateLimiter limiterFor(String provider, String apiKey) {
+        return rateLimiters.computeIfAbsent(limiterKey(provider, apiKey), k -> {
+            int[] defaults = DEFAULT_LIMITS.getOrDefault(provider, new int[]{50, 200000});
+            int requests = configuredRequests > 0 ? configuredRequests : defaults[0];
+            int tokens = configuredTokens > 0 ? configuredTokens : defaults[1];
+            return new ProviderRateLimiter(requests, tokens, configuredWindowSeconds);
+        });
+    }
+
+    private static String limiterKey(String provider, String apiKey) {
+        // Never keep the raw key around as a map key
+        String keyId = (apiKey == null || apiKey.isEmpty()) ? "-" : Integer.toHexString(apiKey.hashCode());
+        return provider + "#" + keyId;
     }
 
     public void shutdown() {
+        rateLimitScheduler.shutdownNow();
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdownNow();
+        }
         mainExecutor.shutdown();
         localExecutor.shutdown();
         try {
@@ -146,7 +391,7 @@ public class ThreadPoolManager {
     }
 
     public int getActiveCount() {
-        return mainExecutor.getActiveCount();
+        return mainExecutor.getActiveCount() + virtualActiveCount.get();
     }
 
     public long getTaskCount() {
@@ -157,12 +402,33 @@ public class ThreadPoolManager {
         return mainExecutor.getQueue().size();
     }
 
+    /** Tasks that are waiting for a rate-limit permit and have not been queued on a worker yet. */
+    public int getRateLimitedCount() {
+        return rateLimiters.values().stream().mapToInt(ProviderRateLimiter::getWaitingCount).sum();
+    }
+
+    /** Tasks that have their rate-limit permit and are waiting for a concurrency slot. */
+    public int getConcurrencyLimitedCount() {
+        return concurrencyLimiters.values().stream().mapToInt(AdaptiveConcurrencyLimiter::getWaitingCount).sum();
+    }
+
     public ExecutorService getExecutor() {
         return mainExecutor;
     }
 
 	 public void updateRateLimiters(int maxReq, int windowSec) {
-	   rateLimiters.keySet().forEach(provider ->
-		 rateLimiters.put(provider, new RateLimiter(maxReq, windowSec)));
+	   updateRateLimiters(maxReq, configuredTokens, windowSec);
+	 }
+
+	 public void updateRateLimiters(int maxReq, int maxTokens, int windowSec) {
+	   this.configuredRequests = maxReq;
+	   this.configuredTokens = maxTokens;
+	   this.configuredWindowSeconds = windowSec;
+	   // Reconfigure in place so tasks already waiting for a permit are not lost
+	   rateLimiters.forEach((key, limiter) -> {
+		 int[] defaults = DEFAULT_LIMITS.getOrDefault(key.substring(0, key.indexOf('#')), new int[]{50, 200000});
+		 limiter.reconfigure(maxReq > 0 ? maxReq : defaults[0], maxTokens > 0 ? maxTokens : defaults[1], windowSec);
+		 limiter.release(rateLimitScheduler);
+	   });
 	 }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package burp;
+
+/**
+ * Counts the tokens a model will see for a piece of text. Used to size chunks
+ * against the context window and to charge requests against the token budget,
+ * so it must be fast on multi-megabyte responses.
+ */
+public interface TokenCounter {
+
+    int count(CharSequence text);
+
+    /** Vocabulary or estimator name, for logging. */
+    String name();
+
+    /** Picks the counter for a "provider/model" string; see {@link TokenCounters}. */
+    static TokenCounter forModel(String model) {
+        return TokenCounters.forModel(model);
+    }
+}
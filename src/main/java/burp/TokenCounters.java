@@ -0,0 +1,141 @@
+package burp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses a token counter from a "provider/model" string.
+ *
+ * OpenAI models use their tiktoken vocabulary (o200k_base for GPT-4o, GPT-4.1
+ * and the o-series, cl100k_base for older models). Claude and Gemini do not
+ * publish their vocabularies, so they are counted with the closest public one
+ * and scaled. A vocabulary is read from {@code /tokenizers/<name>.tiktoken} on
+ * the classpath (fetched and checksummed by the build) or from
+ * {@code ~/.ai-auditor/tokenizers/}, and must encode a known sample to the ids
+ * tiktoken gives; otherwise the heuristic estimator is used with the same
+ * family scaling, and the counter's name says it is an estimate.
+ */
+public final class TokenCounters {
+    private static final Path USER_TOKENIZER_DIR = Paths.get(System.getProperty("user.home"), ".ai-auditor", "tokenizers");
+
+    /** Used when the model is unknown; matches the old length/4 estimate on plain English. */
+    public static final TokenCounter DEFAULT = new HeuristicTokenCounter("cl100k_base", 1.0);
+
+    private static final Map<String, TokenCounter> FAMILIES = new ConcurrentHashMap<>();
+    private static final Map<String, TokenCounter> VOCABULARIES = new ConcurrentHashMap<>();
+    private static final Map<String, String> FALLBACK_REASONS = new ConcurrentHashMap<>();
+
+    // tiktoken's encoding of SAMPLE in each vocabulary
+    private static final String SAMPLE = "hello world";
+    private static final Map<String, int[]> SAMPLE_IDS = Map.of(
+            "cl100k_base", new int[]{15339, 1917},
+            "o200k_base", new int[]{24912, 2375});
+
+    private TokenCounters() {
+    }
+
+    public static TokenCounter forModel(String model) {
+        return FAMILIES.computeIfAbsent(familyFor(model), TokenCounters::create);
+    }
+
+    /** Why the model's counts are estimates (no vocabulary, or one that failed the check), or null if they are exact. */
+    public static String fallbackReason(String model) {
+        forModel(model);
+        String family = familyFor(model);
+        return FALLBACK_REASONS.get("o200k_base".equals(family) || "gemini".equals(family) ? "o200k_base" : "cl100k_base");
+    }
+
+    /** Maps "provider/model" to a tokenizer family name. */
+    static String familyFor(String model) {
+        String m = model == null ? "" : model.toLowerCase(Locale.ROOT);
+        // OpenRouter ids carry the upstream vendor: openrouter/anthropic/claude-3.5-sonnet
+        if (m.startsWith("openrouter/")) {
+            m = m.substring("openrouter/".length());
+        }
+        if (m.contains("claude") || m.startsWith("anthropic/")) {
+            return "claude";
+        }
+        if (m.contains("gemini") || m.contains("gemma") || m.startsWith("google/")) {
+            return "gemini";
+        }
+        if (m.contains("gpt-4o") || m.contains("gpt-4.1") || m.contains("gpt-5") || m.matches("(openai/)?o\\d.*")
+                || m.contains("/o1") || m.contains("/o3") || m.contains("/o4")) {
+            return "o200k_base";
+        }
+        return "cl100k_base";
+    }
+
+    private static TokenCounter create(String family) {
+        switch (family) {
+            case "o200k_base":
+                return load("o200k_base", BpeTokenCounter.O200K_PATTERN, 0.92);
+            case "claude":
+                return scaled("claude", load("cl100k_base", BpeTokenCounter.CL100K_PATTERN, 1.0), 1.12);
+            case "gemini":
+                return scaled("gemini", load("o200k_base", BpeTokenCounter.O200K_PATTERN, 0.92), 1.0);
+            case "cl100k_base":
+            default:
+                return load("cl100k_base", BpeTokenCounter.CL100K_PATTERN, 1.0);
+        }
+    }
+
+    private static TokenCounter load(String vocabulary, Pattern pretokenizer, double heuristicScale) {
+        return VOCABULARIES.computeIfAbsent(vocabulary, key -> {
+            String fileName = vocabulary + ".tiktoken";
+            String reason = "no " + fileName + " bundled or in " + USER_TOKENIZER_DIR;
+            try (InputStream bundled = TokenCounters.class.getResourceAsStream("/tokenizers/" + fileName)) {
+                if (bundled != null) {
+                    BpeTokenCounter counter = new BpeTokenCounter(vocabulary, bundled, pretokenizer);
+                    if (matchesTiktoken(counter)) {
+                        return counter;
+                    }
+                    reason = "bundled " + fileName + " does not match tiktoken";
+                }
+            } catch (IOException e) {
+                reason = "bundled " + fileName + " unreadable: " + e.getMessage();
+            }
+            Path userFile = USER_TOKENIZER_DIR.resolve(fileName);
+            if (Files.isRegularFile(userFile)) {
+                try (InputStream in = Files.newInputStream(userFile)) {
+                    BpeTokenCounter counter = new BpeTokenCounter(vocabulary, in, pretokenizer);
+                    if (matchesTiktoken(counter)) {
+                        return counter;
+                    }
+                    reason = userFile + " does not match tiktoken";
+                } catch (IOException e) {
+                    reason = userFile + " unreadable: " + e.getMessage();
+                }
+            }
+            FALLBACK_REASONS.put(vocabulary, reason);
+            return new HeuristicTokenCounter(vocabulary, heuristicScale);
+        });
+    }
+
+    /** A wrong or truncated vocabulary still counts plausibly, so it is checked against known ids. */
+    static boolean matchesTiktoken(BpeTokenCounter counter) {
+        int[] expected = SAMPLE_IDS.get(counter.name());
+        return expected != null && Arrays.equals(expected, counter.encode(SAMPLE));
+    }
+
+    private static TokenCounter scaled(String name, TokenCounter base, double factor) {
+        return new TokenCounter() {
+            @Override
+            public int count(CharSequence text) {
+                return (int) Math.ceil(base.count(text) * factor);
+            }
+
+            @Override
+            public String name() {
+                return name + " via " + base.name();
+            }
+        };
+    }
+}
@@ -0,0 +1,352 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.MimeType;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+/**
+ * Local pre-scan that decides which request/response pairs of a bulk scan are
+ * worth an AI audit. Each pair is scored on signals that findings tend to
+ * come with: parameter values reflected in the response, authentication
+ * headers, state-changing methods, parameter names such as "redirect" or
+ * "file", error signatures (stack traces, SQL errors) and secret-like strings
+ * (private keys, cloud keys, JWTs). Static assets, 304s and health checks
+ * score low. Pairs below the threshold are skipped.
+ *
+ * Error and secret signatures, and each pair's own parameter values, are
+ * found with an {@link AhoCorasick} automaton in one pass over the response,
+ * so scoring takes microseconds even for large responses. Signatures are
+ * only searched in the body, since headers such as a laravel_session cookie
+ * name the framework on every response; short cloud key prefixes, which the
+ * case-folding automaton also finds in words like "Asia", are confirmed
+ * against the full key format.
+ */
+public class TriageScanner {
+    public static final int DEFAULT_THRESHOLD = 1;
+    // Responses are only searched this far; signatures and reflections show up early
+    private static final int MAX_SCAN_CHARS = 512 * 1024;
+    private static final int MIN_REFLECTED_LENGTH = 4;
+    private static final int MAX_REFLECTED_VALUES = 50;
+    private static final int MAX_REFLECTED_LENGTH = 200;
+
+    private static final int REFLECTED_POINTS = 3;
+    private static final int MAX_REFLECTED_POINTS = 6;
+    private static final int ERROR_POINTS = 3;
+    private static final int SECRET_POINTS = 3;
+    private static final int AUTH_POINTS = 1;
+    private static final int STATE_CHANGE_POINTS = 1;
+    private static final int PARAM_NAME_POINTS = 1;
+    private static final int MIME_POINTS = 1;
+    private static final int SERVER_ERROR_POINTS = 1;
+    private static final int STATIC_PENALTY = -5;
+    private static final int NOT_MODIFIED_PENALTY = -5;
+    private static final int HEALTH_CHECK_PENALTY = -3;
+
+    // Substrings of stack traces and database, template and runtime errors
+    private static final String[] ERROR_SIGNATURES = {
+            "exception in thread", "stack trace", "stacktrace", "traceback (most recent call last)",
+            "at java.", "at org.springframework.", "at sun.reflect.", "system.nullreferenceexception",
+            "nullpointerexception", "illegalargumentexception", "in /var/www/", "on line <b>",
+            "fatal error:", "warning: mysql_", "mysql_fetch", "you have an error in your sql syntax",
+            "sqlstate[", "ora-00", "ora-01", "pg::syntaxerror", "psqlexception", "sqlite3::",
+            "sqlite_error", "odbc driver", "microsoft ole db provider", "unclosed quotation mark",
+            "syntax error at or near", "undefined method", "undefined index", "werkzeug debugger",
+            "django.core.exceptions", "illuminate\\", "whoops!", "activerecord::", "node_modules/",
+            "referenceerror:", "typeerror:", "at object.<anonymous>", "debug = true",
+    };
+
+    // Substrings of key material and credential assignments
+    private static final String[] SECRET_SIGNATURES = {
+            "-----begin rsa private key", "-----begin private key", "-----begin openssh private key",
+            "-----begin ec private key", "akia", "asia", "aws_secret_access_key", "aiza", "sk_live_",
+            "rk_live_", "ghp_", "gho_", "github_pat_", "xoxb-", "xoxp-", "glpat-", "\"client_secret\"",
+            "\"api_key\"", "\"apikey\"", "\"secret\"", "\"password\"", "\"private_key\"", "\"access_token\"",
+            "\"refresh_token\"", "eyjhbgcioi", "mongodb+srv://", "postgres://", "mysql://", "redis://",
+    };
+
+    // Case-sensitive key formats for signatures that are too short to trust on their own
+    private static final Map<String, Pattern> SECRET_FORMATS = Map.of(
+            "akia", Pattern.compile("AKIA[0-9A-Z]{16}"),
+            "asia", Pattern.compile("ASIA[0-9A-Z]{16}"),
+            "aiza", Pattern.compile("AIza[0-9A-Za-z_-]{35}"));
+
+    private static final Set<String> AUTH_HEADERS = Set.of(
+            "authorization", "cookie", "x-api-key", "x-auth-token", "x-access-token", "x-csrf-token", "x-xsrf-token");
+
+    // Parameter names behind common injection, redirect, file and access-control bugs
+    private static final Set<String> INTERESTING_PARAMS = Set.of(
+            "id", "uid", "user", "userid", "user_id", "account", "accountid", "email", "role", "admin",
+            "file", "filename", "path", "dir", "folder", "doc", "template", "page", "include",
+            "url", "uri", "redirect", "redirect_uri", "return", "returnurl", "return_to", "next", "callback",
+            "continue", "dest", "target", "cmd", "exec", "command", "query", "q", "search", "sql", "filter",
+            "sort", "order", "debug", "token", "key", "secret", "password", "xml", "json", "data");
+
+    private static final Pattern STATIC_PATH = Pattern.compile(
+            "(?i).*\\.(png|jpe?g|gif|webp|svg|ico|bmp|css|woff2?|ttf|otf|eot|mp4|webm|mp3|wav|pdf|zip|gz|map)$");
+    private static final Pattern HEALTH_PATH = Pattern.compile(
+            "(?i).*/(health|healthz|healthcheck|ping|ready|readyz|live|livez|status|metrics|favicon\\.ico)/?$");
+
+    private static final AhoCorasick SIGNATURES;
+    private static final int SECRET_BASE;
+    static {
+        AhoCorasick.Builder builder = AhoCorasick.builder();
+        for (String signature : ERROR_SIGNATURES) {
+            builder.add(signature);
+        }
+        SECRET_BASE = ERROR_SIGNATURES.length;
+        for (String signature : SECRET_SIGNATURES) {
+            builder.add(signature);
+        }
+        SIGNATURES = builder.build();
+    }
+
+    /** Why a pair was skipped, for the status panel. */
+    public enum SkipReason { STATIC_ASSET, NOT_MODIFIED, HEALTH_CHECK, LOW_SCORE }
+
+    /** What the scanner looks at in one request/response pair. */
+    static final class Exchange {
+        final String method;
+        final String path;
+        final List<String> requestHeaderNames;
+        final List<String[]> parameters;
+        final int status;
+        final String mimeType;
+        final String response;
+        final int bodyOffset;
+
+        Exchange(String method, String path, List<String> requestHeaderNames, List<String[]> parameters,
+                 int status, String mimeType, String response, int bodyOffset) {
+            this.method = method;
+            this.path = path;
+            this.requestHeaderNames = requestHeaderNames;
+            this.parameters = parameters;
+            this.status = status;
+            this.mimeType = mimeType;
+            this.response = response;
+            this.bodyOffset = Math.min(bodyOffset, response.length());
+        }
+
+        static Exchange of(HttpRequestResponse reqRes) {
+            HttpRequest request = reqRes.request();
+            HttpResponse response = reqRes.response();
+            List<String> headerNames = new ArrayList<>();
+            for (HttpHeader header : request.headers()) {
+                headerNames.add(header.name());
+            }
+            List<String[]> parameters = new ArrayList<>();
+            for (ParsedHttpParameter parameter : request.parameters()) {
+                if (parameter.type() != HttpParameterType.COOKIE) {
+                    parameters.add(new String[]{parameter.name(), parameter.value()});
+                }
+            }
+            MimeType mime = response == null ? null : response.statedMimeType();
+            return new Exchange(request.method(), request.pathWithoutQuery(), headerNames, parameters,
+                    response == null ? 0 : response.statusCode(), mime == null ? "" : mime.name(),
+                    response == null ? "" : response.toString(), response == null ? 0 : response.bodyOffset());
+        }
+    }
+
+    /** A pair's score and the signals behind it. */
+    public static final class Score {
+        private final int points;
+        private final List<String> signals;
+        private final SkipReason penalty;
+
+        Score(int points, List<String> signals, SkipReason penalty) {
+            this.points = points;
+            this.signals = signals;
+            this.penalty = penalty;
+        }
+
+        public int points() {
+            return points;
+        }
+
+        /** e.g. ["reflected:2", "auth", "error:sqlstate["]. */
+        public List<String> signals() {
+            return signals;
+        }
+    }
+
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final Map<SkipReason, LongAdder> skipped = new ConcurrentHashMap<>();
+
+    public Score score(HttpRequestResponse reqRes) {
+        return score(Exchange.of(reqRes));
+    }
+
+    Score score(Exchange exchange) {
+        int points = 0;
+        List<String> signals = new ArrayList<>();
+        SkipReason penalty = null;
+
+        if (exchange.status == 304) {
+            points += NOT_MODIFIED_PENALTY;
+            penalty = SkipReason.NOT_MODIFIED;
+            signals.add("304");
+        } else if (isStaticMime(exchange.mimeType) || STATIC_PATH.matcher(exchange.path).matches()) {
+            points += STATIC_PENALTY;
+            penalty = SkipReason.STATIC_ASSET;
+            signals.add("static");
+        } else if (HEALTH_PATH.matcher(exchange.path).matches()) {
+            points += HEALTH_CHECK_PENALTY;
+            penalty = SkipReason.HEALTH_CHECK;
+            signals.add("health-check");
+        }
+
+        switch (exchange.mimeType) {
+            case "JSON":
+            case "HTML":
+            case "XML":
+                points += MIME_POINTS;
+                signals.add("mime:" + exchange.mimeType);
+                break;
+            default:
+                break;
+        }
+        if (exchange.status >= 500) {
+            points += SERVER_ERROR_POINTS;
+            signals.add("status:" + exchange.status);
+        }
+        String method = exchange.method.toUpperCase(Locale.ROOT);
+        if (method.equals("POST") || method.equals("PUT") || method.equals("PATCH") || method.equals("DELETE")) {
+            points += STATE_CHANGE_POINTS;
+            signals.add("method:" + method);
+        }
+        for (String name : exchange.requestHeaderNames) {
+            if (AUTH_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                points += AUTH_POINTS;
+                signals.add("auth");
+                break;
+            }
+        }
+        for (String[] parameter : exchange.parameters) {
+            if (INTERESTING_PARAMS.contains(parameter[0].toLowerCase(Locale.ROOT))) {
+                points += PARAM_NAME_POINTS;
+                signals.add("param:" + parameter[0]);
+                break;
+            }
+        }
+
+        BitSet found = SIGNATURES.find(exchange.response, exchange.bodyOffset, MAX_SCAN_CHARS);
+        int error = found.nextSetBit(0);
+        if (error >= 0 && error < SECRET_BASE) {
+            points += ERROR_POINTS;
+            signals.add("error:" + ERROR_SIGNATURES[error]);
+        }
+        for (int secret = found.nextSetBit(SECRET_BASE); secret >= 0; secret = found.nextSetBit(secret + 1)) {
+            String signature = SECRET_SIGNATURES[secret - SECRET_BASE];
+            if (isConfirmed(signature, exchange)) {
+                points += SECRET_POINTS;
+                signals.add("secret:" + signature);
+                break;
+            }
+        }
+
+        int reflected = countReflected(exchange);
+        if (reflected > 0) {
+            points += Math.min(MAX_REFLECTED_POINTS, reflected * REFLECTED_POINTS);
+            signals.add("reflected:" + reflected);
+        }
+        return new Score(points, signals, penalty);
+    }
+
+    /** Whether a signature hit is a real key: checked against its exact format where it has one. */
+    private static boolean isConfirmed(String signature, Exchange exchange) {
+        Pattern format = SECRET_FORMATS.get(signature);
+        if (format == null) {
+            return true;
+        }
+        int end = (int) Math.min(exchange.response.length(), (long) exchange.bodyOffset + MAX_SCAN_CHARS);
+        return format.matcher(exchange.response).region(exchange.bodyOffset, end).find();
+    }
+
+    /** How many distinct parameter values appear verbatim in the response. */
+    private static int countReflected(Exchange exchange) {
+        AhoCorasick.Builder builder = AhoCorasick.builder();
+        int values = 0;
+        for (String[] parameter : exchange.parameters) {
+            String value = parameter[1];
+            if (value == null || value.length() < MIN_REFLECTED_LENGTH || value.length() > MAX_REFLECTED_LENGTH
+                    || isCommonValue(value)) {
+                continue;
+            }
+            builder.add(value);
+            if (++values == MAX_REFLECTED_VALUES) {
+                break;
+            }
+        }
+        return values == 0 ? 0 : builder.build().find(exchange.response, MAX_SCAN_CHARS).cardinality();
+    }
+
+    /** Values that show up in most responses anyway, so finding them says nothing. */
+    private static boolean isCommonValue(String value) {
+        String v = value.toLowerCase(Locale.ROOT);
+        return v.equals("true") || v.equals("false") || v.equals("null") || v.equals("none") || v.equals("json")
+                || v.chars().allMatch(Character::isDigit);
+    }
+
+    private static boolean isStaticMime(String mime) {
+        return mime.startsWith("IMAGE") || mime.startsWith("FONT") || mime.equals("CSS") || mime.equals("SOUND")
+                || mime.equals("VIDEO") || mime.equals("APPLICATION_FLASH");
+    }
+
+    /**
+     * Keeps the pairs scoring at least {@code threshold} and counts the rest
+     * by the reason they scored low.
+     */
+    public List<HttpRequestResponse> filter(List<HttpRequestResponse> items, int threshold) {
+        List<HttpRequestResponse> kept = new ArrayList<>();
+        for (HttpRequestResponse reqRes : items) {
+            Score score = score(reqRes);
+            scanned.increment();
+            if (score.points >= threshold) {
+                passed.increment();
+                kept.add(reqRes);
+            } else {
+                SkipReason reason = score.penalty != null ? score.penalty : SkipReason.LOW_SCORE;
+                skipped.computeIfAbsent(reason, r -> new LongAdder()).increment();
+            }
+        }
+        return kept;
+    }
+
+    public long scannedCount() {
+        return scanned.sum();
+    }
+
+    public long passedCount() {
+        return passed.sum();
+    }
+
+    public long skippedCount() {
+        long total = 0;
+        for (LongAdder count : skipped.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /** Skipped pairs per reason, e.g. {STATIC_ASSET=120, LOW_SCORE=8}. */
+    public Map<SkipReason, Long> skippedByReason() {
+        Map<SkipReason, Long> counts = new TreeMap<>();
+        skipped.forEach((reason, count) -> counts.put(reason, count.sum()));
+        return counts;
+    }
+}